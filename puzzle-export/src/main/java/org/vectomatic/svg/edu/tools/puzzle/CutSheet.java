@@ -0,0 +1,243 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.tools.puzzle;
+
+import java.io.StringWriter;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.vectomatic.svg.edu.client.puzzle.EdgeGeometry;
+import org.vectomatic.svg.edu.client.puzzle.SeededRandom;
+import org.w3c.dom.Element;
+
+/**
+ * Printable cut sheet of a level: the image of the level,
+ * scaled to fit an A4 page, with the cut lines of the pieces
+ * drawn over it and a caption which identifies the board.
+ * The page layout and the markup of the image only depend on
+ * the level, so they are computed once and shared by all the
+ * sheets of the level; a sheet is then written without any
+ * DOM access, which lets several threads write sheets of the
+ * same level.
+ */
+class CutSheet {
+	/**
+	 * Page size and margin, in millimeters
+	 */
+	private static final float PAGE_WIDTH = 210;
+	private static final float PAGE_HEIGHT = 297;
+	private static final float MARGIN = 10;
+	/**
+	 * Width of the cut lines, in millimeters
+	 */
+	private static final float CUT_WIDTH = 0.3f;
+	/**
+	 * Size of the caption font, in millimeters
+	 */
+	private static final float CAPTION_SIZE = 3.5f;
+
+	/**
+	 * Receiver of the cut lines, which writes them as path data
+	 * with absolute coordinates
+	 */
+	private static class PathWriter implements EdgeGeometry.PathSink {
+		private StringBuilder markup;
+		PathWriter(StringBuilder markup) {
+			this.markup = markup;
+		}
+		@Override
+		public void moveTo(float x, float y) {
+			markup.append('M');
+			appendPoint(x, y);
+		}
+		@Override
+		public void lineTo(float x, float y) {
+			markup.append('L');
+			appendPoint(x, y);
+		}
+		@Override
+		public void curveTo(float x1, float y1, float x2, float y2, float x, float y) {
+			markup.append('C');
+			appendPoint(x1, y1);
+			markup.append(' ');
+			appendPoint(x2, y2);
+			markup.append(' ');
+			appendPoint(x, y);
+		}
+		@Override
+		public void close() {
+			markup.append('Z');
+		}
+		private void appendPoint(float x, float y) {
+			appendNumber(markup, x);
+			markup.append(',');
+			appendNumber(markup, y);
+		}
+	}
+
+	private String name;
+	/**
+	 * The viewBox size of the level
+	 */
+	private float srcWidth, srcHeight;
+	/**
+	 * The page size and the location of the image on the page,
+	 * in millimeters
+	 */
+	private float pageWidth, pageHeight;
+	private float x, y, scale;
+	/**
+	 * The markup of the image, placed on the page
+	 */
+	private String image;
+
+	/**
+	 * Constructor
+	 * @param name the name of the level
+	 * @param root the root element of the level
+	 * @param srcWidth the viewBox width of the level
+	 * @param srcHeight the viewBox height of the level
+	 */
+	CutSheet(String name, Element root, float srcWidth, float srcHeight, Transformer transformer) throws Exception {
+		this.name = name;
+		this.srcWidth = srcWidth;
+		this.srcHeight = srcHeight;
+		// Landscape pages for landscape images
+		boolean landscape = srcWidth > srcHeight;
+		pageWidth = landscape ? PAGE_HEIGHT : PAGE_WIDTH;
+		pageHeight = landscape ? PAGE_WIDTH : PAGE_HEIGHT;
+		float width = pageWidth - 2 * MARGIN;
+		// Keep room for the caption under the image
+		float height = pageHeight - 2 * MARGIN - 2 * CAPTION_SIZE;
+		scale = Math.min(width / srcWidth, height / srcHeight);
+		x = 0.5f * (pageWidth - scale * srcWidth);
+		y = MARGIN;
+
+		// The root of the level becomes a nested SVG element
+		// which maps its viewBox to the image area
+		if (root.getAttribute("viewBox").trim().length() == 0) {
+			root.setAttribute("viewBox", "0 0 " + srcWidth + " " + srcHeight);
+		}
+		root.setAttribute("x", format(x));
+		root.setAttribute("y", format(y));
+		root.setAttribute("width", format(scale * srcWidth));
+		root.setAttribute("height", format(scale * srcHeight));
+		root.setAttribute("preserveAspectRatio", "none");
+		StringWriter writer = new StringWriter();
+		transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+		transformer.transform(new DOMSource(root), new StreamResult(writer));
+		image = writer.toString();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the markup of the sheet of the specified board. The
+	 * cut lines are the ones of the game board with the same grid,
+	 * seed and connector shape.
+	 */
+	public String write(int colCount, int rowCount, int seed, EdgeGeometry.Shape shape) {
+		float pieceWidth = srcWidth / colCount;
+		float pieceHeight = srcHeight / rowCount;
+		EdgeGeometry edges = new EdgeGeometry(colCount, rowCount, pieceWidth, pieceHeight, EdgeGeometry.CONNECTOR_PCT * pieceWidth, EdgeGeometry.CONNECTOR_PCT * pieceHeight);
+		edges.build(shape, new SeededRandom(seed));
+
+		StringBuilder markup = new StringBuilder(image.length() + 64 * colCount * rowCount + 1024);
+		markup.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		markup.append("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" width=\"").append(format(pageWidth))
+			.append("mm\" height=\"").append(format(pageHeight))
+			.append("mm\" viewBox=\"0 0 ").append(format(pageWidth)).append(' ').append(format(pageHeight)).append("\">\n");
+		markup.append(image).append('\n');
+
+		// The cut lines, in the coordinates of the level
+		markup.append("<g transform=\"translate(").append(format(x)).append(',').append(format(y))
+			.append(") scale(").append(scale).append(")\" fill=\"none\" stroke=\"#000000\" stroke-width=\"");
+		appendNumber(markup, CUT_WIDTH / scale);
+		markup.append("\" stroke-linejoin=\"round\">\n");
+		markup.append("<rect x=\"0\" y=\"0\" width=\"");
+		appendNumber(markup, srcWidth);
+		markup.append("\" height=\"");
+		appendNumber(markup, srcHeight);
+		markup.append("\"/>\n<path d=\"");
+		edges.traceEdges(new PathWriter(markup));
+		markup.append("\"/>\n</g>\n");
+
+		// The caption identifies the board, to play it again
+		markup.append("<text x=\"").append(format(MARGIN))
+			.append("\" y=\"").append(format(pageHeight - MARGIN))
+			.append("\" font-family=\"sans-serif\" font-size=\"").append(format(CAPTION_SIZE)).append("\">");
+		appendText(markup, name);
+		markup.append(" - ").append(colCount).append('x').append(rowCount)
+			.append(" - seed ").append(seed)
+			.append(" - ").append(shape.name().toLowerCase())
+			.append("</text>\n");
+		markup.append("</svg>\n");
+		return markup.toString();
+	}
+
+	private static String format(float value) {
+		StringBuilder builder = new StringBuilder();
+		appendNumber(builder, value);
+		return builder.toString();
+	}
+
+	/**
+	 * Appends the specified number with at most two decimals
+	 * (String.format is too slow for the thousands of coordinates
+	 * of a sheet)
+	 */
+	static void appendNumber(StringBuilder builder, float value) {
+		int n = Math.round(value * 100);
+		if (n < 0) {
+			builder.append('-');
+			n = -n;
+		}
+		builder.append(n / 100);
+		int fraction = n % 100;
+		if (fraction != 0) {
+			builder.append('.').append((char)('0' + fraction / 10));
+			if (fraction % 10 != 0) {
+				builder.append((char)('0' + fraction % 10));
+			}
+		}
+	}
+
+	private static void appendText(StringBuilder builder, String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '&':
+					builder.append("&amp;");
+					break;
+				case '<':
+					builder.append("&lt;");
+					break;
+				case '>':
+					builder.append("&gt;");
+					break;
+				default:
+					builder.append(c);
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.tools.puzzle;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+
+import org.vectomatic.svg.edu.client.puzzle.EdgeGeometry;
+import org.w3c.dom.Element;
+
+/**
+ * Command line tool which writes printable cut sheets (SVG)
+ * for each level of <code>levels.txt</code>, each grid and each
+ * seed of a range. A sheet has the same cut lines as the game
+ * board with the same grid, seed and connector shape. The sheets
+ * are written in parallel on all the cores with a fork/join pool,
+ * and the tool reports its throughput.
+ * <p>Usage: <code>SheetExporter [-grids 3x3,4x4] [-seeds 1-100]
+ * [-connector spline] [-threads n] levels.txt svgDir outDir</code></p>
+ * <p>The sheets are written to <code>outDir/level/CxR-seed.svg</code>.</p>
+ * <p>The tool needs the classes of the game: install the puzzle
+ * (<code>mvn install</code> in the puzzle directory) before building
+ * it, see <code>puzzle-export/pom.xml</code>.</p>
+ */
+public class SheetExporter {
+	/**
+	 * The grids of the game difficulties
+	 */
+	private static final int[][] DEFAULT_GRIDS = {{3, 3}, {4, 4}, {5, 5}, {7, 5}, {8, 6}};
+	/**
+	 * Number of sheets under which a task is no longer split
+	 */
+	private static final int BATCH_SIZE = 4;
+
+	/**
+	 * Task which writes a range of sheets, splitting it in
+	 * halves until it is small enough
+	 */
+	private class ExportTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int start, end;
+		ExportTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+		@Override
+		protected void compute() {
+			if (end - start <= BATCH_SIZE) {
+				for (int i = start; i < end; i++) {
+					export(i);
+				}
+			} else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new ExportTask(start, middle), new ExportTask(middle, end));
+			}
+		}
+	}
+
+	private List<CutSheet> sheets = new ArrayList<CutSheet>();
+	private int[][] grids = DEFAULT_GRIDS;
+	private int firstSeed = 1;
+	private int seedCount = 10;
+	private EdgeGeometry.Shape shape = EdgeGeometry.Shape.SPLINE;
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+	private File outDir;
+	/**
+	 * Number of bytes written
+	 */
+	private AtomicLong byteCount = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		SheetExporter exporter = new SheetExporter();
+		int i = 0;
+		try {
+			for (; i < args.length && args[i].startsWith("-"); i += 2) {
+				String value = args[i + 1];
+				if ("-grids".equals(args[i])) {
+					exporter.grids = parseGrids(value);
+				} else if ("-seeds".equals(args[i])) {
+					int dash = value.indexOf('-', 1);
+					exporter.firstSeed = Integer.parseInt(dash != -1 ? value.substring(0, dash) : value);
+					exporter.seedCount = dash != -1 ? Integer.parseInt(value.substring(dash + 1)) - exporter.firstSeed + 1 : 1;
+				} else if ("-connector".equals(args[i])) {
+					exporter.shape = EdgeGeometry.Shape.valueOf(value.toUpperCase());
+				} else if ("-threads".equals(args[i])) {
+					exporter.threadCount = Integer.parseInt(value);
+				} else {
+					throw new IllegalArgumentException("Unknown option " + args[i]);
+				}
+			}
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+			i = args.length;
+		}
+		if (args.length - i != 3 || exporter.seedCount < 1 || exporter.threadCount < 1) {
+			System.err.println("Usage: SheetExporter [-grids 3x3,4x4] [-seeds 1-100] [-connector spline] [-threads n] levels.txt svgDir outDir");
+			System.exit(1);
+		}
+		exporter.load(new File(args[i]), new File(args[i + 1]));
+		exporter.outDir = new File(args[i + 2]);
+		exporter.run();
+	}
+
+	private static int[][] parseGrids(String value) {
+		String[] specs = value.split(",");
+		int[][] grids = new int[specs.length][];
+		for (int i = 0; i < specs.length; i++) {
+			String[] size = specs[i].trim().split("x");
+			grids[i] = new int[] { Integer.parseInt(size[0]), Integer.parseInt(size[1]) };
+			if (grids[i][0] < 1 || grids[i][1] < 1) {
+				throw new IllegalArgumentException("Invalid grid " + specs[i]);
+			}
+		}
+		return grids;
+	}
+
+	/**
+	 * Reads the levels and prepares their sheets
+	 */
+	private void load(File levels, File svgDir) throws Exception {
+		LevelCatalogBuilder measurer = new LevelCatalogBuilder();
+		Transformer transformer = TransformerFactory.newInstance().newTransformer();
+		for (String level : LevelCatalogBuilder.readLevels(levels)) {
+			Element root = measurer.measure(new File(svgDir, level));
+			sheets.add(new CutSheet(level, root, measurer.getWidth(), measurer.getHeight(), transformer));
+		}
+	}
+
+	/**
+	 * Writes all the sheets and reports the throughput
+	 */
+	private void run() {
+		// Create the directories before the workers start
+		for (CutSheet sheet : sheets) {
+			getLevelDir(sheet).mkdirs();
+		}
+		int sheetCount = sheets.size() * grids.length * seedCount;
+		ForkJoinPool pool = new ForkJoinPool(threadCount);
+		long startTime = System.nanoTime();
+		pool.invoke(new ExportTask(0, sheetCount));
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		pool.shutdown();
+		double megabytes = byteCount.get() / (1024.0 * 1024.0);
+		System.out.println(String.format(Locale.US, "Wrote %d sheets (%.1f MB) to %s in %.2f s on %d threads: %.1f sheets/s, %.1f MB/s",
+				sheetCount, megabytes, outDir, seconds, threadCount, sheetCount / seconds, megabytes / seconds));
+	}
+
+	/**
+	 * Writes the specified sheet. The sheets are numbered by
+	 * level, then by grid, then by seed.
+	 */
+	private void export(int index) {
+		CutSheet sheet = sheets.get(index / (grids.length * seedCount));
+		int[] grid = grids[(index / seedCount) % grids.length];
+		int seed = firstSeed + index % seedCount;
+		File file = new File(getLevelDir(sheet), grid[0] + "x" + grid[1] + "-" + seed + ".svg");
+		try {
+			byte[] bytes = sheet.write(grid[0], grid[1], seed, shape).getBytes("UTF-8");
+			OutputStream out = new FileOutputStream(file);
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+			byteCount.addAndGet(bytes.length);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot write " + file, e);
+		}
+	}
+
+	private File getLevelDir(CutSheet sheet) {
+		String name = sheet.getName();
+		int dot = name.lastIndexOf('.');
+		return new File(outDir, dot != -1 ? name.substring(0, dot) : name);
+	}
+}
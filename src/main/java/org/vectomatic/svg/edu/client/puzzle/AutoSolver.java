@@ -0,0 +1,141 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import org.vectomatic.dom.svg.OMSVGPoint;
+import org.vectomatic.svg.edu.client.puzzle.Puzzle.Piece;
+
+/**
+ * Plays a puzzle without a player. Each move goes through the
+ * mouse logic of the puzzle (pick up, drag and drop at board
+ * coordinates), so the solver exercises the same code as a
+ * player. Two strategies are available:
+ * <ul>
+ * <li>RANDOM moves a random piece to a random target</li>
+ * <li>GREEDY moves each misplaced piece to its position in the
+ * assembly zone, after moving the piece which occupies that position
+ * back to the tile zone. It falls back to a random move when the
+ * greedy move is not possible (for instance a cluster which cannot
+ * be dropped)</li>
+ * </ul>
+ */
+class AutoSolver {
+	enum Strategy {
+		RANDOM,
+		GREEDY
+	}
+	private Puzzle puzzle;
+	private Strategy strategy;
+	/**
+	 * The number of moves played
+	 */
+	private int moveCount;
+	/**
+	 * The piece the greedy strategy starts from, so that
+	 * a piece which cannot move is not tried again at once
+	 */
+	private int cursor;
+	private float[] state = new float[3];
+	/**
+	 * The generator of the random moves
+	 */
+	private RandomSource random;
+
+	AutoSolver(Puzzle puzzle, Strategy strategy, RandomSource random) {
+		this.puzzle = puzzle;
+		this.strategy = strategy;
+		this.random = random;
+	}
+
+	/**
+	 * Plays one move
+	 * @return true if the puzzle is solved
+	 */
+	boolean step() {
+		if (strategy != Strategy.GREEDY || !stepGreedy()) {
+			stepRandom();
+		}
+		return puzzle.isGameOver();
+	}
+
+	int getMoveCount() {
+		return moveCount;
+	}
+
+	private boolean stepGreedy() {
+		int count = puzzle.getPieceCount();
+		for (int i = 0; i < count; i++) {
+			int index = (cursor + i) % count;
+			Piece piece = puzzle.getPiece(index);
+			int occupant = puzzle.getPieceAt(Puzzle.ZONE_ASSEMBLY, piece.x, piece.y);
+			if (occupant == index) {
+				continue;
+			}
+			cursor = index + 1;
+			if (occupant != -1) {
+				// Make room for the piece first
+				return evict(occupant);
+			}
+			return move(index, Puzzle.ZONE_ASSEMBLY, piece.x, piece.y);
+		}
+		return false;
+	}
+
+	/**
+	 * Moves the specified piece to the first empty target
+	 * of the tile zone
+	 */
+	private boolean evict(int index) {
+		for (int u = 0; u < puzzle.getColCount(); u++) {
+			for (int v = 0; v < puzzle.getRowCount(); v++) {
+				if (puzzle.getPieceAt(Puzzle.ZONE_TILE, u, v) == -1) {
+					return move(index, Puzzle.ZONE_TILE, u, v);
+				}
+			}
+		}
+		return false;
+	}
+
+	private void stepRandom() {
+		int index = random.nextInt(puzzle.getPieceCount());
+		int zone = random.nextBoolean() ? Puzzle.ZONE_TILE : Puzzle.ZONE_ASSEMBLY;
+		move(index, zone, random.nextInt(puzzle.getColCount()), random.nextInt(puzzle.getRowCount()));
+	}
+
+	/**
+	 * Moves the specified piece (and its cluster) to the
+	 * specified target, the way a player would
+	 * @return true if the piece has reached the target
+	 */
+	private boolean move(int index, int zone, int u, int v) {
+		moveCount++;
+		if (!puzzle.pickUp(puzzle.getPieceCenter(index)) || !puzzle.isDragging()) {
+			return false;
+		}
+		OMSVGPoint p = puzzle.getTargetCenter(zone, u, v);
+		puzzle.dragTo(p);
+		puzzle.drop(p);
+		if (puzzle.isDragging()) {
+			// The target cannot accept the pieces: the second
+			// drop returns them to their source
+			puzzle.drop(p);
+		}
+		puzzle.getPieceState(index, state);
+		return state[0] == zone && state[1] == u && state[2] == v;
+	}
+}
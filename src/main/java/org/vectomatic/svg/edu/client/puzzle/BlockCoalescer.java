@@ -0,0 +1,300 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.vectomatic.dom.svg.OMSVGGElement;
+import org.vectomatic.dom.svg.OMSVGRect;
+import org.vectomatic.dom.svg.OMSVGSVGElement;
+import org.vectomatic.dom.svg.OMSVGUseElement;
+
+/**
+ * Replaces the blocks of correctly placed pieces of the assembly
+ * zone with image regions. A region is a nested svg which shows
+ * a rectangle of the image without any clip path; the pieces it
+ * covers are hidden, so the cost of painting the assembly zone goes
+ * down as the puzzle nears completion.
+ * <p>The settled cells are split into rectangles. A rectangle keeps
+ * its outer ring of pieces on each side which borders a cell that
+ * is not settled, so that the connectors of the block are still
+ * drawn there. Regions overlap their neighbors by the connector
+ * margin (except on the border of the puzzle), to fill the blanks
+ * of the pieces drawn around them with the same image content.</p>
+ */
+class BlockCoalescer {
+	/**
+	 * Minimum number of pieces replaced by a region
+	 */
+	private static final int MIN_REGION_PIECES = 4;
+
+	/**
+	 * Class to represent an image region
+	 */
+	private static class Region {
+		/**
+		 * The cells covered by the region (inclusive)
+		 */
+		int u0, v0, u1, v1;
+		/**
+		 * The margins of the region, as a bit mask of sides
+		 * (1: left, 2: top, 4: right, 8: bottom)
+		 */
+		int margins;
+		OMSVGSVGElement element;
+
+		Region(int u0, int v0, int u1, int v1, int margins) {
+			this.u0 = u0;
+			this.v0 = v0;
+			this.u1 = u1;
+			this.v1 = v1;
+			this.margins = margins;
+		}
+
+		boolean isSame(Region region) {
+			return u0 == region.u0 && v0 == region.v0 && u1 == region.u1 && v1 == region.v1 && margins == region.margins;
+		}
+	}
+
+	private PieceRenderer renderer;
+	private int colCount, rowCount;
+	private float pieceWidth, pieceHeight;
+	private float marginX, marginY;
+	/**
+	 * The viewBox of the source image
+	 */
+	private float srcX, srcY;
+	private String idImage;
+	/**
+	 * The group which contains the regions (it must be drawn
+	 * before the pieces)
+	 */
+	private OMSVGGElement group;
+	private List<Region> regions;
+	/**
+	 * True for the settled cells already assigned to a rectangle
+	 */
+	private boolean[] covered;
+	/**
+	 * True for the pieces hidden by a region
+	 */
+	private boolean[] hidden;
+	private boolean[] nextHidden;
+	/**
+	 * The position of the assembly zone
+	 */
+	private float originX, originY;
+
+	BlockCoalescer(PieceRenderer renderer, int colCount, int rowCount, float pieceWidth, float pieceHeight, float marginX, float marginY, OMSVGRect viewBox, String idImage) {
+		this.renderer = renderer;
+		this.colCount = colCount;
+		this.rowCount = rowCount;
+		this.pieceWidth = pieceWidth;
+		this.pieceHeight = pieceHeight;
+		this.marginX = marginX;
+		this.marginY = marginY;
+		this.srcX = viewBox.getX();
+		this.srcY = viewBox.getY();
+		this.idImage = idImage;
+		group = new OMSVGGElement();
+		regions = new ArrayList<Region>();
+		covered = new boolean[colCount * rowCount];
+		hidden = new boolean[colCount * rowCount];
+		nextHidden = new boolean[colCount * rowCount];
+	}
+
+	/**
+	 * Returns the group which contains the regions
+	 */
+	OMSVGGElement getGroup() {
+		return group;
+	}
+
+	/**
+	 * Updates the regions
+	 * @param cells the index of the piece settled in each cell of
+	 * the assembly zone (u + v * colCount), or -1 if the cell is empty
+	 * or its piece is misplaced or moving
+	 * @param originX the position of the assembly zone
+	 * @param originY the position of the assembly zone
+	 */
+	void update(int[] cells, float originX, float originY) {
+		boolean moved = originX != this.originX || originY != this.originY;
+		this.originX = originX;
+		this.originY = originY;
+
+		// Split the settled cells into rectangles
+		List<Region> nextRegions = new ArrayList<Region>();
+		for (int i = 0; i < covered.length; i++) {
+			covered[i] = false;
+			nextHidden[i] = false;
+		}
+		for (int v = 0; v < rowCount; v++) {
+			for (int u = 0; u < colCount; u++) {
+				if (cells[u + v * colCount] == -1 || covered[u + v * colCount]) {
+					continue;
+				}
+				int u1 = u;
+				while (u1 + 1 < colCount && isFree(cells, u1 + 1, v)) {
+					u1++;
+				}
+				int v1 = v;
+				while (v1 + 1 < rowCount && isFreeRow(cells, u, u1, v1 + 1)) {
+					v1++;
+				}
+				for (int j = v; j <= v1; j++) {
+					for (int i = u; i <= u1; i++) {
+						covered[i + j * colCount] = true;
+					}
+				}
+				Region region = createRegion(cells, u, v, u1, v1);
+				if (region != null) {
+					nextRegions.add(region);
+				}
+			}
+		}
+
+		// Keep the regions which have not changed
+		for (Region region : regions) {
+			Region next = null;
+			for (int i = 0; i < nextRegions.size() && next == null; i++) {
+				if (nextRegions.get(i).isSame(region)) {
+					next = nextRegions.get(i);
+				}
+			}
+			if (next != null) {
+				next.element = region.element;
+				if (moved) {
+					setPosition(next);
+				}
+			} else {
+				group.removeChild(region.element);
+			}
+		}
+		for (Region region : nextRegions) {
+			if (region.element == null) {
+				region.element = createElement(region);
+				group.appendChild(region.element);
+			}
+			for (int v = region.v0; v <= region.v1; v++) {
+				for (int u = region.u0; u <= region.u1; u++) {
+					nextHidden[cells[u + v * colCount]] = true;
+				}
+			}
+		}
+		regions = nextRegions;
+
+		// Show and hide the pieces
+		for (int i = 0; i < hidden.length; i++) {
+			if (hidden[i] != nextHidden[i]) {
+				hidden[i] = nextHidden[i];
+				renderer.setVisible(i, !hidden[i]);
+			}
+		}
+	}
+
+	private boolean isFree(int[] cells, int u, int v) {
+		int cell = u + v * colCount;
+		return cells[cell] != -1 && !covered[cell];
+	}
+
+	private boolean isFreeRow(int[] cells, int u0, int u1, int v) {
+		for (int u = u0; u <= u1; u++) {
+			if (!isFree(cells, u, v)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSettled(int[] cells, int cell) {
+		return cells[cell] != -1;
+	}
+
+	/**
+	 * Returns the region which replaces the specified rectangle
+	 * of settled cells, or null if too few pieces can be replaced
+	 */
+	private Region createRegion(int[] cells, int u0, int v0, int u1, int v1) {
+		// For each side, check whether the cells beyond
+		// it are settled
+		boolean left = u0 > 0, top = v0 > 0, right = u1 < colCount - 1, bottom = v1 < rowCount - 1;
+		boolean settledLeft = true, settledTop = true, settledRight = true, settledBottom = true;
+		for (int v = v0; v <= v1; v++) {
+			settledLeft &= !left || isSettled(cells, u0 - 1 + v * colCount);
+			settledRight &= !right || isSettled(cells, u1 + 1 + v * colCount);
+		}
+		for (int u = u0; u <= u1; u++) {
+			settledTop &= !top || isSettled(cells, u + (v0 - 1) * colCount);
+			settledBottom &= !bottom || isSettled(cells, u + (v1 + 1) * colCount);
+		}
+		// Keep the pieces along the sides which border
+		// unsettled cells
+		Region region = new Region(
+				settledLeft ? u0 : u0 + 1,
+				settledTop ? v0 : v0 + 1,
+				settledRight ? u1 : u1 - 1,
+				settledBottom ? v1 : v1 - 1,
+				(left ? 1 : 0) | (top ? 2 : 0) | (right ? 4 : 0) | (bottom ? 8 : 0));
+		int count = (region.u1 - region.u0 + 1) * (region.v1 - region.v0 + 1);
+		if (region.u1 < region.u0 || region.v1 < region.v0 || count < MIN_REGION_PIECES) {
+			return null;
+		}
+		return region;
+	}
+
+	/**
+	 * Creates the element of a region
+	 * <pre>
+	 * &lt;svg x="" y="" width="" height="" viewBox=""&gt;
+	 *  &lt;use x="0" y="0" xlink:href="#puzzle"/&gt;
+	 * &lt;/svg&gt;
+	 * </pre>
+	 */
+	private OMSVGSVGElement createElement(Region region) {
+		OMSVGSVGElement element = new OMSVGSVGElement();
+		OMSVGUseElement imgUse = new OMSVGUseElement();
+		imgUse.getX().getBaseVal().setValue(srcX);
+		imgUse.getY().getBaseVal().setValue(srcY);
+		imgUse.getHref().setBaseVal("#" + idImage);
+		element.appendChild(imgUse);
+		region.element = element;
+		setPosition(region);
+		return element;
+	}
+
+	private void setPosition(Region region) {
+		float left = (region.margins & 1) != 0 ? marginX : 0;
+		float top = (region.margins & 2) != 0 ? marginY : 0;
+		float right = (region.margins & 4) != 0 ? marginX : 0;
+		float bottom = (region.margins & 8) != 0 ? marginY : 0;
+		float width = (region.u1 - region.u0 + 1) * pieceWidth + left + right;
+		float height = (region.v1 - region.v0 + 1) * pieceHeight + top + bottom;
+		OMSVGSVGElement element = region.element;
+		element.getX().getBaseVal().setValue(originX + region.u0 * pieceWidth - left);
+		element.getY().getBaseVal().setValue(originY + region.v0 * pieceHeight - top);
+		element.getWidth().getBaseVal().setValue(width);
+		element.getHeight().getBaseVal().setValue(height);
+		element.setViewBox(
+				srcX + region.u0 * pieceWidth - left,
+				srcY + region.v0 * pieceHeight - top,
+				width,
+				height);
+	}
+}
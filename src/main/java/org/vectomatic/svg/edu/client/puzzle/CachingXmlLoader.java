@@ -0,0 +1,147 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.vectomatic.dom.svg.utils.AsyncXmlLoader;
+import org.vectomatic.dom.svg.utils.AsyncXmlLoaderCallback;
+import org.vectomatic.dom.svg.utils.OMSVGParser;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestBuilder;
+import com.google.gwt.http.client.RequestCallback;
+import com.google.gwt.http.client.RequestException;
+import com.google.gwt.http.client.Response;
+
+/**
+ * Level loader which serves the levels from a persistent
+ * {@link LevelStore} first, and downloads them only when
+ * the store does not have them. The store key of a level is
+ * its URL plus its version (the content hash from the level
+ * catalog), so a level whose version is known is served from
+ * the store without any request. A level without a version is
+ * served from the store if possible, and downloaded again in
+ * the background to update the store.
+ */
+class CachingXmlLoader implements AsyncXmlLoader {
+	private LevelStore store;
+	/**
+	 * The version of each level, by URL
+	 */
+	private Map<String, String> versions = new HashMap<String, String>();
+
+	CachingXmlLoader(LevelStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Returns the store of the levels
+	 */
+	public LevelStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Sets the version of the level at the specified URL
+	 */
+	public void setVersion(String url, String version) {
+		versions.put(url, version);
+	}
+
+	@Override
+	public void loadResource(final String resourceName, final AsyncXmlLoaderCallback callback) {
+		final String version = versions.get(resourceName);
+		final String key = version != null ? resourceName + "#" + version : resourceName;
+		store.get(key, new LevelStore.Callback() {
+			@Override
+			public void onLoad(String text) {
+				Element root = text != null ? parse(text) : null;
+				if (root != null) {
+					callback.onSuccess(resourceName, root);
+					if (version == null) {
+						// The record may be stale
+						download(resourceName, key, null);
+					}
+				} else {
+					download(resourceName, key, callback);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Downloads a level and writes it to the store
+	 * @param callback the callback to notify, or null
+	 * to update the store only
+	 */
+	private void download(final String resourceName, final String key, final AsyncXmlLoaderCallback callback) {
+		RequestBuilder builder = new RequestBuilder(RequestBuilder.GET, resourceName);
+		try {
+			builder.sendRequest(null, new RequestCallback() {
+				@Override
+				public void onResponseReceived(Request request, Response response) {
+					if (response.getStatusCode() != Response.SC_OK) {
+						onError(request, new RequestException("HTTP " + response.getStatusCode() + " " + response.getStatusText()));
+						return;
+					}
+					String text = response.getText();
+					Element root = parse(text);
+					if (root == null) {
+						onError(request, new RequestException("Cannot parse " + resourceName));
+						return;
+					}
+					store.put(key, resourceName, text);
+					if (callback != null) {
+						callback.onSuccess(resourceName, root);
+					}
+				}
+
+				@Override
+				public void onError(Request request, Throwable exception) {
+					if (callback != null) {
+						callback.onError(resourceName, exception);
+					} else {
+						GWT.log("Cannot update " + resourceName, exception);
+					}
+				}
+			});
+		} catch (RequestException e) {
+			if (callback != null) {
+				callback.onError(resourceName, e);
+			}
+		}
+	}
+
+	/**
+	 * Parses the text of a level
+	 * @return the root element of the level, or null if
+	 * the text is not a valid SVG document
+	 */
+	private static Element parse(String text) {
+		try {
+			return OMSVGParser.parse(text).getElement();
+		} catch (Throwable e) {
+			GWT.log("Cannot parse level", e);
+			return null;
+		}
+	}
+}
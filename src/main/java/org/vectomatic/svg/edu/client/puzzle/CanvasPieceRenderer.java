@@ -0,0 +1,679 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import org.vectomatic.dom.svg.OMSVGMatrix;
+import org.vectomatic.dom.svg.OMSVGPathElement;
+import org.vectomatic.dom.svg.OMSVGPathSeg;
+import org.vectomatic.dom.svg.OMSVGPathSegCurvetoCubicAbs;
+import org.vectomatic.dom.svg.OMSVGPathSegCurvetoCubicRel;
+import org.vectomatic.dom.svg.OMSVGPathSegLinetoAbs;
+import org.vectomatic.dom.svg.OMSVGPathSegLinetoHorizontalAbs;
+import org.vectomatic.dom.svg.OMSVGPathSegLinetoHorizontalRel;
+import org.vectomatic.dom.svg.OMSVGPathSegLinetoRel;
+import org.vectomatic.dom.svg.OMSVGPathSegLinetoVerticalAbs;
+import org.vectomatic.dom.svg.OMSVGPathSegLinetoVerticalRel;
+import org.vectomatic.dom.svg.OMSVGPathSegList;
+import org.vectomatic.dom.svg.OMSVGPathSegMovetoAbs;
+import org.vectomatic.dom.svg.OMSVGRect;
+import org.vectomatic.dom.svg.OMSVGSVGElement;
+
+import com.google.gwt.animation.client.AnimationScheduler;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationCallback;
+import com.google.gwt.canvas.client.Canvas;
+import com.google.gwt.canvas.dom.client.Context2d;
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.dom.client.CanvasElement;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.ImageElement;
+import com.google.gwt.event.logical.shared.ResizeEvent;
+import com.google.gwt.event.logical.shared.ResizeHandler;
+import com.google.gwt.event.shared.HandlerRegistration;
+import com.google.gwt.user.client.Window;
+
+/**
+ * Renderer which draws the pieces in a canvas laid over
+ * the root SVG element. This scales to boards with hundreds
+ * of pieces, where the clipped &lt;use&gt; elements of the
+ * SVG renderer become too expensive to maintain.
+ * <p>The source image is rasterized once at the display
+ * resolution, and each piece is cut from it into an offscreen
+ * sprite. The resolution of the sprites is capped by the size
+ * limits of images and canvases and by a memory budget; when the
+ * board is zoomed in beyond this cap, the sprites are scaled up. A frame only redraws the regions of the canvas
+ * which have changed since the previous frame, by compositing
+ * the sprites which intersect them in drawing order.</p>
+ * <p>Since sprites are rasterized at full detail, the tile
+ * zone does not need the simplified image.</p>
+ */
+class CanvasPieceRenderer implements PieceRenderer, AnimationCallback {
+	/**
+	 * Path replay operations
+	 */
+	private static final float OP_MOVE = 0;
+	private static final float OP_LINE = 1;
+	private static final float OP_CUBIC = 2;
+	private static final float OP_CLOSE = 3;
+	/**
+	 * Maximum number of dirty rectangles. Above this
+	 * number, dirty rectangles are merged.
+	 */
+	private static final int MAX_DIRTY = 8;
+	/**
+	 * Time allotted to sprite rasterization in a frame (in ms)
+	 */
+	private static final int SPRITE_BUDGET = 8;
+	/**
+	 * Relative scale change above which the sprites
+	 * are rasterized again
+	 */
+	private static final float RESCALE_THRESHOLD = 0.1f;
+	/**
+	 * Maximum width and height of the rasterized source image
+	 * (in pixels), within the canvas and image size limits of
+	 * mobile browsers
+	 */
+	private static final int MAX_IMAGE_SIZE = 4096;
+	/**
+	 * Memory budget of the sprites (in bytes, at 4 bytes per pixel)
+	 */
+	private static final float SPRITE_MEMORY = 64 * 1024 * 1024;
+	/**
+	 * The root element of the SVG DOM hierarchy, used
+	 * to map board coordinates to canvas pixels
+	 */
+	private OMSVGSVGElement rootSvg;
+	/**
+	 * The original puzzle SVG Image
+	 */
+	private OMSVGSVGElement srcSvg;
+	private CanvasElement canvas;
+	private Context2d ctx;
+	/**
+	 * Size of a puzzle piece, and size of the margin around
+	 * it which contains its connectors and border
+	 */
+	private float pieceWidth, pieceHeight, marginX, marginY;
+	/**
+	 * Size of the source image
+	 */
+	private float srcWidth, srcHeight;
+	/**
+	 * The outline of each piece, as a list of path
+	 * replay operations and their coordinates
+	 */
+	private float[][] outlines;
+	/**
+	 * The coordinates of each piece in the assembled puzzle
+	 */
+	private int[] cols, rows;
+	/**
+	 * The position of the upper left corner of each piece
+	 */
+	private float[] xs, ys;
+	/**
+	 * The pieces in drawing order
+	 */
+	private int[] order;
+	/**
+	 * The sprite of each piece (null until rasterized)
+	 */
+	private CanvasElement[] sprites;
+	/**
+	 * The next sprite to rasterize
+	 */
+	private int spriteCursor;
+	/**
+	 * The scale at which the sprites are rasterized, and
+	 * the maximum value of this scale
+	 */
+	private float spriteScale, maxSpriteScale;
+	/**
+	 * The rasterized source image
+	 */
+	private ImageElement image;
+	private boolean imageLoaded;
+	/**
+	 * True for the pieces of the drag group
+	 */
+	private boolean[] grouped;
+	/**
+	 * True for the hidden pieces
+	 */
+	private boolean[] hidden;
+	private float groupX, groupY;
+	/**
+	 * The dirty rectangles, in board coordinates
+	 */
+	private float[] dirty;
+	private int dirtyCount;
+	private boolean fullRedraw;
+	/**
+	 * The mapping from board coordinates to canvas pixels
+	 */
+	private float scale, offsetX, offsetY;
+	private boolean frameRequested;
+	private boolean disposed;
+	private HandlerRegistration resizeRegistration;
+
+	/**
+	 * Returns true if the browser can run this renderer
+	 */
+	static boolean isSupported() {
+		return Canvas.isSupported();
+	}
+
+	CanvasPieceRenderer(OMSVGSVGElement rootSvg, OMSVGSVGElement srcSvg, int count, float pieceWidth, float pieceHeight, float marginX, float marginY) {
+		this.rootSvg = rootSvg;
+		this.srcSvg = srcSvg;
+		this.pieceWidth = pieceWidth;
+		this.pieceHeight = pieceHeight;
+		this.marginX = marginX;
+		this.marginY = marginY;
+		OMSVGRect viewBox = srcSvg.getViewBox().getBaseVal();
+		srcWidth = viewBox.getWidth();
+		srcHeight = viewBox.getHeight();
+		maxSpriteScale = Math.min(
+				MAX_IMAGE_SIZE / Math.max(srcWidth, srcHeight),
+				(float)Math.sqrt(SPRITE_MEMORY / (4 * count * (pieceWidth + 2 * marginX) * (pieceHeight + 2 * marginY))));
+		outlines = new float[count][];
+		cols = new int[count];
+		rows = new int[count];
+		xs = new float[count];
+		ys = new float[count];
+		order = new int[count];
+		sprites = new CanvasElement[count];
+		grouped = new boolean[count];
+		hidden = new boolean[count];
+		dirty = new float[4 * MAX_DIRTY];
+		canvas = Document.get().createCanvasElement();
+		canvas.setClassName(Puzzle.style.pieceCanvas());
+		ctx = canvas.getContext2d();
+		resizeRegistration = Window.addResizeHandler(new ResizeHandler() {
+			@Override
+			public void onResize(ResizeEvent event) {
+				requestFrame();
+			}
+		});
+	}
+
+	@Override
+	public void addPiece(int index, String id, OMSVGPathElement outline, int col, int row) {
+		outlines[index] = toOperations(outline.getPathSegList());
+		cols[index] = col;
+		rows[index] = row;
+		order[index] = index;
+		markDirty(index);
+	}
+
+	@Override
+	public void setPosition(int index, float x, float y) {
+		markDirty(index);
+		xs[index] = x;
+		ys[index] = y;
+		markDirty(index);
+	}
+
+	@Override
+	public void setFullDetail(int index, boolean fullDetail) {
+	}
+
+	@Override
+	public void raise(int index) {
+		int i = 0;
+		while (order[i] != index) {
+			i++;
+		}
+		System.arraycopy(order, i + 1, order, i, order.length - i - 1);
+		order[order.length - 1] = index;
+		markDirty(index);
+	}
+
+	@Override
+	public void setVisible(int index, boolean visible) {
+		hidden[index] = !visible;
+		if (visible) {
+			raise(index);
+		} else {
+			markDirty(index);
+		}
+	}
+
+	@Override
+	public void setCulled(int index, boolean culled) {
+		// Pieces outside the canvas are never drawn
+	}
+
+	@Override
+	public void invalidate() {
+		fullRedraw = true;
+		requestFrame();
+	}
+
+	@Override
+	public void startGroup(int[] pieces) {
+		groupX = groupY = 0;
+		for (int index : pieces) {
+			grouped[index] = true;
+			raise(index);
+		}
+	}
+
+	@Override
+	public void setGroupOffset(float dx, float dy) {
+		markGroupDirty();
+		groupX = dx;
+		groupY = dy;
+		markGroupDirty();
+	}
+
+	@Override
+	public void endGroup() {
+		markGroupDirty();
+		for (int i = 0; i < grouped.length; i++) {
+			grouped[i] = false;
+		}
+		groupX = groupY = 0;
+		markGroupDirty();
+	}
+
+	@Override
+	public Element getOverlay() {
+		return canvas;
+	}
+
+	@Override
+	public void dispose() {
+		resizeRegistration.removeHandler();
+		if (image != null) {
+			setOnLoad(image, null);
+		}
+		disposed = true;
+	}
+
+	/**
+	 * Converts a piece outline to path replay operations,
+	 * with absolute coordinates
+	 */
+	private static float[] toOperations(OMSVGPathSegList segs) {
+		int count = segs.getNumberOfItems();
+		float[] ops = new float[7 * count];
+		int size = 0;
+		float x = 0, y = 0, x0 = 0, y0 = 0;
+		for (int i = 0; i < count; i++) {
+			OMSVGPathSeg seg = segs.getItem(i);
+			switch (seg.getPathSegType()) {
+				case OMSVGPathSeg.PATHSEG_MOVETO_ABS: {
+					OMSVGPathSegMovetoAbs s = (OMSVGPathSegMovetoAbs)seg;
+					x0 = x = s.getX();
+					y0 = y = s.getY();
+					ops[size++] = OP_MOVE;
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_LINETO_ABS: {
+					OMSVGPathSegLinetoAbs s = (OMSVGPathSegLinetoAbs)seg;
+					x = s.getX();
+					y = s.getY();
+					ops[size++] = OP_LINE;
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_LINETO_REL: {
+					OMSVGPathSegLinetoRel s = (OMSVGPathSegLinetoRel)seg;
+					x += s.getX();
+					y += s.getY();
+					ops[size++] = OP_LINE;
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_LINETO_HORIZONTAL_ABS:
+					x = ((OMSVGPathSegLinetoHorizontalAbs)seg).getX();
+					ops[size++] = OP_LINE;
+					break;
+				case OMSVGPathSeg.PATHSEG_LINETO_HORIZONTAL_REL:
+					x += ((OMSVGPathSegLinetoHorizontalRel)seg).getX();
+					ops[size++] = OP_LINE;
+					break;
+				case OMSVGPathSeg.PATHSEG_LINETO_VERTICAL_ABS:
+					y = ((OMSVGPathSegLinetoVerticalAbs)seg).getY();
+					ops[size++] = OP_LINE;
+					break;
+				case OMSVGPathSeg.PATHSEG_LINETO_VERTICAL_REL:
+					y += ((OMSVGPathSegLinetoVerticalRel)seg).getY();
+					ops[size++] = OP_LINE;
+					break;
+				case OMSVGPathSeg.PATHSEG_CURVETO_CUBIC_ABS: {
+					OMSVGPathSegCurvetoCubicAbs s = (OMSVGPathSegCurvetoCubicAbs)seg;
+					ops[size++] = OP_CUBIC;
+					ops[size++] = s.getX1();
+					ops[size++] = s.getY1();
+					ops[size++] = s.getX2();
+					ops[size++] = s.getY2();
+					x = s.getX();
+					y = s.getY();
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_CURVETO_CUBIC_REL: {
+					OMSVGPathSegCurvetoCubicRel s = (OMSVGPathSegCurvetoCubicRel)seg;
+					ops[size++] = OP_CUBIC;
+					ops[size++] = x + s.getX1();
+					ops[size++] = y + s.getY1();
+					ops[size++] = x + s.getX2();
+					ops[size++] = y + s.getY2();
+					x += s.getX();
+					y += s.getY();
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_CLOSEPATH:
+					x = x0;
+					y = y0;
+					ops[size++] = OP_CLOSE;
+					continue;
+				default:
+					GWT.log("Unsupported path segment type: " + seg.getPathSegType());
+					continue;
+			}
+			ops[size++] = x;
+			ops[size++] = y;
+		}
+		float[] result = new float[size];
+		System.arraycopy(ops, 0, result, 0, size);
+		return result;
+	}
+
+	/**
+	 * Replays the outline of a piece in the specified context
+	 */
+	private static void tracePath(Context2d context, float[] ops) {
+		context.beginPath();
+		int i = 0;
+		while (i < ops.length) {
+			float op = ops[i++];
+			if (op == OP_MOVE) {
+				context.moveTo(ops[i], ops[i + 1]);
+				i += 2;
+			} else if (op == OP_LINE) {
+				context.lineTo(ops[i], ops[i + 1]);
+				i += 2;
+			} else if (op == OP_CUBIC) {
+				context.bezierCurveTo(ops[i], ops[i + 1], ops[i + 2], ops[i + 3], ops[i + 4], ops[i + 5]);
+				i += 6;
+			} else {
+				context.closePath();
+			}
+		}
+	}
+
+	private void markDirty(int index) {
+		float x = xs[index] - marginX;
+		float y = ys[index] - marginY;
+		if (grouped[index]) {
+			x += groupX;
+			y += groupY;
+		}
+		markDirty(x, y, x + pieceWidth + 2 * marginX, y + pieceHeight + 2 * marginY);
+	}
+
+	private void markGroupDirty() {
+		for (int i = 0; i < grouped.length; i++) {
+			if (grouped[i]) {
+				markDirty(i);
+			}
+		}
+	}
+
+	/**
+	 * Adds a rectangle to the regions to redraw in the next frame.
+	 * The rectangle is merged with the dirty rectangle it overlaps,
+	 * if any; when there are too many rectangles, they are all
+	 * merged into one.
+	 */
+	private void markDirty(float x0, float y0, float x1, float y1) {
+		requestFrame();
+		if (fullRedraw) {
+			return;
+		}
+		for (int i = 0; i < dirtyCount; i += 4) {
+			if (x0 <= dirty[i + 2] && x1 >= dirty[i] && y0 <= dirty[i + 3] && y1 >= dirty[i + 1]) {
+				dirty[i] = Math.min(dirty[i], x0);
+				dirty[i + 1] = Math.min(dirty[i + 1], y0);
+				dirty[i + 2] = Math.max(dirty[i + 2], x1);
+				dirty[i + 3] = Math.max(dirty[i + 3], y1);
+				return;
+			}
+		}
+		if (dirtyCount == dirty.length) {
+			for (int i = 4; i < dirtyCount; i += 4) {
+				x0 = Math.min(x0, dirty[i]);
+				y0 = Math.min(y0, dirty[i + 1]);
+				x1 = Math.max(x1, dirty[i + 2]);
+				y1 = Math.max(y1, dirty[i + 3]);
+			}
+			dirtyCount = 0;
+		}
+		dirty[dirtyCount++] = x0;
+		dirty[dirtyCount++] = y0;
+		dirty[dirtyCount++] = x1;
+		dirty[dirtyCount++] = y1;
+	}
+
+	private void requestFrame() {
+		if (!frameRequested && !disposed) {
+			frameRequested = true;
+			AnimationScheduler.get().requestAnimationFrame(this);
+		}
+	}
+
+	@Override
+	public void execute(double timestamp) {
+		frameRequested = false;
+		if (disposed || !updateMapping()) {
+			return;
+		}
+		if (imageLoaded && spriteCursor < sprites.length) {
+			rasterizeSprites();
+		}
+		ctx.setTransform(1, 0, 0, 1, 0, 0);
+		if (fullRedraw) {
+			redraw(0, 0, canvas.getWidth(), canvas.getHeight());
+		} else {
+			for (int i = 0; i < dirtyCount; i += 4) {
+				redraw(
+					(float)Math.floor(offsetX + dirty[i] * scale) - 1,
+					(float)Math.floor(offsetY + dirty[i + 1] * scale) - 1,
+					(float)Math.ceil(offsetX + dirty[i + 2] * scale) + 1,
+					(float)Math.ceil(offsetY + dirty[i + 3] * scale) + 1);
+			}
+		}
+		fullRedraw = false;
+		dirtyCount = 0;
+	}
+
+	/**
+	 * Updates the mapping from board coordinates to canvas pixels
+	 * and the size of the canvas to match the root SVG element
+	 * @return false if the root SVG element is not displayed
+	 */
+	private boolean updateMapping() {
+		OMSVGMatrix m = rootSvg.getScreenCTM();
+		if (m == null || m.getA() <= 0) {
+			return false;
+		}
+		Element svg = rootSvg.getElement();
+		float ratio = getDevicePixelRatio();
+		int width = Math.round(getClientWidth(svg) * ratio);
+		int height = Math.round(getClientHeight(svg) * ratio);
+		if (width != canvas.getWidth() || height != canvas.getHeight()) {
+			canvas.setWidth(width);
+			canvas.setHeight(height);
+			fullRedraw = true;
+		}
+		float a = m.getA() * ratio;
+		float e = (m.getE() - getClientLeft(svg)) * ratio;
+		float f = (m.getF() - getClientTop(svg)) * ratio;
+		if (a != scale || e != offsetX || f != offsetY) {
+			scale = a;
+			offsetX = e;
+			offsetY = f;
+			fullRedraw = true;
+		}
+		float targetScale = Math.min(scale, maxSpriteScale);
+		if (image == null || Math.abs(targetScale - spriteScale) > RESCALE_THRESHOLD * spriteScale) {
+			loadImage(targetScale);
+		}
+		return true;
+	}
+
+	/**
+	 * Rasterizes the source image at the specified scale
+	 */
+	private void loadImage(float spriteScale) {
+		this.spriteScale = spriteScale;
+		imageLoaded = false;
+		OMSVGSVGElement svg = (OMSVGSVGElement)srcSvg.cloneNode(true);
+		svg.getElement().setAttribute("width", Integer.toString((int)Math.ceil(srcWidth * spriteScale)));
+		svg.getElement().setAttribute("height", Integer.toString((int)Math.ceil(srcHeight * spriteScale)));
+		if (image != null) {
+			setOnLoad(image, null);
+		}
+		image = Document.get().createImageElement();
+		setOnLoad(image, this);
+		image.setSrc("data:image/svg+xml;charset=utf-8," + encode(serialize(svg.getElement())));
+	}
+
+	private void onImageLoaded() {
+		imageLoaded = true;
+		spriteCursor = 0;
+		requestFrame();
+	}
+
+	/**
+	 * Cuts the sprites of the pieces from the rasterized source
+	 * image, within the time budget of a frame. The pieces
+	 * without a sprite are drawn as plain outlines.
+	 */
+	private void rasterizeSprites() {
+		Duration duration = new Duration();
+		int width = (int)Math.ceil((pieceWidth + 2 * marginX) * spriteScale);
+		int height = (int)Math.ceil((pieceHeight + 2 * marginY) * spriteScale);
+		while (spriteCursor < sprites.length && duration.elapsedMillis() < SPRITE_BUDGET) {
+			int index = spriteCursor++;
+			CanvasElement sprite = sprites[index];
+			if (sprite == null) {
+				sprite = Document.get().createCanvasElement();
+				sprites[index] = sprite;
+			}
+			sprite.setWidth(width);
+			sprite.setHeight(height);
+			Context2d context = sprite.getContext2d();
+			context.setTransform(spriteScale, 0, 0, spriteScale, marginX * spriteScale, marginY * spriteScale);
+			tracePath(context, outlines[index]);
+			context.save();
+			context.clip();
+			context.setFillStyle("white");
+			context.fill();
+			context.drawImage(image, -cols[index] * pieceWidth, -rows[index] * pieceHeight, srcWidth, srcHeight);
+			context.restore();
+			context.setStrokeStyle("black");
+			context.setLineWidth(1);
+			context.stroke();
+			markDirty(index);
+		}
+		if (spriteCursor < sprites.length) {
+			requestFrame();
+		}
+	}
+
+	/**
+	 * Redraws the pieces which intersect the specified
+	 * rectangle (in canvas pixels)
+	 */
+	private void redraw(float x0, float y0, float x1, float y1) {
+		ctx.save();
+		ctx.beginPath();
+		ctx.rect(x0, y0, x1 - x0, y1 - y0);
+		ctx.clip();
+		ctx.clearRect(x0, y0, x1 - x0, y1 - y0);
+		float w = (pieceWidth + 2 * marginX) * scale;
+		float h = (pieceHeight + 2 * marginY) * scale;
+		for (int index : order) {
+			if (hidden[index]) {
+				continue;
+			}
+			float x = xs[index] - marginX;
+			float y = ys[index] - marginY;
+			if (grouped[index]) {
+				x += groupX;
+				y += groupY;
+			}
+			float px = Math.round(offsetX + x * scale);
+			float py = Math.round(offsetY + y * scale);
+			if (px > x1 || py > y1 || px + w < x0 || py + h < y0) {
+				continue;
+			}
+			CanvasElement sprite = sprites[index];
+			if (sprite != null && index < spriteCursor) {
+				ctx.drawImage(sprite, px, py, w, h);
+			} else {
+				ctx.setTransform(scale, 0, 0, scale, px + marginX * scale, py + marginY * scale);
+				tracePath(ctx, outlines[index]);
+				ctx.setFillStyle("lightgray");
+				ctx.fill();
+				ctx.setStrokeStyle("black");
+				ctx.setLineWidth(1);
+				ctx.stroke();
+				ctx.setTransform(1, 0, 0, 1, 0, 0);
+			}
+		}
+		ctx.restore();
+	}
+
+	private static native float getDevicePixelRatio() /*-{
+		return $wnd.devicePixelRatio || 1;
+	}-*/;
+
+	private static native float getClientLeft(Element element) /*-{
+		return element.getBoundingClientRect().left;
+	}-*/;
+
+	private static native float getClientTop(Element element) /*-{
+		return element.getBoundingClientRect().top;
+	}-*/;
+
+	private static native float getClientWidth(Element element) /*-{
+		return element.getBoundingClientRect().width;
+	}-*/;
+
+	private static native float getClientHeight(Element element) /*-{
+		return element.getBoundingClientRect().height;
+	}-*/;
+
+	private static native String serialize(Element element) /*-{
+		return new XMLSerializer().serializeToString(element);
+	}-*/;
+
+	private static native String encode(String str) /*-{
+		return encodeURIComponent(str);
+	}-*/;
+
+	private static native void setOnLoad(ImageElement image, CanvasPieceRenderer renderer) /*-{
+		image.onload = renderer == null ? null : $entry(function() {
+			renderer.@org.vectomatic.svg.edu.client.puzzle.CanvasPieceRenderer::onImageLoaded()();
+		});
+	}-*/;
+}
@@ -0,0 +1,118 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+/**
+ * Union-find structure to track clusters of connected
+ * puzzle pieces. Pieces are identified by their index
+ * and all the state is stored in primitive arrays.
+ * Each cluster also forms a circular list, so that
+ * its members can be enumerated without scanning all
+ * the pieces.
+ */
+class ClusterSet {
+	/**
+	 * The parent of each element (an element is a root
+	 * if it is its own parent)
+	 */
+	private int[] parent;
+	/**
+	 * The size of each cluster (only meaningful for roots)
+	 */
+	private int[] size;
+	/**
+	 * The next element in the circular list of cluster members
+	 */
+	private int[] next;
+
+	ClusterSet(int count) {
+		parent = new int[count];
+		size = new int[count];
+		next = new int[count];
+		reset();
+	}
+
+	/**
+	 * Splits all the clusters back into singletons
+	 */
+	public void reset() {
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+			size[i] = 1;
+			next[i] = i;
+		}
+	}
+
+	/**
+	 * Returns the root of the cluster which contains the
+	 * specified element
+	 */
+	public int find(int i) {
+		while (parent[i] != i) {
+			// Path halving
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Merges the clusters which contain the specified elements
+	 * @return the root of the merged cluster
+	 */
+	public int union(int i, int j) {
+		int ri = find(i);
+		int rj = find(j);
+		if (ri == rj) {
+			return ri;
+		}
+		if (size[ri] < size[rj]) {
+			int tmp = ri;
+			ri = rj;
+			rj = tmp;
+		}
+		parent[rj] = ri;
+		size[ri] += size[rj];
+		// Splice the two circular lists
+		int tmp = next[ri];
+		next[ri] = next[rj];
+		next[rj] = tmp;
+		return ri;
+	}
+
+	public boolean isConnected(int i, int j) {
+		return find(i) == find(j);
+	}
+
+	/**
+	 * Returns the number of elements in the cluster which
+	 * contains the specified element
+	 */
+	public int getSize(int i) {
+		return size[find(i)];
+	}
+
+	/**
+	 * Returns the next member of the cluster which contains the
+	 * specified element. Iterating from any member eventually
+	 * comes back to that member.
+	 */
+	public int next(int i) {
+		return next[i];
+	}
+}
@@ -0,0 +1,126 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import org.vectomatic.dom.svg.OMSVGSVGElement;
+
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.RepeatingCommand;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.PreElement;
+import com.google.gwt.i18n.client.NumberFormat;
+
+/**
+ * Compares the construction time of the puzzle when the
+ * piece definitions are built node by node and when they
+ * are parsed from markup (benchmark=construction in the
+ * URL query). The boards are built alternately with each
+ * mode, one per scheduler slice. The benchmark reports the
+ * mean time to build a board, and to insert it in the
+ * document and compute its layout.
+ */
+public class ConstructionBenchmark implements RepeatingCommand {
+	/**
+	 * Boards built with each mode before the measure starts
+	 */
+	private static final int WARMUP_RUNS = 2;
+	/**
+	 * Boards measured with each mode
+	 */
+	private static final int MEASURED_RUNS = 10;
+	/**
+	 * The seed of the boards, so that all the runs build the same pieces
+	 */
+	private static final int SEED = 1;
+	private OMSVGSVGElement srcSvg;
+	private int colCount;
+	private int rowCount;
+	private Element container;
+	private PreElement report;
+	/**
+	 * The current run: boards are parsed from markup
+	 * if run is odd
+	 */
+	private int run;
+	/**
+	 * Total build time and total build and layout
+	 * time, per mode
+	 */
+	private double[] buildTime = new double[2];
+	private double[] layoutTime = new double[2];
+	private boolean stopped;
+
+	public ConstructionBenchmark(OMSVGSVGElement srcSvg, int colCount, int rowCount, Element container) {
+		this.srcSvg = srcSvg;
+		this.colCount = colCount;
+		this.rowCount = rowCount;
+		this.container = container;
+	}
+
+	public void start() {
+		report = Document.get().createPreElement();
+		report.setInnerText("Construction benchmark, " + colCount + "x" + rowCount + " pieces\n");
+		container.appendChild(report);
+		run = 0;
+		Scheduler.get().scheduleIncremental(this);
+	}
+
+	public void stop() {
+		stopped = true;
+	}
+
+	@Override
+	public boolean execute() {
+		if (stopped) {
+			return false;
+		}
+		int mode = run % 2;
+		double startTime = Duration.currentTimeMillis();
+		Puzzle puzzle = new Puzzle(srcSvg, null, colCount, rowCount, null, mode == 1, SEED);
+		double buildEndTime = Duration.currentTimeMillis();
+		Element element = puzzle.getSvgElement().getElement();
+		container.insertBefore(element, report);
+		// Reading the layout forces the style and
+		// layout computation of the new board
+		container.getOffsetHeight();
+		double layoutEndTime = Duration.currentTimeMillis();
+		container.removeChild(element);
+		puzzle.dispose();
+		if (run >= 2 * WARMUP_RUNS) {
+			buildTime[mode] += buildEndTime - startTime;
+			layoutTime[mode] += layoutEndTime - startTime;
+		}
+		if (++run < 2 * (WARMUP_RUNS + MEASURED_RUNS)) {
+			return true;
+		}
+		NumberFormat format = NumberFormat.getFormat("0.0");
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < 2; i++) {
+			result.append(i == 1 ? "markup" : "dom")
+				.append(": build ").append(format.format(buildTime[i] / MEASURED_RUNS))
+				.append(" ms, build and layout ").append(format.format(layoutTime[i] / MEASURED_RUNS))
+				.append(" ms\n");
+		}
+		GWT.log(result.toString());
+		report.setInnerText(report.getInnerText() + result);
+		return false;
+	}
+}
@@ -0,0 +1,306 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import com.google.gwt.animation.client.AnimationScheduler;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationCallback;
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArrayInteger;
+import com.google.gwt.http.client.URL;
+import com.google.gwt.user.client.Timer;
+
+/**
+ * Client side of the cooperative mode. The class replicates
+ * the moves of the local player to the server, and applies the
+ * moves of the remote players to the puzzle.
+ * <p>Drag positions are sampled at most once per animation frame.
+ * Records accumulate while a request is in flight, and are sent
+ * together in the next request. Pieces are locked when picked up;
+ * if the server denies the lock because another player grabbed
+ * the pieces first, the local drag is cancelled.</p>
+ */
+public class CoopSync implements Puzzle.MoveListener, AnimationCallback {
+	/**
+	 * Delay between two polls of the server when the
+	 * local player is idle (in ms)
+	 */
+	private static final int POLL_INTERVAL = 250;
+	private Puzzle puzzle;
+	private String url;
+	/**
+	 * The client id assigned by the server (0 until joined)
+	 */
+	private int clientId;
+	/**
+	 * The last server sequence number received
+	 */
+	private int ack;
+	/**
+	 * The records waiting to be sent
+	 */
+	private SyncBuffer outgoing;
+	/**
+	 * A message to send again after a transport error
+	 */
+	private SyncBuffer retry;
+	private boolean inFlight;
+	private boolean stopped;
+	private boolean frameRequested;
+	/**
+	 * The latest drag sample, written to the outgoing
+	 * records once per frame
+	 */
+	private int dragPiece;
+	private float dragX, dragY;
+	private boolean dragPending;
+	private Timer pollTimer;
+
+	/**
+	 * Constructor
+	 * @param puzzle the puzzle to synchronize
+	 * @param url the url of the server endpoint
+	 * @param session the name of the session to join
+	 */
+	public CoopSync(Puzzle puzzle, String url, String session) {
+		this.puzzle = puzzle;
+		this.url = url + "?session=" + URL.encodeQueryString(session);
+		pollTimer = new Timer() {
+			@Override
+			public void run() {
+				flush();
+			}
+		};
+	}
+
+	/**
+	 * Joins the session. The board of the first player to
+	 * join becomes the board of the session.
+	 */
+	public void start() {
+		puzzle.setMoveListener(this);
+		outgoing = new SyncBuffer();
+		writeJoin();
+		flush();
+		pollTimer.scheduleRepeating(POLL_INTERVAL);
+	}
+
+	/**
+	 * Leaves the session. The server releases the locks of the
+	 * player when it stops hearing from it.
+	 */
+	public void stop() {
+		stopped = true;
+		pollTimer.cancel();
+		puzzle.setMoveListener(null);
+	}
+
+	private void writeJoin() {
+		outgoing.writeVarInt(SyncBuffer.JOIN);
+		outgoing.writeVarInt(puzzle.getPieceCount());
+		float[] state = new float[3];
+		for (int i = 0, count = puzzle.getPieceCount(); i < count; i++) {
+			puzzle.getPieceState(i, state);
+			writeState(SyncBuffer.STATE, i, state);
+		}
+	}
+
+	private void writeState(int type, int piece, float[] state) {
+		int zone = (int)state[0];
+		outgoing.writeVarInt(type);
+		outgoing.writeVarInt(piece);
+		outgoing.writeVarInt(zone);
+		if (zone == Puzzle.ZONE_LOOSE) {
+			outgoing.writeSignedVarInt(Math.round(state[1] * SyncBuffer.QUANTUM));
+			outgoing.writeSignedVarInt(Math.round(state[2] * SyncBuffer.QUANTUM));
+		} else {
+			outgoing.writeSignedVarInt((int)state[1]);
+			outgoing.writeSignedVarInt((int)state[2]);
+		}
+	}
+
+	@Override
+	public void onPickUp(int[] pieces) {
+		dragPending = false;
+		outgoing.writeVarInt(SyncBuffer.LOCK);
+		outgoing.writePieces(pieces);
+		requestFrame();
+	}
+
+	@Override
+	public void onDrag(int piece, float dx, float dy) {
+		dragPiece = piece;
+		dragX = dx;
+		dragY = dy;
+		dragPending = true;
+		requestFrame();
+	}
+
+	@Override
+	public void onDrop(int[] pieces) {
+		dragPending = false;
+		float[] state = new float[3];
+		for (int piece : pieces) {
+			puzzle.getPieceState(piece, state);
+			writeState(SyncBuffer.MOVE, piece, state);
+		}
+		outgoing.writeVarInt(SyncBuffer.UNLOCK);
+		outgoing.writePieces(pieces);
+		requestFrame();
+	}
+
+	private void requestFrame() {
+		if (!frameRequested && !stopped) {
+			frameRequested = true;
+			AnimationScheduler.get().requestAnimationFrame(this);
+		}
+	}
+
+	@Override
+	public void execute(double timestamp) {
+		frameRequested = false;
+		if (dragPending) {
+			dragPending = false;
+			outgoing.writeVarInt(SyncBuffer.DRAG);
+			outgoing.writeDrag(dragPiece, Math.round(dragX * SyncBuffer.QUANTUM), Math.round(dragY * SyncBuffer.QUANTUM));
+		}
+		flush();
+	}
+
+	/**
+	 * Sends the pending records, unless a request is already
+	 * in flight
+	 */
+	private void flush() {
+		if (inFlight || stopped) {
+			return;
+		}
+		SyncBuffer message = retry;
+		if (message == null) {
+			message = new SyncBuffer();
+			message.writeVarInt(SyncBuffer.VERSION);
+			message.writeVarInt(clientId);
+			message.writeVarInt(ack);
+			message.write(outgoing);
+			outgoing = new SyncBuffer();
+		}
+		retry = message;
+		inFlight = true;
+		JsArrayInteger bytes = JavaScriptObject.createArray().cast();
+		for (int i = 0, size = message.size(); i < size; i++) {
+			bytes.push(message.get(i));
+		}
+		send(url, bytes);
+	}
+
+	private native void send(String url, JsArrayInteger bytes) /*-{
+		var xhr = new XMLHttpRequest();
+		var self = this;
+		xhr.open("POST", url, true);
+		xhr.responseType = "arraybuffer";
+		xhr.setRequestHeader("Content-Type", "application/octet-stream");
+		xhr.onreadystatechange = $entry(function() {
+			if (xhr.readyState == 4) {
+				xhr.onreadystatechange = null;
+				if (xhr.status == 200) {
+					self.@org.vectomatic.svg.edu.client.puzzle.CoopSync::onResponse(Lcom/google/gwt/core/client/JsArrayInteger;)(new Uint8Array(xhr.response));
+				} else {
+					self.@org.vectomatic.svg.edu.client.puzzle.CoopSync::onError(I)(xhr.status);
+				}
+			}
+		});
+		xhr.send(new Uint8Array(bytes));
+	}-*/;
+
+	private void onError(int status) {
+		GWT.log("Cooperative mode request failed: " + status);
+		inFlight = false;
+		if (status >= 400 && status < 500) {
+			// The server rejected the message, do not send it again
+			retry = null;
+		}
+	}
+
+	private void onResponse(JsArrayInteger bytes) {
+		inFlight = false;
+		retry = null;
+		if (stopped) {
+			return;
+		}
+		byte[] data = new byte[bytes.length()];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte)bytes.get(i);
+		}
+		SyncBuffer in = new SyncBuffer(data);
+		try {
+			if (in.readVarInt() != SyncBuffer.VERSION) {
+				GWT.log("Unsupported protocol version");
+				return;
+			}
+			int id = in.readVarInt();
+			ack = in.readVarInt();
+			if (clientId != 0 && id != clientId) {
+				// The server has lost the session: join again
+				SyncBuffer pending = outgoing;
+				outgoing = new SyncBuffer();
+				writeJoin();
+				outgoing.write(pending);
+			}
+			clientId = id;
+			int[] drag = new int[3];
+			while (in.hasRemaining()) {
+				int type = in.readVarInt();
+				switch (type) {
+					case SyncBuffer.MOVE: {
+						int piece = in.readVarInt();
+						int zone = in.readVarInt();
+						float a = in.readSignedVarInt();
+						float b = in.readSignedVarInt();
+						if (zone == Puzzle.ZONE_LOOSE) {
+							a /= SyncBuffer.QUANTUM;
+							b /= SyncBuffer.QUANTUM;
+						}
+						puzzle.setPieceState(piece, zone, a, b);
+						break;
+					}
+					case SyncBuffer.LOCK:
+						puzzle.setLocked(in.readPieces(), true);
+						break;
+					case SyncBuffer.UNLOCK:
+						puzzle.setLocked(in.readPieces(), false);
+						break;
+					case SyncBuffer.LOCK_DENIED:
+						puzzle.cancelDrag(in.readPieces());
+						break;
+					case SyncBuffer.DRAG:
+						in.readDrag(drag);
+						puzzle.setRemoteOffset(drag[0], (float)drag[1] / SyncBuffer.QUANTUM, (float)drag[2] / SyncBuffer.QUANTUM);
+						break;
+					default:
+						GWT.log("Unknown record type: " + type);
+						return;
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			GWT.log("Malformed cooperative mode message", e);
+		}
+		if (outgoing.size() > 0) {
+			flush();
+		}
+	}
+}
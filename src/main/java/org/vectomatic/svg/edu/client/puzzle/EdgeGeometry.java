@@ -0,0 +1,389 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import java.util.Arrays;
+
+/**
+ * Geometry engine for the edges shared by neighboring
+ * puzzle pieces. Each interior edge is computed once, in
+ * puzzle coordinates, and stored as a list of cubic segments
+ * in a single float buffer. A piece traverses its north and
+ * east edges forward, and its south and west edges backward,
+ * so the two pieces sharing an edge read the same data and
+ * fit exactly.
+ * <p>The buffer layout for an edge is the start point (2 floats)
+ * followed by one entry per segment: first control point,
+ * second control point and end point (6 floats). Straight lines
+ * are stored as cubics whose control points are their end points.</p>
+ * <p>This class has no dependency on the DOM and can be used
+ * outside the browser.</p>
+ */
+public class EdgeGeometry {
+	/**
+	 * Receiver of the outline of a piece
+	 */
+	public interface PathSink {
+		void moveTo(float x, float y);
+		void lineTo(float x, float y);
+		void curveTo(float x1, float y1, float x2, float y2, float x, float y);
+		void close();
+	}
+
+	/**
+	 * Connector shapes. Shapes are described in an edge frame,
+	 * where u runs along the edge from 0 to length and v is
+	 * perpendicular to the edge.
+	 */
+	public static enum Shape {
+		SQUARE(5) {
+			@Override
+			void build(EdgeGeometry g, float length, float a, float b, float s) {
+				g.lineTo(0.5f * (length - a), 0);
+				g.lineTo(0.5f * (length - a), s * b);
+				g.lineTo(0.5f * (length + a), s * b);
+				g.lineTo(0.5f * (length + a), 0);
+				g.lineTo(length, 0);
+			}
+		},
+		SPLINE(6) {
+			@Override
+			void build(EdgeGeometry g, float length, float a, float b, float s) {
+				float x1 = 0.5f * (length - 0.5f * a);
+				float kx = 0.5f * K * a;
+				float ky = 0.5f * K * s * b;
+				float w2 = 0.5f * a;
+				float w4 = 0.25f * a;
+				float h2 = 0.5f * s * b;
+				g.lineTo(x1, 0);
+				g.curveRel(  0, -ky,     -w4, ky - h2, -w4, -h2);
+				g.curveRel(  0, -ky, w2 - kx,     -h2,  w2, -h2);
+				g.curveRel( kx,   0,      w2, h2 - ky,  w2,  h2);
+				g.curveRel(  0,  ky,     -w4, h2 - ky, -w4,  h2);
+				g.lineTo(length, 0);
+			}
+		},
+		/**
+		 * Traditional jigsaw tab, with a neck narrower than its
+		 * head. The position, size and tilt of the tab vary
+		 * randomly from one edge to the next.
+		 */
+		CLASSIC(3) {
+			@Override
+			void build(EdgeGeometry g, float length, float a, float b, float s) {
+				float j1 = g.nextJitter();
+				float j2 = g.nextJitter();
+				float j3 = g.nextJitter();
+				float j4 = g.nextJitter();
+				float j5 = g.nextJitter();
+				// Scale the tab so that its head fits in the connector size
+				float sv = s * b / (3 * TAB + JITTER);
+				g.curveTo(
+						0.2f * length, j1 * sv,
+						(0.5f + j2 + j4) * length, (-TAB + j3) * sv,
+						(0.5f - TAB + j2) * length, (TAB + j3) * sv);
+				g.curveTo(
+						(0.5f - 2 * TAB + j2 - j4) * length, (3 * TAB + j3) * sv,
+						(0.5f + 2 * TAB + j2 - j4) * length, (3 * TAB + j3) * sv,
+						(0.5f + TAB + j2) * length, (TAB + j3) * sv);
+				g.curveTo(
+						(0.5f + j2 + j4) * length, (-TAB + j3) * sv,
+						0.8f * length, j5 * sv,
+						length, 0);
+			}
+		},
+		NONE(1) {
+			@Override
+			void build(EdgeGeometry g, float length, float a, float b, float s) {
+				g.lineTo(length, 0);
+			}
+		};
+		/**
+		 * Number of segments of an edge
+		 */
+		private int segmentCount;
+		private Shape(int segmentCount) {
+			this.segmentCount = segmentCount;
+		}
+		/**
+		 * Builds an edge in the edge frame
+		 * @param g the engine
+		 * @param length the length of the edge
+		 * @param a the size of the connector along the edge
+		 * @param b the size of the connector across the edge
+		 * @param s the side of the edge the connector lies on (1 or -1)
+		 */
+		abstract void build(EdgeGeometry g, float length, float a, float b, float s);
+	}
+
+	/**
+	 * Size of the connector as a percentage of the piece size
+	 */
+	public static final float CONNECTOR_PCT = 0.15f;
+	/**
+	 * Best tangent size to emulate circle with spline
+	 */
+	private static final float K = ((float)Math.sqrt(2) - 1) * 4 / 3;
+	/**
+	 * Size of the classic tab, as a fraction of the edge length
+	 */
+	private static final float TAB = 0.1f;
+	/**
+	 * Maximum random variation of the classic tab, as a
+	 * fraction of the edge length
+	 */
+	private static final float JITTER = 0.04f;
+	/**
+	 * Number of random variations of an edge
+	 */
+	private static final int JITTER_COUNT = 5;
+
+	private int colCount, rowCount;
+	private float pieceWidth, pieceHeight;
+	private float connectorWidth, connectorHeight;
+	private int segmentCount;
+	/**
+	 * The edge data
+	 */
+	private float[] buffer;
+	private int size;
+	/**
+	 * Offset of each edge in the buffer
+	 */
+	private int[] offsets;
+	/**
+	 * The side of the connector of each edge (0 if not
+	 * drawn yet), and the random variations of each edge
+	 * (NaN if not drawn yet). They are drawn once, so that
+	 * the edges keep their connectors when rebuilt with
+	 * another shape.
+	 */
+	private float[] sides;
+	private float[] jitters;
+	/**
+	 * The edge being built and its next variation
+	 */
+	private int edge, jitterIndex;
+	/**
+	 * Origin and orientation of the edge being built
+	 */
+	private float originX, originY;
+	private boolean vertical;
+	/**
+	 * Current point of the edge being built, in the edge frame
+	 */
+	private float u, v;
+	/**
+	 * The generator which determines the side of each connector
+	 * and the variations of the shape
+	 */
+	private RandomSource random;
+
+	public EdgeGeometry(int colCount, int rowCount, float pieceWidth, float pieceHeight, float connectorWidth, float connectorHeight) {
+		this.colCount = colCount;
+		this.rowCount = rowCount;
+		this.pieceWidth = pieceWidth;
+		this.pieceHeight = pieceHeight;
+		this.connectorWidth = connectorWidth;
+		this.connectorHeight = connectorHeight;
+		offsets = new int[colCount * (rowCount - 1) + (colCount - 1) * rowCount];
+	}
+
+	/**
+	 * Computes all the edges with the specified shape
+	 * @param random the generator which determines the side of
+	 * each connector and the variations of the shape
+	 */
+	public void build(Shape shape, RandomSource random) {
+		this.random = random;
+		sides = new float[offsets.length];
+		jitters = new float[offsets.length * JITTER_COUNT];
+		Arrays.fill(jitters, Float.NaN);
+		build(shape);
+	}
+
+	/**
+	 * Computes all the edges again with the specified shape. The
+	 * connectors keep the sides and variations of the previous build.
+	 */
+	public void build(Shape shape) {
+		segmentCount = shape.segmentCount;
+		buffer = new float[offsets.length * (2 + 6 * segmentCount)];
+		size = 0;
+		// Horizontal edges, from left to right
+		for (int i = 0; i < colCount; i++) {
+			for (int j = 0; j < rowCount - 1; j++) {
+				startEdge(getHEdge(i, j), i * pieceWidth, (j + 1) * pieceHeight, false);
+				shape.build(this, pieceWidth, connectorWidth, connectorHeight, nextSide());
+			}
+		}
+		// Vertical edges, from top to bottom
+		for (int i = 0; i < colCount - 1; i++) {
+			for (int j = 0; j < rowCount; j++) {
+				startEdge(getVEdge(i, j), (i + 1) * pieceWidth, j * pieceHeight, true);
+				shape.build(this, pieceHeight, connectorHeight, connectorWidth, nextSide());
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of floats used to store the edges
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Index of the edge between pieces (i, j) and (i, j + 1)
+	 */
+	private int getHEdge(int i, int j) {
+		return i * (rowCount - 1) + j;
+	}
+
+	/**
+	 * Index of the edge between pieces (i, j) and (i + 1, j)
+	 */
+	private int getVEdge(int i, int j) {
+		return colCount * (rowCount - 1) + i * rowCount + j;
+	}
+
+	private void startEdge(int edge, float x, float y, boolean vertical) {
+		this.edge = edge;
+		jitterIndex = edge * JITTER_COUNT;
+		offsets[edge] = size;
+		originX = x;
+		originY = y;
+		this.vertical = vertical;
+		u = v = 0;
+		buffer[size++] = x;
+		buffer[size++] = y;
+	}
+
+	private void putPoint(float pu, float pv) {
+		buffer[size++] = originX + (vertical ? pv : pu);
+		buffer[size++] = originY + (vertical ? pu : pv);
+	}
+
+	void lineTo(float u, float v) {
+		putPoint(this.u, this.v);
+		putPoint(u, v);
+		putPoint(u, v);
+		this.u = u;
+		this.v = v;
+	}
+
+	void curveTo(float u1, float v1, float u2, float v2, float u, float v) {
+		putPoint(u1, v1);
+		putPoint(u2, v2);
+		putPoint(u, v);
+		this.u = u;
+		this.v = v;
+	}
+
+	void curveRel(float u1, float v1, float u2, float v2, float u, float v) {
+		curveTo(this.u + u1, this.v + v1, this.u + u2, this.v + v2, this.u + u, this.v + v);
+	}
+
+	/**
+	 * Returns a random value in [-1, 1[
+	 */
+	private float nextRandom() {
+		return 2 * random.nextFloat() - 1;
+	}
+
+	private float nextSide() {
+		if (sides[edge] == 0) {
+			sides[edge] = nextRandom() < 0 ? -1 : 1;
+		}
+		return sides[edge];
+	}
+
+	float nextJitter() {
+		if (Float.isNaN(jitters[jitterIndex])) {
+			jitters[jitterIndex] = JITTER * nextRandom();
+		}
+		return jitters[jitterIndex++];
+	}
+
+	/**
+	 * Sends the outline of the specified piece to the specified
+	 * sink, relative to the upper left corner of the piece
+	 */
+	public void tracePiece(int col, int row, PathSink sink) {
+		float x = col * pieceWidth;
+		float y = row * pieceHeight;
+		sink.moveTo(0, 0);
+		if (row > 0) {
+			traceEdge(getHEdge(col, row - 1), false, x, y, sink);
+		} else {
+			sink.lineTo(pieceWidth, 0);
+		}
+		if (col < colCount - 1) {
+			traceEdge(getVEdge(col, row), false, x, y, sink);
+		} else {
+			sink.lineTo(pieceWidth, pieceHeight);
+		}
+		if (row < rowCount - 1) {
+			traceEdge(getHEdge(col, row), true, x, y, sink);
+		} else {
+			sink.lineTo(0, pieceHeight);
+		}
+		if (col > 0) {
+			traceEdge(getVEdge(col - 1, row), true, x, y, sink);
+		}
+		sink.close();
+	}
+
+	/**
+	 * Sends all the interior edges to the specified sink, each
+	 * edge once, in puzzle coordinates (used to draw cut lines)
+	 */
+	public void traceEdges(PathSink sink) {
+		for (int edge = 0; edge < offsets.length; edge++) {
+			int start = offsets[edge];
+			sink.moveTo(buffer[start], buffer[start + 1]);
+			traceEdge(edge, false, 0, 0, sink);
+		}
+	}
+
+	private void traceEdge(int edge, boolean reversed, float x, float y, PathSink sink) {
+		int start = offsets[edge];
+		if (!reversed) {
+			for (int k = 0; k < segmentCount; k++) {
+				int i = start + 2 + 6 * k;
+				traceSegment(buffer[i - 2], buffer[i - 1], buffer[i], buffer[i + 1], buffer[i + 2], buffer[i + 3], buffer[i + 4], buffer[i + 5], x, y, sink);
+			}
+		} else {
+			// A reversed segment goes from the end point to the
+			// end point of the previous segment, with its control
+			// points swapped
+			for (int k = segmentCount - 1; k >= 0; k--) {
+				int i = start + 2 + 6 * k;
+				traceSegment(buffer[i + 4], buffer[i + 5], buffer[i + 2], buffer[i + 3], buffer[i], buffer[i + 1], buffer[i - 2], buffer[i - 1], x, y, sink);
+			}
+		}
+	}
+
+	private static void traceSegment(float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3, float x, float y, PathSink sink) {
+		if (x1 == x0 && y1 == y0 && x2 == x3 && y2 == y3) {
+			sink.lineTo(x3 - x, y3 - y);
+		} else {
+			sink.curveTo(x1 - x, y1 - y, x2 - x, y2 - y, x3 - x, y3 - y);
+		}
+	}
+}
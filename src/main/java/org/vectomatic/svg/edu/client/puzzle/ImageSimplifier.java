@@ -0,0 +1,542 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vectomatic.dom.svg.OMElement;
+import org.vectomatic.dom.svg.OMNode;
+import org.vectomatic.dom.svg.OMSVGCircleElement;
+import org.vectomatic.dom.svg.OMSVGEllipseElement;
+import org.vectomatic.dom.svg.OMSVGGElement;
+import org.vectomatic.dom.svg.OMSVGGradientElement;
+import org.vectomatic.dom.svg.OMSVGPathElement;
+import org.vectomatic.dom.svg.OMSVGPathSeg;
+import org.vectomatic.dom.svg.OMSVGPathSegArcAbs;
+import org.vectomatic.dom.svg.OMSVGPathSegArcRel;
+import org.vectomatic.dom.svg.OMSVGPathSegCurvetoCubicAbs;
+import org.vectomatic.dom.svg.OMSVGPathSegCurvetoCubicRel;
+import org.vectomatic.dom.svg.OMSVGPathSegCurvetoCubicSmoothAbs;
+import org.vectomatic.dom.svg.OMSVGPathSegCurvetoCubicSmoothRel;
+import org.vectomatic.dom.svg.OMSVGPathSegCurvetoQuadraticAbs;
+import org.vectomatic.dom.svg.OMSVGPathSegCurvetoQuadraticRel;
+import org.vectomatic.dom.svg.OMSVGPathSegCurvetoQuadraticSmoothAbs;
+import org.vectomatic.dom.svg.OMSVGPathSegCurvetoQuadraticSmoothRel;
+import org.vectomatic.dom.svg.OMSVGPathSegLinetoAbs;
+import org.vectomatic.dom.svg.OMSVGPathSegLinetoHorizontalAbs;
+import org.vectomatic.dom.svg.OMSVGPathSegLinetoHorizontalRel;
+import org.vectomatic.dom.svg.OMSVGPathSegLinetoRel;
+import org.vectomatic.dom.svg.OMSVGPathSegLinetoVerticalAbs;
+import org.vectomatic.dom.svg.OMSVGPathSegLinetoVerticalRel;
+import org.vectomatic.dom.svg.OMSVGPathSegList;
+import org.vectomatic.dom.svg.OMSVGPathSegMovetoAbs;
+import org.vectomatic.dom.svg.OMSVGPathSegMovetoRel;
+import org.vectomatic.dom.svg.OMSVGPoint;
+import org.vectomatic.dom.svg.OMSVGPointList;
+import org.vectomatic.dom.svg.OMSVGPolygonElement;
+import org.vectomatic.dom.svg.OMSVGPolylineElement;
+import org.vectomatic.dom.svg.OMSVGRectElement;
+import org.vectomatic.dom.svg.OMSVGSVGElement;
+import org.vectomatic.dom.svg.OMSVGStopElement;
+import org.vectomatic.dom.svg.itf.ISVGStylable;
+import org.vectomatic.dom.svg.utils.SVGConstants;
+
+/**
+ * Class to build a low level of detail copy of a puzzle
+ * image. The copy is used to draw the pieces waiting in the
+ * tile zone, where small details cannot be seen anyway:
+ * <ul>
+ * <li>path segments shorter than the tolerance are merged</li>
+ * <li>flat or tiny curves are replaced by lines</li>
+ * <li>shapes smaller than the tolerance are dropped</li>
+ * <li>gradient paints are replaced by a solid color</li>
+ * </ul>
+ * Sizes are measured in the user space of each element;
+ * transforms inside the image are ignored.
+ */
+class ImageSimplifier {
+	/**
+	 * The size under which details are dropped, in
+	 * image coordinates
+	 */
+	private float tolerance;
+	/**
+	 * The gradients of the image, by id
+	 */
+	private Map<String, OMSVGGradientElement> gradients;
+	/**
+	 * The output segments of the path being simplified
+	 */
+	private List<OMSVGPathSeg> segs;
+	/**
+	 * The path being simplified
+	 */
+	private OMSVGPathElement path;
+	/**
+	 * The current point, the subpath start point and the
+	 * last point written to the output
+	 */
+	private float x, y, startX, startY, lastX, lastY;
+	/**
+	 * The bounding box of the path being simplified
+	 */
+	private float minX, minY, maxX, maxY;
+	/**
+	 * Statistics
+	 */
+	private int segCount, keptSegCount, droppedCount;
+
+	ImageSimplifier(float tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Returns a simplified copy of the specified image
+	 * @param srcSvg the source image
+	 * @param id the id of the group which contains the copy
+	 */
+	public OMSVGGElement simplify(OMSVGSVGElement srcSvg, String id) {
+		OMSVGGElement group = new OMSVGGElement();
+		group.setId(id);
+		for (OMNode node : srcSvg.getChildNodes()) {
+			group.appendChild(node.cloneNode(true));
+		}
+		// The full detail copy of the image has the same ids
+		SharedDefs.prefixIds(group, id + "-");
+		List<OMElement> elements = new ArrayList<OMElement>();
+		collect(group, elements);
+		gradients = new HashMap<String, OMSVGGradientElement>();
+		for (OMElement element : elements) {
+			if (element instanceof OMSVGGradientElement && element.getId().length() > 0) {
+				gradients.put(element.getId(), (OMSVGGradientElement)element);
+			}
+		}
+		for (OMElement element : elements) {
+			boolean tiny;
+			if (element instanceof OMSVGPathElement) {
+				tiny = !simplifyPath((OMSVGPathElement)element);
+			} else {
+				tiny = isTiny(element);
+			}
+			if (tiny) {
+				element.getParentNode().removeChild(element);
+				droppedCount++;
+			} else {
+				flattenPaint(element, SVGConstants.CSS_FILL_PROPERTY);
+				flattenPaint(element, SVGConstants.CSS_STROKE_PROPERTY);
+			}
+		}
+		gradients = null;
+		return group;
+	}
+
+	/**
+	 * Returns the number of path segments in the source image
+	 */
+	public int getSegCount() {
+		return segCount;
+	}
+
+	/**
+	 * Returns the number of path segments in the simplified image
+	 */
+	public int getKeptSegCount() {
+		return keptSegCount;
+	}
+
+	/**
+	 * Returns the number of elements dropped from the image
+	 */
+	public int getDroppedCount() {
+		return droppedCount;
+	}
+
+	private static void collect(OMNode node, List<OMElement> elements) {
+		for (OMNode child : node.getChildNodes()) {
+			if (child instanceof OMElement) {
+				elements.add((OMElement)child);
+				collect(child, elements);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the specified basic shape is smaller than
+	 * the tolerance in both dimensions
+	 */
+	private boolean isTiny(OMElement element) {
+		if (element instanceof OMSVGRectElement) {
+			OMSVGRectElement rect = (OMSVGRectElement)element;
+			return rect.getWidth().getBaseVal().getValue() < tolerance
+				&& rect.getHeight().getBaseVal().getValue() < tolerance;
+		}
+		if (element instanceof OMSVGCircleElement) {
+			return 2 * ((OMSVGCircleElement)element).getR().getBaseVal().getValue() < tolerance;
+		}
+		if (element instanceof OMSVGEllipseElement) {
+			OMSVGEllipseElement ellipse = (OMSVGEllipseElement)element;
+			return 2 * ellipse.getRx().getBaseVal().getValue() < tolerance
+				&& 2 * ellipse.getRy().getBaseVal().getValue() < tolerance;
+		}
+		OMSVGPointList points = null;
+		if (element instanceof OMSVGPolygonElement) {
+			points = ((OMSVGPolygonElement)element).getPoints();
+		} else if (element instanceof OMSVGPolylineElement) {
+			points = ((OMSVGPolylineElement)element).getPoints();
+		}
+		if (points != null && points.getNumberOfItems() > 0) {
+			resetBBox();
+			for (OMSVGPoint p : points) {
+				addToBBox(p.getX(), p.getY());
+			}
+			return isBBoxTiny();
+		}
+		return false;
+	}
+
+	/**
+	 * Replaces the gradient paint of the specified property
+	 * (if any) by a solid color
+	 */
+	private void flattenPaint(OMElement element, String property) {
+		String value = element.getAttribute(property);
+		if (value.startsWith("url(")) {
+			String color = getGradientColor(value);
+			if (color != null) {
+				element.setAttribute(property, color);
+			}
+		}
+		if (element instanceof ISVGStylable) {
+			ISVGStylable stylable = (ISVGStylable)element;
+			value = stylable.getStyle().getSVGProperty(property);
+			if (value != null && value.startsWith("url(")) {
+				String color = getGradientColor(value);
+				if (color != null) {
+					stylable.getStyle().setSVGProperty(property, color);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the color of the middle stop of the gradient
+	 * referenced by the specified paint, or null if the
+	 * paint does not reference a gradient
+	 */
+	private String getGradientColor(String paint) {
+		int start = paint.indexOf('#');
+		int end = paint.indexOf(')');
+		if (start == -1 || end < start) {
+			return null;
+		}
+		OMSVGGradientElement gradient = gradients.get(paint.substring(start + 1, end).trim());
+		// Stops may be inherited from another gradient through xlink:href
+		for (int depth = 0; gradient != null && depth < 8; depth++) {
+			List<OMSVGStopElement> stops = new ArrayList<OMSVGStopElement>();
+			for (OMNode node : gradient.getChildNodes()) {
+				if (node instanceof OMSVGStopElement) {
+					stops.add((OMSVGStopElement)node);
+				}
+			}
+			if (stops.size() > 0) {
+				OMSVGStopElement stop = stops.get(stops.size() / 2);
+				String color = stop.getStyle().getSVGProperty(SVGConstants.CSS_STOP_COLOR_PROPERTY);
+				if (color == null || color.length() == 0) {
+					color = stop.getAttribute(SVGConstants.CSS_STOP_COLOR_PROPERTY);
+				}
+				return color.length() > 0 ? color : "black";
+			}
+			String href = gradient.getHref().getBaseVal();
+			gradient = href != null && href.startsWith("#") ? gradients.get(href.substring(1)) : null;
+		}
+		return null;
+	}
+
+	/**
+	 * Simplifies the specified path in place. Segments are rewritten
+	 * in absolute coordinates; points closer than the tolerance to
+	 * the last kept point are skipped, and curves which are flat or
+	 * smaller than the tolerance become lines.
+	 * @return false if the whole path is smaller than the tolerance
+	 */
+	private boolean simplifyPath(OMSVGPathElement path) {
+		this.path = path;
+		segs = new ArrayList<OMSVGPathSeg>();
+		resetBBox();
+		x = y = startX = startY = lastX = lastY = 0;
+		// The second control point of the previous cubic
+		// or the control point of the previous quadratic, for
+		// smooth curve reflection
+		float cx = 0, cy = 0;
+		short prevType = OMSVGPathSeg.PATHSEG_UNKNOWN;
+		OMSVGPathSegList list = path.getPathSegList();
+		int count = list.getNumberOfItems();
+		segCount += count;
+		for (int i = 0; i < count; i++) {
+			OMSVGPathSeg seg = list.getItem(i);
+			short type = seg.getPathSegType();
+			switch (type) {
+				case OMSVGPathSeg.PATHSEG_MOVETO_ABS: {
+					OMSVGPathSegMovetoAbs s = (OMSVGPathSegMovetoAbs)seg;
+					moveTo(s.getX(), s.getY());
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_MOVETO_REL: {
+					OMSVGPathSegMovetoRel s = (OMSVGPathSegMovetoRel)seg;
+					moveTo(x + s.getX(), y + s.getY());
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_LINETO_ABS: {
+					OMSVGPathSegLinetoAbs s = (OMSVGPathSegLinetoAbs)seg;
+					lineTo(s.getX(), s.getY());
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_LINETO_REL: {
+					OMSVGPathSegLinetoRel s = (OMSVGPathSegLinetoRel)seg;
+					lineTo(x + s.getX(), y + s.getY());
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_LINETO_HORIZONTAL_ABS:
+					lineTo(((OMSVGPathSegLinetoHorizontalAbs)seg).getX(), y);
+					break;
+				case OMSVGPathSeg.PATHSEG_LINETO_HORIZONTAL_REL:
+					lineTo(x + ((OMSVGPathSegLinetoHorizontalRel)seg).getX(), y);
+					break;
+				case OMSVGPathSeg.PATHSEG_LINETO_VERTICAL_ABS:
+					lineTo(x, ((OMSVGPathSegLinetoVerticalAbs)seg).getY());
+					break;
+				case OMSVGPathSeg.PATHSEG_LINETO_VERTICAL_REL:
+					lineTo(x, y + ((OMSVGPathSegLinetoVerticalRel)seg).getY());
+					break;
+				case OMSVGPathSeg.PATHSEG_CURVETO_CUBIC_ABS: {
+					OMSVGPathSegCurvetoCubicAbs s = (OMSVGPathSegCurvetoCubicAbs)seg;
+					cx = s.getX2();
+					cy = s.getY2();
+					cubicTo(s.getX1(), s.getY1(), cx, cy, s.getX(), s.getY());
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_CURVETO_CUBIC_REL: {
+					OMSVGPathSegCurvetoCubicRel s = (OMSVGPathSegCurvetoCubicRel)seg;
+					cx = x + s.getX2();
+					cy = y + s.getY2();
+					cubicTo(x + s.getX1(), y + s.getY1(), cx, cy, x + s.getX(), y + s.getY());
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_CURVETO_CUBIC_SMOOTH_ABS:
+				case OMSVGPathSeg.PATHSEG_CURVETO_CUBIC_SMOOTH_REL: {
+					boolean abs = type == OMSVGPathSeg.PATHSEG_CURVETO_CUBIC_SMOOTH_ABS;
+					float x1 = isCubic(prevType) ? 2 * x - cx : x;
+					float y1 = isCubic(prevType) ? 2 * y - cy : y;
+					float x2, y2, x3, y3;
+					if (abs) {
+						OMSVGPathSegCurvetoCubicSmoothAbs s = (OMSVGPathSegCurvetoCubicSmoothAbs)seg;
+						x2 = s.getX2();
+						y2 = s.getY2();
+						x3 = s.getX();
+						y3 = s.getY();
+					} else {
+						OMSVGPathSegCurvetoCubicSmoothRel s = (OMSVGPathSegCurvetoCubicSmoothRel)seg;
+						x2 = x + s.getX2();
+						y2 = y + s.getY2();
+						x3 = x + s.getX();
+						y3 = y + s.getY();
+					}
+					cx = x2;
+					cy = y2;
+					cubicTo(x1, y1, x2, y2, x3, y3);
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_CURVETO_QUADRATIC_ABS: {
+					OMSVGPathSegCurvetoQuadraticAbs s = (OMSVGPathSegCurvetoQuadraticAbs)seg;
+					cx = s.getX1();
+					cy = s.getY1();
+					quadraticTo(cx, cy, s.getX(), s.getY());
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_CURVETO_QUADRATIC_REL: {
+					OMSVGPathSegCurvetoQuadraticRel s = (OMSVGPathSegCurvetoQuadraticRel)seg;
+					cx = x + s.getX1();
+					cy = y + s.getY1();
+					quadraticTo(cx, cy, x + s.getX(), y + s.getY());
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_CURVETO_QUADRATIC_SMOOTH_ABS:
+				case OMSVGPathSeg.PATHSEG_CURVETO_QUADRATIC_SMOOTH_REL: {
+					cx = isQuadratic(prevType) ? 2 * x - cx : x;
+					cy = isQuadratic(prevType) ? 2 * y - cy : y;
+					if (type == OMSVGPathSeg.PATHSEG_CURVETO_QUADRATIC_SMOOTH_ABS) {
+						OMSVGPathSegCurvetoQuadraticSmoothAbs s = (OMSVGPathSegCurvetoQuadraticSmoothAbs)seg;
+						quadraticTo(cx, cy, s.getX(), s.getY());
+					} else {
+						OMSVGPathSegCurvetoQuadraticSmoothRel s = (OMSVGPathSegCurvetoQuadraticSmoothRel)seg;
+						quadraticTo(cx, cy, x + s.getX(), y + s.getY());
+					}
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_ARC_ABS: {
+					OMSVGPathSegArcAbs s = (OMSVGPathSegArcAbs)seg;
+					arcTo(s.getR1(), s.getR2(), s.getAngle(), s.getLargeArcFlag(), s.getSweepFlag(), s.getX(), s.getY());
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_ARC_REL: {
+					OMSVGPathSegArcRel s = (OMSVGPathSegArcRel)seg;
+					arcTo(s.getR1(), s.getR2(), s.getAngle(), s.getLargeArcFlag(), s.getSweepFlag(), x + s.getX(), y + s.getY());
+					break;
+				}
+				case OMSVGPathSeg.PATHSEG_CLOSEPATH:
+					segs.add(path.createSVGPathSegClosePath());
+					x = lastX = startX;
+					y = lastY = startY;
+					break;
+			}
+			prevType = type;
+		}
+		flushLine();
+		if (isBBoxTiny()) {
+			return false;
+		}
+		list.clear();
+		for (OMSVGPathSeg seg : segs) {
+			list.appendItem(seg);
+		}
+		keptSegCount += segs.size();
+		segs = null;
+		this.path = null;
+		return true;
+	}
+
+	private static boolean isCubic(short type) {
+		return type == OMSVGPathSeg.PATHSEG_CURVETO_CUBIC_ABS
+			|| type == OMSVGPathSeg.PATHSEG_CURVETO_CUBIC_REL
+			|| type == OMSVGPathSeg.PATHSEG_CURVETO_CUBIC_SMOOTH_ABS
+			|| type == OMSVGPathSeg.PATHSEG_CURVETO_CUBIC_SMOOTH_REL;
+	}
+
+	private static boolean isQuadratic(short type) {
+		return type == OMSVGPathSeg.PATHSEG_CURVETO_QUADRATIC_ABS
+			|| type == OMSVGPathSeg.PATHSEG_CURVETO_QUADRATIC_REL
+			|| type == OMSVGPathSeg.PATHSEG_CURVETO_QUADRATIC_SMOOTH_ABS
+			|| type == OMSVGPathSeg.PATHSEG_CURVETO_QUADRATIC_SMOOTH_REL;
+	}
+
+	private void moveTo(float x1, float y1) {
+		// A pending tail shorter than the tolerance is dropped
+		segs.add(path.createSVGPathSegMovetoAbs(x1, y1));
+		x = lastX = startX = x1;
+		y = lastY = startY = y1;
+		addToBBox(x1, y1);
+	}
+
+	private void lineTo(float x1, float y1) {
+		x = x1;
+		y = y1;
+		addToBBox(x1, y1);
+		if (Math.abs(x1 - lastX) >= tolerance || Math.abs(y1 - lastY) >= tolerance) {
+			segs.add(path.createSVGPathSegLinetoAbs(x1, y1));
+			lastX = x1;
+			lastY = y1;
+		}
+	}
+
+	/**
+	 * Writes the points skipped since the last kept point,
+	 * so that the next segment starts at the current point
+	 */
+	private void flushLine() {
+		if (x != lastX || y != lastY) {
+			segs.add(path.createSVGPathSegLinetoAbs(x, y));
+			lastX = x;
+			lastY = y;
+		}
+	}
+
+	private void cubicTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+		addToBBox(x1, y1);
+		addToBBox(x2, y2);
+		if (isFlat(x1, y1, x3, y3) && isFlat(x2, y2, x3, y3)) {
+			lineTo(x3, y3);
+		} else {
+			flushLine();
+			segs.add(path.createSVGPathSegCurvetoCubicAbs(x3, y3, x1, y1, x2, y2));
+			x = lastX = x3;
+			y = lastY = y3;
+			addToBBox(x3, y3);
+		}
+	}
+
+	private void quadraticTo(float x1, float y1, float x2, float y2) {
+		addToBBox(x1, y1);
+		if (isFlat(x1, y1, x2, y2)) {
+			lineTo(x2, y2);
+		} else {
+			flushLine();
+			segs.add(path.createSVGPathSegCurvetoQuadraticAbs(x2, y2, x1, y1));
+			x = lastX = x2;
+			y = lastY = y2;
+			addToBBox(x2, y2);
+		}
+	}
+
+	private void arcTo(float r1, float r2, float angle, boolean largeArc, boolean sweep, float x1, float y1) {
+		if (2 * Math.max(r1, r2) < tolerance) {
+			lineTo(x1, y1);
+		} else {
+			flushLine();
+			segs.add(path.createSVGPathSegArcAbs(x1, y1, r1, r2, angle, largeArc, sweep));
+			x = lastX = x1;
+			y = lastY = y1;
+			// Conservative: the arc may bulge up to its radii
+			addToBBox(x1 - r1, y1 - r2);
+			addToBBox(x1 + r1, y1 + r2);
+		}
+	}
+
+	/**
+	 * Returns true if the specified control point lies closer
+	 * than half the tolerance to the chord which joins the current
+	 * point to the specified end point
+	 */
+	private boolean isFlat(float px, float py, float ex, float ey) {
+		float dx = ex - x;
+		float dy = ey - y;
+		float length2 = dx * dx + dy * dy;
+		float t = length2 > 0 ? Math.max(0, Math.min(1, ((px - x) * dx + (py - y) * dy) / length2)) : 0;
+		float qx = x + t * dx - px;
+		float qy = y + t * dy - py;
+		return 4 * (qx * qx + qy * qy) < tolerance * tolerance;
+	}
+
+	private void resetBBox() {
+		minX = minY = Float.MAX_VALUE;
+		maxX = maxY = -Float.MAX_VALUE;
+	}
+
+	private void addToBBox(float px, float py) {
+		minX = Math.min(minX, px);
+		minY = Math.min(minY, py);
+		maxX = Math.max(maxX, px);
+		maxY = Math.max(maxY, py);
+	}
+
+	private boolean isBBoxTiny() {
+		return maxX - minX < tolerance && maxY - minY < tolerance;
+	}
+}
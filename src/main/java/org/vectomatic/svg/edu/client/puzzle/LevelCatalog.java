@@ -0,0 +1,122 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+/**
+ * The level catalog generated at build time by
+ * <code>LevelCatalogBuilder</code>. For each level, it gives
+ * the viewBox size, the number of elements and path segments,
+ * and an estimate of the cost of rendering the image once
+ * (in path segments). Since every piece renders a clipped copy
+ * of the whole image, the cost of a board is about the cost of
+ * the image times the number of pieces. It also gives a hash of
+ * the content of each level.
+ */
+class LevelCatalog {
+	private String[] names;
+	private float[] widths;
+	private float[] heights;
+	private int[] elementCounts;
+	private int[] segmentCounts;
+	private int[] costs;
+	private String[] hashes;
+
+	/**
+	 * Parses the catalog text (one level per line, lines
+	 * starting with # are comments)
+	 */
+	LevelCatalog(String text) {
+		String[] lines = text.split("\n");
+		int count = 0;
+		for (String line : lines) {
+			if (isLevel(line)) {
+				count++;
+			}
+		}
+		names = new String[count];
+		widths = new float[count];
+		heights = new float[count];
+		elementCounts = new int[count];
+		segmentCounts = new int[count];
+		costs = new int[count];
+		hashes = new String[count];
+		int index = 0;
+		for (String line : lines) {
+			if (isLevel(line)) {
+				String[] fields = line.trim().split("\\s+");
+				names[index] = fields[0];
+				widths[index] = Float.parseFloat(fields[1]);
+				heights[index] = Float.parseFloat(fields[2]);
+				elementCounts[index] = Integer.parseInt(fields[3]);
+				segmentCounts[index] = Integer.parseInt(fields[4]);
+				costs[index] = Integer.parseInt(fields[5]);
+				hashes[index] = fields.length > 6 ? fields[6] : null;
+				index++;
+			}
+		}
+	}
+
+	private static boolean isLevel(String line) {
+		String s = line.trim();
+		return s.length() > 0 && s.charAt(0) != '#';
+	}
+
+	public int getLevelCount() {
+		return names.length;
+	}
+
+	public String getName(int level) {
+		return names[level];
+	}
+
+	public float getWidth(int level) {
+		return widths[level];
+	}
+
+	public float getHeight(int level) {
+		return heights[level];
+	}
+
+	public int getElementCount(int level) {
+		return elementCounts[level];
+	}
+
+	public int getSegmentCount(int level) {
+		return segmentCounts[level];
+	}
+
+	public int getCost(int level) {
+		return costs[level];
+	}
+
+	/**
+	 * Returns the hash of the content of the specified level
+	 * (null if the catalog does not have one)
+	 */
+	public String getHash(int level) {
+		return hashes[level];
+	}
+
+	/**
+	 * Returns the maximum number of pieces of the specified
+	 * level which fit the specified render budget
+	 */
+	public int getMaxPieces(int level, int budget) {
+		return budget / Math.max(1, costs[level]);
+	}
+}
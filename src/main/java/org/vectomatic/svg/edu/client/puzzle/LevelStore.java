@@ -0,0 +1,256 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * Persistent store of level files, backed by IndexedDB. Each
+ * record holds the text of a level under a key which includes
+ * the version of the level, so that an updated level never
+ * hits a stale record. When a record is written, the older
+ * versions of the same level are deleted, then the least
+ * recently used records until the total size of the store
+ * fits its budget. The store counts hits, misses and evictions.
+ * If IndexedDB is not available, every lookup is a miss.
+ */
+class LevelStore {
+	/**
+	 * Callback to receive the result of a lookup
+	 */
+	interface Callback {
+		/**
+		 * Invoked with the text of the level, or null
+		 * if the store does not have it
+		 */
+		void onLoad(String text);
+	}
+	private static final String DB_NAME = "lib-gwt-svg-edu-puzzle";
+	private static final String STORE_NAME = "levels";
+	private static final int DB_VERSION = 1;
+	/**
+	 * The maximum total size of the records (in characters)
+	 */
+	private int maxSize;
+	/**
+	 * The database (null until it is open)
+	 */
+	private JavaScriptObject db;
+	/**
+	 * True if the database cannot be used
+	 */
+	private boolean failed;
+	/**
+	 * Lookups and writes received before the database is open
+	 */
+	private List<Runnable> pending = new ArrayList<Runnable>();
+	private int hitCount;
+	private int missCount;
+	private int evictionCount;
+
+	LevelStore(int maxSize) {
+		this.maxSize = maxSize;
+		if (isSupported()) {
+			open();
+		} else {
+			failed = true;
+		}
+	}
+
+	static native boolean isSupported() /*-{
+		return !!$wnd.indexedDB;
+	}-*/;
+
+	/**
+	 * Looks up the level stored under the specified key
+	 */
+	public void get(final String key, final Callback callback) {
+		if (failed) {
+			onGet(callback, null);
+		} else if (db == null) {
+			pending.add(new Runnable() {
+				@Override
+				public void run() {
+					get(key, callback);
+				}
+			});
+		} else {
+			get(db, key, callback);
+		}
+	}
+
+	/**
+	 * Stores a level under the specified key
+	 * @param name the name of the level (the key without the
+	 * version), used to delete the older versions of the level
+	 */
+	public void put(final String key, final String name, final String text) {
+		if (failed) {
+			return;
+		} else if (db == null) {
+			pending.add(new Runnable() {
+				@Override
+				public void run() {
+					put(key, name, text);
+				}
+			});
+		} else {
+			put(db, key, name, text, maxSize);
+		}
+	}
+
+	public int getHitCount() {
+		return hitCount;
+	}
+
+	public int getMissCount() {
+		return missCount;
+	}
+
+	public int getEvictionCount() {
+		return evictionCount;
+	}
+
+	private void onOpen(JavaScriptObject db) {
+		this.db = db;
+		flush();
+	}
+
+	private void onError(String message) {
+		GWT.log("Level store: " + message);
+		db = null;
+		failed = true;
+		flush();
+	}
+
+	private void flush() {
+		List<Runnable> requests = pending;
+		pending = new ArrayList<Runnable>();
+		for (Runnable request : requests) {
+			request.run();
+		}
+	}
+
+	private void onGet(Callback callback, String text) {
+		if (text != null) {
+			hitCount++;
+		} else {
+			missCount++;
+		}
+		callback.onLoad(text);
+	}
+
+	private void onEvict(int count) {
+		evictionCount += count;
+	}
+
+	private native void open() /*-{
+		var store = this;
+		var onError = $entry(function(message) {
+			store.@org.vectomatic.svg.edu.client.puzzle.LevelStore::onError(Ljava/lang/String;)(message);
+		});
+		try {
+			var request = $wnd.indexedDB.open(@org.vectomatic.svg.edu.client.puzzle.LevelStore::DB_NAME, @org.vectomatic.svg.edu.client.puzzle.LevelStore::DB_VERSION);
+			request.onupgradeneeded = function() {
+				request.result.createObjectStore(@org.vectomatic.svg.edu.client.puzzle.LevelStore::STORE_NAME, { keyPath: "key" });
+			};
+			request.onsuccess = $entry(function() {
+				store.@org.vectomatic.svg.edu.client.puzzle.LevelStore::onOpen(Lcom/google/gwt/core/client/JavaScriptObject;)(request.result);
+			});
+			request.onerror = function() {
+				onError("cannot open the database");
+			};
+		} catch (e) {
+			onError(String(e));
+		}
+	}-*/;
+
+	private native void get(JavaScriptObject db, String key, Callback callback) /*-{
+		var store = this;
+		var onGet = $entry(function(text) {
+			store.@org.vectomatic.svg.edu.client.puzzle.LevelStore::onGet(Lorg/vectomatic/svg/edu/client/puzzle/LevelStore$Callback;Ljava/lang/String;)(callback, text);
+		});
+		try {
+			var objectStore = db.transaction(@org.vectomatic.svg.edu.client.puzzle.LevelStore::STORE_NAME, "readwrite").objectStore(@org.vectomatic.svg.edu.client.puzzle.LevelStore::STORE_NAME);
+			var request = objectStore.get(key);
+			request.onsuccess = function() {
+				var record = request.result;
+				if (record) {
+					// Record the access time for the eviction
+					record.time = Date.now();
+					objectStore.put(record);
+				}
+				onGet(record ? record.text : null);
+			};
+			request.onerror = function() {
+				onGet(null);
+			};
+		} catch (e) {
+			onGet(null);
+		}
+	}-*/;
+
+	private native void put(JavaScriptObject db, String key, String name, String text, int maxSize) /*-{
+		var store = this;
+		try {
+			var objectStore = db.transaction(@org.vectomatic.svg.edu.client.puzzle.LevelStore::STORE_NAME, "readwrite").objectStore(@org.vectomatic.svg.edu.client.puzzle.LevelStore::STORE_NAME);
+			objectStore.put({ key: key, name: name, text: text, size: text.length, time: Date.now() });
+			// Collect the records, then delete the older versions of
+			// the level and the least recently used records
+			var records = [];
+			objectStore.openCursor().onsuccess = $entry(function(event) {
+				var cursor = event.target.result;
+				if (cursor) {
+					var record = cursor.value;
+					records.push({ key: record.key, name: record.name, size: record.size, time: record.time });
+					cursor["continue"]();
+					return;
+				}
+				var evicted = 0;
+				var total = 0;
+				var kept = [];
+				for (var i = 0; i < records.length; i++) {
+					if (records[i].name == name && records[i].key != key) {
+						objectStore["delete"](records[i].key);
+						evicted++;
+					} else {
+						kept.push(records[i]);
+						total += records[i].size;
+					}
+				}
+				kept.sort(function(a, b) {
+					return a.time - b.time;
+				});
+				for (var i = 0; i < kept.length && total > maxSize; i++) {
+					if (kept[i].key != key) {
+						objectStore["delete"](kept[i].key);
+						total -= kept[i].size;
+						evicted++;
+					}
+				}
+				store.@org.vectomatic.svg.edu.client.puzzle.LevelStore::onEvict(I)(evicted);
+			});
+		} catch (e) {
+			@com.google.gwt.core.client.GWT::log(Ljava/lang/String;)("Level store: " + e);
+		}
+	}-*/;
+}
@@ -0,0 +1,162 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import org.vectomatic.dom.svg.OMSVGSVGElement;
+
+import com.google.gwt.animation.client.AnimationScheduler;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationCallback;
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.PreElement;
+import com.google.gwt.i18n.client.NumberFormat;
+
+/**
+ * Compares the paint time of the piece structures
+ * (benchmark=paint in the URL query). The same board is built
+ * with each structure and every piece is moved at each
+ * animation frame, so that the whole board is painted again.
+ * The benchmark reports the mean and maximum frame time,
+ * with the simplified and the full detail image (with the path
+ * segments and elements kept in the simplified image), and the number
+ * of DOM attribute writes performed and skipped by the retained
+ * elements during the measured frames. Frame times
+ * cannot go below the refresh period of the display, so the
+ * board should be large enough to miss frames.
+ */
+public class PaintBenchmark implements AnimationCallback {
+	/**
+	 * The structures to compare
+	 */
+	private static final String[] RENDERERS = { "svg", "viewport" };
+	/**
+	 * Frames displayed before the measure starts
+	 */
+	private static final int WARMUP_FRAMES = 10;
+	/**
+	 * Frames measured per run
+	 */
+	private static final int MEASURED_FRAMES = 60;
+	/**
+	 * The seed of the boards, so that all the runs draw the same pieces
+	 */
+	private static final int SEED = 1;
+	private OMSVGSVGElement srcSvg;
+	private int colCount;
+	private int rowCount;
+	private Element container;
+	private PreElement report;
+	/**
+	 * The current run: the structure is RENDERERS[run / 2], and
+	 * the image has full detail if run is odd
+	 */
+	private int run;
+	private Puzzle puzzle;
+	private int frame;
+	private double lastTimestamp;
+	private double totalTime;
+	private double maxTime;
+	/**
+	 * The retained element counters at the start of the measure
+	 */
+	private int writeCount, skipCount;
+	private boolean stopped;
+
+	public PaintBenchmark(OMSVGSVGElement srcSvg, int colCount, int rowCount, Element container) {
+		this.srcSvg = srcSvg;
+		this.colCount = colCount;
+		this.rowCount = rowCount;
+		this.container = container;
+	}
+
+	public void start() {
+		report = Document.get().createPreElement();
+		report.setInnerText("Paint benchmark, " + colCount + "x" + rowCount + " pieces\n");
+		container.appendChild(report);
+		run = 0;
+		startRun();
+	}
+
+	/**
+	 * Stops the benchmark and removes the board
+	 */
+	public void stop() {
+		stopped = true;
+		endRun();
+	}
+
+	private void startRun() {
+		puzzle = new Puzzle(srcSvg, null, colCount, rowCount, RENDERERS[run / 2], false, SEED);
+		puzzle.getSvgElement().addClassNameBaseVal(Puzzle.style.rootSvg());
+		puzzle.setFullDetail(run % 2 == 1);
+		container.insertBefore(puzzle.getSvgElement().getElement(), report);
+		frame = 0;
+		totalTime = 0;
+		maxTime = 0;
+		AnimationScheduler.get().requestAnimationFrame(this);
+	}
+
+	private void endRun() {
+		if (puzzle != null) {
+			container.removeChild(puzzle.getSvgElement().getElement());
+			puzzle.dispose();
+			puzzle = null;
+		}
+	}
+
+	@Override
+	public void execute(double timestamp) {
+		if (stopped) {
+			return;
+		}
+		if (frame > WARMUP_FRAMES) {
+			double time = timestamp - lastTimestamp;
+			totalTime += time;
+			maxTime = Math.max(maxTime, time);
+		}
+		lastTimestamp = timestamp;
+		if (frame == WARMUP_FRAMES) {
+			writeCount = RetainedElement.getWriteCount();
+			skipCount = RetainedElement.getSkipCount();
+		}
+		if (frame < WARMUP_FRAMES + MEASURED_FRAMES) {
+			// Move the pieces back and forth by a fraction of a unit
+			float offset = (frame & 1) == 0 ? 0.5f : 0f;
+			puzzle.setOffset(offset, offset);
+			frame++;
+			AnimationScheduler.get().requestAnimationFrame(this);
+			return;
+		}
+		NumberFormat format = NumberFormat.getFormat("0.0");
+		ImageSimplifier simplifier = puzzle.getImageSimplifier();
+		String result = RENDERERS[run / 2]
+			+ (run % 2 == 1 ? ", full detail" : ", simplified")
+			+ (run % 2 == 0 && simplifier != null ? " (" + simplifier.getKeptSegCount() + "/" + simplifier.getSegCount() + " path segments, " + simplifier.getDroppedCount() + " elements dropped)" : "")
+			+ ": mean " + format.format(totalTime / MEASURED_FRAMES)
+			+ " ms, max " + format.format(maxTime) + " ms, "
+			+ (RetainedElement.getWriteCount() - writeCount) + " attribute writes, "
+			+ (RetainedElement.getSkipCount() - skipCount) + " skipped";
+		GWT.log(result);
+		report.setInnerText(report.getInnerText() + result + "\n");
+		endRun();
+		if (++run < 2 * RENDERERS.length) {
+			startRun();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import org.vectomatic.dom.svg.OMSVGPathElement;
+
+import com.google.gwt.dom.client.Element;
+
+/**
+ * Interface between the game logic and the display of
+ * the puzzle pieces. Pieces are identified by their index.
+ * The board itself (zones, borders and shadows) is always
+ * drawn with SVG, and the game receives the mouse events
+ * from the root SVG element regardless of the renderer.
+ */
+interface PieceRenderer {
+	/**
+	 * Creates the display of a piece
+	 * @param index the index of the piece
+	 * @param id the id of the piece definitions
+	 * @param outline the outline of the piece, relative to
+	 * its upper left corner (null if the piece definitions
+	 * have been built from markup, which the SVG renderer
+	 * does not need)
+	 * @param col the column of the piece in the assembled puzzle
+	 * @param row the row of the piece in the assembled puzzle
+	 */
+	void addPiece(int index, String id, OMSVGPathElement outline, int col, int row);
+	/**
+	 * Moves the upper left corner of a piece to the specified position
+	 */
+	void setPosition(int index, float x, float y);
+	/**
+	 * Switches a piece between the full detail image and
+	 * the simplified one
+	 */
+	void setFullDetail(int index, boolean fullDetail);
+	/**
+	 * Draws a piece after all the other pieces
+	 */
+	void raise(int index);
+	/**
+	 * Shows or hides a piece. A piece shown again is drawn
+	 * after all the other pieces.
+	 */
+	void setVisible(int index, boolean visible);
+	/**
+	 * Excludes a piece which lies outside the displayed part
+	 * of the board from the display, or includes it again
+	 */
+	void setCulled(int index, boolean culled);
+	/**
+	 * Notifies the renderer that the displayed part of
+	 * the board has changed
+	 */
+	void invalidate();
+	/**
+	 * Starts moving the specified pieces as a whole. The pieces
+	 * are drawn after all the other pieces until {@link #endGroup()}
+	 * is invoked.
+	 */
+	void startGroup(int[] pieces);
+	/**
+	 * Offsets the pieces of the group from their position
+	 */
+	void setGroupOffset(float dx, float dy);
+	/**
+	 * Stops moving the pieces of the group as a whole
+	 */
+	void endGroup();
+	/**
+	 * Returns the element to insert in the page over the root
+	 * SVG element, or null if the pieces are drawn in the root
+	 * SVG element itself
+	 */
+	Element getOverlay();
+	/**
+	 * Releases the resources of the renderer
+	 */
+	void dispose();
+}
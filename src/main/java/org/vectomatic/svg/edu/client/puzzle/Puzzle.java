@@ -20,9 +20,9 @@ package org.vectomatic.svg.edu.client.puzzle;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.vectomatic.dom.svg.OMElement;
 import org.vectomatic.dom.svg.OMNode;
 import org.vectomatic.dom.svg.OMSVGClipPathElement;
-import org.vectomatic.dom.svg.OMSVGDefsElement;
 import org.vectomatic.dom.svg.OMSVGGElement;
 import org.vectomatic.dom.svg.OMSVGMatrix;
 import org.vectomatic.dom.svg.OMSVGPathElement;
@@ -33,9 +33,14 @@ import org.vectomatic.dom.svg.OMSVGRectElement;
 import org.vectomatic.dom.svg.OMSVGSVGElement;
 import org.vectomatic.dom.svg.OMSVGTransform;
 import org.vectomatic.dom.svg.OMSVGUseElement;
+import org.vectomatic.dom.svg.utils.OMSVGParser;
 import org.vectomatic.dom.svg.utils.SVGConstants;
 
+import com.google.gwt.animation.client.AnimationScheduler;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationCallback;
 import com.google.gwt.core.client.GWT;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
 import com.google.gwt.dom.client.Style.Unit;
 import com.google.gwt.event.dom.client.MouseDownEvent;
 import com.google.gwt.event.dom.client.MouseDownHandler;
@@ -44,7 +49,10 @@ import com.google.gwt.event.dom.client.MouseMoveEvent;
 import com.google.gwt.event.dom.client.MouseMoveHandler;
 import com.google.gwt.event.dom.client.MouseUpEvent;
 import com.google.gwt.event.dom.client.MouseUpHandler;
+import com.google.gwt.event.dom.client.MouseWheelEvent;
+import com.google.gwt.event.dom.client.MouseWheelHandler;
 import com.google.gwt.event.shared.EventHandler;
+import com.google.gwt.user.client.Command;
 import com.google.gwt.user.client.Random;
 import com.google.gwt.user.client.Window;
 
@@ -52,7 +60,27 @@ import com.google.gwt.user.client.Window;
  * Main class of the puzzle game
  * @author laaglu
  */
-public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandler {
+public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandler, MouseWheelHandler {
+	/**
+	 * Interface to observe the moves of the local player
+	 * (used to replicate them in cooperative mode)
+	 */
+	interface MoveListener {
+		/**
+		 * Invoked when the player picks up pieces
+		 */
+		void onPickUp(int[] pieces);
+		/**
+		 * Invoked when the player drags the specified piece
+		 * (and its cluster) by the specified offset from its origin
+		 */
+		void onDrag(int piece, float dx, float dy);
+		/**
+		 * Invoked when the player drops pieces
+		 */
+		void onDrop(int[] pieces);
+	}
+
 	/**
 	 * Class to represent a drag and drop source/target
 	 */
@@ -65,7 +93,7 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 		 * The shadow to display when the drag source enters this
 		 * target (only for the assembly zone)
 		 */
-		private OMSVGUseElement shadow;
+		private RetainedElement.Use shadow;
 		/**
 		 * The target matrix to which this target belongs
 		 */
@@ -83,35 +111,43 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 			return piece;
 		}
 		void setPiece(Piece piece) {
+			setPiece(piece, SNAP_DURATION);
+		}
+		/**
+		 * Puts the specified piece in this target. The piece
+		 * moves to the target over the specified duration
+		 * (in milliseconds).
+		 */
+		void setPiece(Piece piece, double millis) {
+			if (this.piece != null && this.piece.target == this) {
+				this.piece.target = null;
+			}
 			this.piece = piece;
 			if (piece != null) {
-				OMSVGUseElement geometry = piece.geometry;
-				if (geometry != null) {
-					setPosition(getPosition());
+				piece.target = this;
+				if (piece.renderer != null) {
+					OMSVGPoint p = getPosition();
+					piece.moveTo(p.getX(), p.getY(), millis);
+					piece.setFullDetail(matrix != tileZone);
 				}
 			}
 		}
-		void setShadow(OMSVGUseElement shadow) {
+		void setShadow(RetainedElement.Use shadow) {
 			this.shadow = shadow;
 			if (shadow != null) {
 				setSelected(false, shadow);
 			}
 		}
-		void setSelected(boolean selected, OMSVGUseElement shadow) {
+		void setSelected(boolean selected, RetainedElement.Use shadow) {
 			OMSVGPoint p = getPosition();
-			shadow.getX().getBaseVal().setValue(p.getX());
-			shadow.getY().getBaseVal().setValue(p.getY());
-			shadow.setClassNameBaseVal(selected ? matrix.selectedShadowClass : matrix.shadowClass);
+			shadow.setPosition(p.getX(), p.getY());
+			shadow.setClassName(selected ? matrix.selectedShadowClass : matrix.shadowClass);
 		}
 		public OMSVGPoint getPosition() {
 			return rootSvg.createSVGPoint(matrix.x + u * matrix.w, matrix.y + v * matrix.h);
 		}
 		public void setPosition(OMSVGPoint p) {
-			OMSVGUseElement geometry = piece.geometry;
-			if (geometry != null) {
-				geometry.getX().getBaseVal().setValue(p.getX());
-				geometry.getY().getBaseVal().setValue(p.getY());
-			}
+			piece.setPosition(p.getX(), p.getY());
 		}
 		public void doLayout() {
 			OMSVGPoint p = getPosition();
@@ -119,8 +155,7 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 				setPosition(p);
 			}
 			if (shadow != null) {
-				shadow.getX().getBaseVal().setValue(p.getX());
-				shadow.getY().getBaseVal().setValue(p.getY());
+				shadow.setPosition(p.getX(), p.getY());
 			}
 		}
 		
@@ -135,7 +170,7 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 			buffer.append(">[");
 			buffer.append(piece != null ? piece.toString() : "null");
 			buffer.append(",");
-			buffer.append(shadow != null ? (shadow.getClassName().getBaseVal().equals(matrix.selectedShadowClass)) : "?");
+			buffer.append(shadow != null ? (matrix.selectedShadowClass.equals(shadow.getClassName())) : "?");
 			buffer.append("]");
 			return buffer.toString();
 		}
@@ -167,10 +202,15 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 		 * (when selected in the drag and drop operation)
 		 */
 		private String selectedShadowClass;
+		/**
+		 * The index of the matrix in the zone index
+		 */
+		private int zone;
 		
 		TargetMatrix(String id, String shadowClass, String selectedShadowClass) {
 			targets = new Target[colCount][];
 			this.id = id;
+			zone = zoneIndex.addZone(colCount, rowCount);
 			this.shadowClass = shadowClass;
 			this.selectedShadowClass = selectedShadowClass;
 			for (int i = 0; i < colCount; i++) {
@@ -189,15 +229,12 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 		public Target getTarget(int col, int row) {
 			return targets[col][row];
 		}
-		public Target getTarget(MouseEvent<? extends EventHandler> e) {
-			OMSVGPoint p = getCoordinates(e).substract(rootSvg.createSVGPoint(x, y)).product(rootSvg.createSVGPoint(1f / w, 1f / h)).floor();
-			return p.getX() >= 0 && p.getX() < colCount && p.getY() >= 0 && p.getY() < rowCount ? targets[(int)p.getX()][(int)p.getY()] : null;
-		}
 		public void doLayout(float x, float y, float w, float h) {
 			this.x = x;
 			this.y = y;
 			this.w = w;
 			this.h = h;
+			zoneIndex.setBounds(zone, x, y, w, h);
 			for (int i = 0; i < colCount; i++) {
 				for (int j = 0; j < rowCount; j++) {
 					targets[i][j].doLayout();
@@ -214,25 +251,70 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 		 * Piece coordinates in the assembled puzzle
 		 */
 		int x, y;
+		/**
+		 * Index of the piece in the piece list (also used to
+		 * identify the piece in the cluster set)
+		 */
+		int index;
+		/**
+		 * The target which currently contains this piece
+		 * (null if the piece has been dropped outside any target)
+		 */
+		Target target;
+		/**
+		 * Drop order of the piece when it lies outside any target,
+		 * used to find the topmost loose piece
+		 */
+		int stamp;
 		/**
 		 * Piece connector to other pieces
 		 */
 		Connector north, south, east, west;
 		/**
-		 * The piece geometry
+		 * The renderer which displays the piece
 		 */
-		OMSVGUseElement geometry;
+		PieceRenderer renderer;
+		/**
+		 * The scheduler which animates the piece
+		 */
+		TweenScheduler tweens;
 		/**
 		 * The piece shadow used during drag and drop operations
 		 */
-		OMSVGUseElement shadow;
-		Piece(int x, int y) {
+		RetainedElement.Use shadow;
+		/**
+		 * True if the piece is drawn with the full detail image,
+		 * false if it is drawn with the simplified one
+		 */
+		boolean fullDetail = true;
+		/**
+		 * True if the piece is owned by a remote player
+		 */
+		boolean locked;
+		Piece(int x, int y, int index) {
 			this.x = x;
 			this.y = y;
+			this.index = index;
 		}
 		public String getId() {
 			return x + "-" + y;
 		}
+		void setPosition(float x, float y) {
+			if (tweens != null) {
+				tweens.setPosition(index, x, y);
+			}
+		}
+		void moveTo(float x, float y, double millis) {
+			if (tweens != null) {
+				tweens.moveTo(index, x, y, millis);
+			}
+		}
+		void setFullDetail(boolean fullDetail) {
+			if (renderer != null && this.fullDetail != fullDetail) {
+				this.fullDetail = fullDetail;
+				renderer.setFullDetail(index, fullDetail);
+			}
+		}
 		@Override
 		public String toString() {
 			return getId();
@@ -240,8 +322,7 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 	}
 	
 	/**
-	 * Class to represent a directed connector
-	 * between two pieces
+	 * Class to represent a connector between two pieces
 	 */
 	static class Connector {
 		/**
@@ -253,13 +334,14 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 		 */
 		Piece dest;
 		Connector(Piece src, Piece dest) {
-			if (Random.nextInt() % 2 == 0) {
-				this.src = src;
-				this.dest = dest;
-			} else {
-				this.src = dest;
-				this.dest = src;
-			}
+			this.src = src;
+			this.dest = dest;
+		}
+		/**
+		 * Returns the piece at the other end of this connector
+		 */
+		Piece getOpposite(Piece piece) {
+			return piece == src ? dest : src;
 		}
 		@Override
 		public String toString() {
@@ -271,116 +353,80 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 		}
 	}
 
-	static enum ConnectorShape {
-		SQUARE {
-			@Override
-			void makeVConnector(
-					float connectorWidth,
-					float connectorHeight,
-					float pieceWidth,
-					int direction,
-					int connectorDirection,
-					OMSVGPathElement piecePath,
-					OMSVGPathSegList segs) {	
-				segs.appendItem(piecePath.createSVGPathSegLinetoHorizontalAbs(0.5f * (pieceWidth - direction * connectorWidth)));
-				segs.appendItem(piecePath.createSVGPathSegLinetoVerticalRel(connectorDirection * direction * connectorHeight));	
-				segs.appendItem(piecePath.createSVGPathSegLinetoHorizontalRel(direction * connectorWidth));	
-				segs.appendItem(piecePath.createSVGPathSegLinetoVerticalRel(-connectorDirection * direction * connectorHeight));
-			}
-			@Override
-			void makeHConnector(
-					float connectorWidth,
-					float connectorHeight,
-					float pieceHeight,
-					int direction,
-					int connectorDirection,
-					OMSVGPathElement piecePath,
-					OMSVGPathSegList segs) {
-				segs.appendItem(piecePath.createSVGPathSegLinetoVerticalAbs(0.5f * (pieceHeight - direction * connectorHeight)));
-				segs.appendItem(piecePath.createSVGPathSegLinetoHorizontalRel(connectorDirection * direction * connectorWidth));	
-				segs.appendItem(piecePath.createSVGPathSegLinetoVerticalRel(direction * connectorHeight));	
-				segs.appendItem(piecePath.createSVGPathSegLinetoHorizontalRel(-connectorDirection * direction * connectorWidth));
-			}
-		},
-		SPLINE {
-			@Override
-			void makeVConnector(
-					float connectorWidth,
-					float connectorHeight,
-					float pieceWidth,
-					int direction,
-					int connectorDirection,
-					OMSVGPathElement piecePath,
-					OMSVGPathSegList segs) {
-				float x1 = 0.5f * (pieceWidth - 0.5f * direction * connectorWidth);
-				float kx = 0.5f * K * direction * connectorWidth;
-				float ky = 0.5f * K * connectorDirection * direction * connectorHeight;
-				float w2 = 0.5f * direction * connectorWidth;
-				float w4 = 0.25f * direction * connectorWidth;
-				float h2 = 0.5f * connectorDirection * direction * connectorHeight;
-				segs.appendItem(piecePath.createSVGPathSegLinetoHorizontalAbs(x1));
-				segs.appendItem(piecePath.createSVGPathSegCurvetoCubicRel(-w4, -h2,  0, -ky,     -w4, ky - h2));
-				segs.appendItem(piecePath.createSVGPathSegCurvetoCubicRel( w2, -h2,  0, -ky, w2 - kx,     -h2));
-				segs.appendItem(piecePath.createSVGPathSegCurvetoCubicRel( w2,  h2, kx,  0 ,      w2, h2 - ky));
-				segs.appendItem(piecePath.createSVGPathSegCurvetoCubicRel(-w4,  h2,  0,  ky,     -w4, h2 - ky));				
-			}
-			@Override
-			void makeHConnector(
-					float connectorWidth,
-					float connectorHeight,
-					float pieceHeight,
-					int direction,
-					int connectorDirection,
-					OMSVGPathElement piecePath,
-					OMSVGPathSegList segs) {
-				float y1 = 0.5f * (pieceHeight - 0.5f * direction * connectorHeight);
-				float kx = 0.5f * K * connectorDirection * direction * connectorWidth;
-				float ky = 0.5f * K * direction * connectorHeight;
-				float h2 = 0.5f * direction * connectorHeight;
-				float h4 = 0.25f * direction * connectorHeight;
-				float w2 = 0.5f * connectorDirection * direction * connectorWidth;
-				segs.appendItem(piecePath.createSVGPathSegLinetoVerticalAbs(y1));
-				segs.appendItem(piecePath.createSVGPathSegCurvetoCubicRel(-w2, -h4, -kx,  0, kx - w2,    -h4));
-				segs.appendItem(piecePath.createSVGPathSegCurvetoCubicRel(-w2,  h2, -kx,  0,     -w2, h2 -ky));
-				segs.appendItem(piecePath.createSVGPathSegCurvetoCubicRel( w2,  h2,  0 , ky, w2 - kx,     h2));
-				segs.appendItem(piecePath.createSVGPathSegCurvetoCubicRel( w2, -h4,  kx,  0, w2 - kx,    -h4));
-			}
-		},
-		NONE;
-		void makeVConnector(
-				float connectorWidth,
-				float connectorHeight,
-				float pieceWidth,
-				int direction,
-				int connectorDirection,
-				OMSVGPathElement piecePath,
-				OMSVGPathSegList segs) {
-			
-		}
-		void makeHConnector(
-				float connectorWidth,
-				float connectorHeight,
-				float pieceHeight,
-				int direction,
-				int connectorDirection,
-				OMSVGPathElement piecePath,
-				OMSVGPathSegList segs) {
+	/**
+	 * Path sink which writes path data
+	 */
+	static class PathStringSink implements EdgeGeometry.PathSink {
+		private StringBuilder buffer;
+		PathStringSink(StringBuilder buffer) {
+			this.buffer = buffer;
+		}
+		@Override
+		public void moveTo(float x, float y) {
+			buffer.append('M').append(x).append(',').append(y);
+		}
+		@Override
+		public void lineTo(float x, float y) {
+			buffer.append('L').append(x).append(',').append(y);
+		}
+		@Override
+		public void curveTo(float x1, float y1, float x2, float y2, float x, float y) {
+			buffer.append('C').append(x1).append(',').append(y1)
+				.append(' ').append(x2).append(',').append(y2)
+				.append(' ').append(x).append(',').append(y);
+		}
+		@Override
+		public void close() {
+			buffer.append('Z');
+		}
+	}
+
+	/**
+	 * Class to append the outline of a piece to
+	 * the segment list of an SVG path
+	 */
+	static class PathSegSink implements EdgeGeometry.PathSink {
+		private OMSVGPathElement path;
+		private OMSVGPathSegList segs;
+		PathSegSink(OMSVGPathElement path) {
+			this.path = path;
+			segs = path.getPathSegList();
+		}
+		@Override
+		public void moveTo(float x, float y) {
+			segs.appendItem(path.createSVGPathSegMovetoAbs(x, y));
+		}
+		@Override
+		public void lineTo(float x, float y) {
+			segs.appendItem(path.createSVGPathSegLinetoAbs(x, y));
+		}
+		@Override
+		public void curveTo(float x1, float y1, float x2, float y2, float x, float y) {
+			segs.appendItem(path.createSVGPathSegCurvetoCubicAbs(x, y, x1, y1, x2, y2));
+		}
+		@Override
+		public void close() {
+			segs.appendItem(path.createSVGPathSegClosePath());
 		}
 	}
 
 	static PuzzleCss style = PuzzleBundle.INSTANCE.getCss();
-	private static final String ID_PIECE = "piece";
+	/**
+	 * Zones used to describe the location of a piece
+	 */
+	static final int ZONE_TILE = 0;
+	static final int ZONE_ASSEMBLY = 1;
+	static final int ZONE_LOOSE = 2;
+	static final String ID_PIECE = "piece";
 	private static final String ID_PIECE_CLIP = "piecec";
 	private static final String ID_PIECE_PATH = "piecep";
+	static final String ID_PIECE_LOD = "piecel";
 	private static final String ID_IMAGE = "puzzle";
-	/**
-	 * Best tangent size to emulate circle with spline
-	 */
-	private static final float K = ((float)Math.sqrt(2) - 1) * 4 / 3;
+	private static final String ID_IMAGE_LOD = "puzzlel";
 	/**
 	 * Size of the connector as a percentage of the piece size
 	 */
-	private static final float CONNECTOR_PCT = 0.15f;
+	private static final float CONNECTOR_PCT = EdgeGeometry.CONNECTOR_PCT;
 	/**
 	 * Size of the border as a percentage of the puzzle size
 	 */
@@ -394,6 +440,38 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 	 * pieceZone as a percentage of the puzzle size
 	 */
 	private static final float MARGIN_PCT = 0.04f;
+	/**
+	 * Maximum distance for a loose piece to snap to its assembly
+	 * position or to a neighbor, as a percentage of the piece size
+	 */
+	private static final float SNAP_PCT = 0.25f;
+	/**
+	 * Duration of the move of a piece to its target, in milliseconds
+	 */
+	private static final double SNAP_DURATION = 150;
+	/**
+	 * Duration of the move of the pieces to the tile
+	 * zone when the puzzle is shuffled, in milliseconds
+	 */
+	private static final double SHUFFLE_DURATION = 600;
+	/**
+	 * Maximum distance for two loose pieces to be considered
+	 * connected, as a percentage of the piece size
+	 */
+	private static final float ALIGN_PCT = 0.01f;
+	/**
+	 * Size under which details are dropped from the tile
+	 * zone image, as a percentage of the piece size
+	 */
+	private static final float LOD_TOLERANCE_PCT = 0.02f;
+	/**
+	 * Maximum zoom factor
+	 */
+	private static final float MAX_ZOOM = 8f;
+	/**
+	 * Zoom factor applied by a mouse wheel step
+	 */
+	private static final float ZOOM_STEP = 1.2f;
 
 	/**
 	 * The list of all puzzle pieces
@@ -415,18 +493,30 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 	 * The assembly zone
 	 */
 	private TargetMatrix assemblyZone;
+	/**
+	 * All the zones, by index in the zone index
+	 */
+	private TargetMatrix[] zones;
+	/**
+	 * The index used to find the target under a point
+	 */
+	private ZoneIndex zoneIndex;
+	/**
+	 * The cell found by the last zone index lookup
+	 */
+	private int[] zoneCell = new int[2];
 	/**
 	 * The border around the assembly zone
 	 */
-	private OMSVGRectElement assemblyBorder;
+	private RetainedElement.Rect assemblyBorder;
 	/**
 	 * The content rectangle #1 in the assembly zone
 	 */
-	private OMSVGRectElement assemblyContent1;
+	private RetainedElement.Rect assemblyContent1;
 	/**
 	 * The content rectangle #2 in the assembly zone
 	 */
-	private OMSVGRectElement assemblyContent2;
+	private RetainedElement.Rect assemblyContent2;
 	/**
 	 * The number of pieces per column
 	 */
@@ -478,13 +568,196 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 	 * Drag and drop target
 	 */
 	Target destTarget;
+	/**
+	 * The piece being dragged
+	 */
+	Piece dragPiece;
+	/**
+	 * The position of the dragged piece when the drag
+	 * and drop operation started
+	 */
+	OMSVGPoint dragOrigin;
 	/**
 	 * True if the game is displayed in landscape mode
 	 */
 	private boolean landscape;
+	/**
+	 * The clusters of connected pieces
+	 */
+	private ClusterSet clusters;
+	/**
+	 * The renderer which displays the pieces
+	 */
+	private PieceRenderer renderer;
+	/**
+	 * The scheduler which animates the pieces
+	 */
+	private TweenScheduler tweens;
+	/**
+	 * The members of the cluster being dragged (null if
+	 * a single piece is being dragged)
+	 */
+	private Piece[] dragCluster;
+	/**
+	 * True if pieces can be dropped anywhere on the board, and
+	 * not only in the slots of the tile and assembly zones
+	 */
+	private boolean freePlacement;
+	/**
+	 * Spatial hash of the anchor points of the pieces which
+	 * lie outside any target (free placement mode only)
+	 */
+	private SpatialHash looseIndex;
+	/**
+	 * Buffer to receive the spatial hash query results
+	 */
+	private int[] queryResult;
+	/**
+	 * Number of loose drops so far, used to stamp loose pieces
+	 */
+	private int dropCount;
+	/**
+	 * The listener notified of the moves of the local player
+	 */
+	private MoveListener moveListener;
+	/**
+	 * True if the piece definitions crop the image with
+	 * a nested svg viewport
+	 */
+	private boolean viewportPieces;
+	/**
+	 * Replaces the blocks of correctly placed pieces with
+	 * image regions (null if the pieces are not drawn with SVG)
+	 */
+	private BlockCoalescer coalescer;
+	/**
+	 * The piece settled in each cell of the assembly zone
+	 */
+	private int[] settledCells;
+	/**
+	 * The seed of the board
+	 */
+	private int seed;
+	/**
+	 * The piece definitions used by the puzzle
+	 */
+	private SharedDefs.Entry sharedDefs;
+	/**
+	 * The prefix of the ids of the piece definitions
+	 */
+	private String idPrefix;
+	/**
+	 * The generator used to build and shuffle the board
+	 */
+	private RandomSource random;
+	/**
+	 * The connector shape of the board, and the one
+	 * currently displayed (see {@link #setQualityTier(int)})
+	 */
+	private EdgeGeometry.Shape connectorShape, displayedShape;
+	/**
+	 * The governor which adapts the rendering quality to
+	 * the measured frame times
+	 */
+	private QualityGovernor governor;
+	/**
+	 * The simplifier which has built the low level of detail
+	 * image (null if the definitions were built by another puzzle)
+	 */
+	private ImageSimplifier simplifier;
+	/**
+	 * The cheapest quality tier supported by the renderer
+	 */
+	private int maxQualityTier;
+	/**
+	 * The edges shared by the pieces
+	 */
+	private EdgeGeometry edges;
+	/**
+	 * The size of the whole board
+	 */
+	private float boardWidth, boardHeight;
+	/**
+	 * The zoom factor (1 to display the whole board)
+	 */
+	private float zoom = 1;
+	/**
+	 * The center of the displayed part of the board
+	 */
+	private float viewX, viewY;
+	/**
+	 * The region of the board where the upper left corner of a
+	 * piece must lie for the piece to be displayed
+	 */
+	private float cullX0, cullY0, cullX1, cullY1;
+	/**
+	 * True if the player is panning the view
+	 */
+	private boolean panning;
+	/**
+	 * The last mouse position while panning (in client coordinates)
+	 */
+	private int panClientX, panClientY;
+	/**
+	 * True if the view box will be updated at the next frame
+	 */
+	private boolean viewUpdateRequested;
+	/**
+	 * Updates the view box at most once per frame, however
+	 * many zoom and pan events are received
+	 */
+	private AnimationCallback viewUpdate = new AnimationCallback() {
+		@Override
+		public void execute(double timestamp) {
+			viewUpdateRequested = false;
+			updateView();
+		}
+	};
 
 	public Puzzle(OMSVGSVGElement srcSvg, int colCount, int rowCount) {
+		this(srcSvg, colCount, rowCount, getDefaultSeed());
+	}
+
+	/**
+	 * Constructor
+	 * @param seed
+	 * The seed of the generator which determines the shape of
+	 * the pieces and the shuffle order: the same seed gives
+	 * the same board
+	 */
+	public Puzzle(OMSVGSVGElement srcSvg, int colCount, int rowCount, int seed) {
+		this(srcSvg, null, colCount, rowCount, seed);
+	}
+
+	/**
+	 * Constructor
+	 * @param level
+	 * The name of the level. The puzzles of the page which display
+	 * the same level with the same grid, seed and structure share
+	 * their piece definitions. Null if the definitions must not
+	 * be shared.
+	 * @param seed
+	 * The seed of the generator which determines the shape of
+	 * the pieces and the shuffle order
+	 */
+	public Puzzle(OMSVGSVGElement srcSvg, String level, int colCount, int rowCount, int seed) {
+		this(srcSvg, level, colCount, rowCount, Window.Location.getParameter("renderer"), "markup".equals(Window.Location.getParameter("construction")), seed);
+	}
+
+	/**
+	 * Constructor
+	 * @param rendererName
+	 * The piece renderer: "canvas" to draw the pieces in a canvas,
+	 * "viewport" to draw each piece through a nested svg cropped to
+	 * the piece, anything else for the default SVG structure
+	 * @param markup
+	 * True to write the piece definitions and shadows as markup
+	 * and parse them at once, false to build them node by node
+	 */
+	Puzzle(OMSVGSVGElement srcSvg, String level, int colCount, int rowCount, String rendererName, boolean markup, int seed) {
 		this.srcSvg = srcSvg;
+		this.seed = seed;
+		random = new SeededRandom(seed);
 		this.colCount = colCount;
 		this.rowCount = rowCount;
 
@@ -504,22 +777,28 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 		rootSvg.addMouseDownHandler(this);
 		rootSvg.addMouseMoveHandler(this);
 		rootSvg.addMouseUpHandler(this);
-		OMSVGDefsElement defs = new OMSVGDefsElement();
-		rootSvg.appendChild(defs);
+		rootSvg.addMouseWheelHandler(this);
 
-		// Create main tile zones
+		// Create main tile zones (their index in the zone
+		// index matches the ZONE_XXX constants)
+		zoneIndex = new ZoneIndex(2);
 		tileZone = new TargetMatrix("tiles", style.tileShadow(), style.tileShadowSelected());
 		assemblyZone = new TargetMatrix("assembly", style.assemblyShadow(), style.assemblyShadowSelected());
+		zones = new TargetMatrix[] { tileZone, assemblyZone };
 
 		// Create the puzzle pieces
-		pieceList = new ArrayList<Piece>();
+		pieceList = new ArrayList<Piece>(colCount * rowCount);
 		for (int i = 0; i < colCount; i++) {
 			for (int j = 0; j < rowCount; j++) {
-				Piece piece = new Piece(i, j);
+				Piece piece = new Piece(i, j, pieceList.size());
 				tileZone.setPiece(piece, i, j);
 				pieceList.add(piece);
 			}
 		}
+		clusters = new ClusterSet(pieceList.size());
+		freePlacement = "free".equals(Window.Location.getParameter("placement"));
+		looseIndex = new SpatialHash(pieceList.size(), Math.max(tileWidth, tileHeight));
+		queryResult = new int[pieceList.size()];
 		
 		// Create the connectors between the pieces
 		for (int i = 0; i < colCount - 1; i++) {
@@ -556,39 +835,113 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 		OMSVGGElement assemblyGroup = new OMSVGGElement();
 
 
-		assemblyBorder = new OMSVGRectElement();
-		assemblyBorder.setClassNameBaseVal(style.assemblyBorder());
-		assemblyContent1 = new OMSVGRectElement();
-		assemblyContent1.setClassNameBaseVal(style.assemblyContent1());
+		assemblyBorder = new RetainedElement.Rect(new OMSVGRectElement());
+		assemblyBorder.setClassName(style.assemblyBorder());
+		assemblyContent1 = new RetainedElement.Rect(new OMSVGRectElement());
+		assemblyContent1.setClassName(style.assemblyContent1());
 		OMSVGGElement assemblyShadows = new OMSVGGElement();
-		assemblyContent2 = new OMSVGRectElement();
-		assemblyContent2.setClassNameBaseVal(style.assemblyContent2());
-		assemblyGroup.appendChild(assemblyBorder);
-		assemblyGroup.appendChild(assemblyContent1);
+		assemblyContent2 = new RetainedElement.Rect(new OMSVGRectElement());
+		assemblyContent2.setClassName(style.assemblyContent2());
+		assemblyGroup.appendChild(assemblyBorder.getElement());
+		assemblyGroup.appendChild(assemblyContent1.getElement());
 		assemblyGroup.appendChild(assemblyShadows);
-		assemblyGroup.appendChild(assemblyContent2);
+		assemblyGroup.appendChild(assemblyContent2.getElement());
 		rootSvg.appendChild(assemblyGroup);
 		OMSVGGElement tileShadows = new OMSVGGElement();
 		rootSvg.appendChild(tileShadows);
-		
-		// Copy the source SVG in a dedicated group inside
-		// the defs
-		OMSVGGElement imgGroup = new OMSVGGElement();
-		imgGroup.setId(ID_IMAGE);
-		for (OMNode node : srcSvg.getChildNodes()) {
-			imgGroup.appendChild(node.cloneNode(true));
-		}
-		defs.appendChild(imgGroup);
 
-		ConnectorShape connectorShape = ConnectorShape.SPLINE;
+		// Pieces are drawn with SVG by default. Very large boards
+		// can be drawn in a canvas instead (renderer=canvas)
+		boolean svgPieces = !"canvas".equals(rendererName) || !CanvasPieceRenderer.isSupported();
+		viewportPieces = svgPieces && "viewport".equals(rendererName);
+		// The canvas renderer needs the piece outlines as
+		// DOM elements, so the markup mode only applies to SVG pieces
+		markup &= svgPieces;
+		StringBuilder defsMarkup = new StringBuilder();
+		StringBuilder tileShadowsMarkup = new StringBuilder();
+		StringBuilder assemblyShadowsMarkup = new StringBuilder();
+
+		connectorShape = EdgeGeometry.Shape.SPLINE;
 		String connectorParam = Window.Location.getParameter("connector");
 		if (connectorParam != null) {
 			try {
-				connectorShape = ConnectorShape.valueOf(ConnectorShape.class, connectorParam.toUpperCase());
+				connectorShape = EdgeGeometry.Shape.valueOf(EdgeGeometry.Shape.class, connectorParam.toUpperCase());
 			} catch(Throwable e) {
 				GWT.log("Cannot parse connector=" + connectorParam, e);
 			}
 		}
+		displayedShape = connectorShape;
+
+		// The piece definitions are kept in the page level registry,
+		// and only built by the first puzzle which uses them
+		String defsKey = null;
+		if (level != null) {
+			defsKey = level + "/" + colCount + "x" + rowCount + "/" + seed + "/" + connectorShape
+				+ "/" + (svgPieces ? (viewportPieces ? "viewport" : "svg") : "canvas");
+		}
+		sharedDefs = SharedDefs.get().acquire(defsKey);
+		idPrefix = sharedDefs.getPrefix();
+		OMSVGGElement defs = sharedDefs.getGroup();
+		boolean buildDefs = !sharedDefs.isBuilt();
+
+		if (svgPieces) {
+			renderer = new SvgPieceRenderer(rootSvg, pieceList.size(), idPrefix);
+			// The image regions are drawn before the pieces
+			coalescer = new BlockCoalescer(renderer, colCount, rowCount, pieceWidth, pieceHeight, connectorWidth + 1, connectorHeight + 1, viewBox, idPrefix + ID_IMAGE);
+			settledCells = new int[colCount * rowCount];
+			rootSvg.appendChild(coalescer.getGroup());
+		} else {
+			renderer = new CanvasPieceRenderer(rootSvg, srcSvg, pieceList.size(), pieceWidth, pieceHeight, connectorWidth + 1, connectorHeight + 1);
+		}
+		// The animations can be turned off (animation=off)
+		tweens = new TweenScheduler(renderer, pieceList.size());
+		tweens.setEnabled(!"off".equals(Window.Location.getParameter("animation")));
+		tweens.setCompletion(new Command() {
+			@Override
+			public void execute() {
+				// The pieces which have reached their assembly
+				// position can now join the image regions
+				coalesce();
+				cull();
+			}
+		});
+		// The canvas renderer draws the pieces from sprites built
+		// once, so only the shadows can be simplified
+		maxQualityTier = svgPieces ? QualityGovernor.TIER_SQUARE_CONNECTORS : QualityGovernor.TIER_SIMPLE_SHADOWS;
+		governor = new QualityGovernor(getMaxQualityTier(), new QualityGovernor.Listener() {
+			@Override
+			public void onTierChange(int tier) {
+				applyQualityTier(tier);
+			}
+		});
+		
+		if (svgPieces && buildDefs) {
+			// Copy the source SVG in a dedicated group inside
+			// the defs
+			OMSVGGElement imgGroup = new OMSVGGElement();
+			imgGroup.setId(idPrefix + ID_IMAGE);
+			for (OMNode node : srcSvg.getChildNodes()) {
+				imgGroup.appendChild(node.cloneNode(true));
+			}
+			SharedDefs.prefixIds(imgGroup, imgGroup.getId() + "-");
+			defs.appendChild(imgGroup);
+	
+			// Build a simplified copy of the source SVG for the
+			// pieces in the tile zone
+			simplifier = new ImageSimplifier(LOD_TOLERANCE_PCT * Math.min(pieceWidth, pieceHeight));
+			OMSVGGElement lodGroup = simplifier.simplify(srcSvg, idPrefix + ID_IMAGE_LOD);
+			defs.appendChild(lodGroup);
+			// The images must not inherit the stroke width
+			// which hides the borders of the pieces
+			imgGroup.getStyle().setSVGProperty(SVGConstants.CSS_STROKE_WIDTH_PROPERTY, "1");
+			lodGroup.getStyle().setSVGProperty(SVGConstants.CSS_STROKE_WIDTH_PROPERTY, "1");
+		}
+
+		// Compute the edges shared by the pieces once (also
+		// when the definitions are shared, so that the shuffle
+		// only depends on the seed)
+		edges = new EdgeGeometry(colCount, rowCount, pieceWidth, pieceHeight, connectorWidth, connectorHeight);
+		edges.build(connectorShape, random);
 
 		for (int i = 0; i < colCount; i++) {
 			for (int j = 0; j < rowCount; j++) {
@@ -607,99 +960,256 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 				//  </g>
 				//  <use x="0" y="0" xlink:href="#piecepX-Y"/>
 				// </g>
+				// The low level of detail definition (piecelX-Y) has the same
+				// structure without the clipPath, and refers to #puzzlel
+				// In viewport mode (renderer=viewport), the translated group
+				// is replaced by a nested svg cropped to the piece
 				Piece piece = tileZone.getPiece(i, j);
 
-				OMSVGGElement pieceDef = new OMSVGGElement();
-				String idPiece = ID_PIECE + piece.getId();
-				pieceDef.setId(idPiece);
-				
-				String idPieceClip = ID_PIECE_CLIP + piece.getId();
-				OMSVGClipPathElement pieceClipDef = new OMSVGClipPathElement();
-				pieceClipDef.setId(idPieceClip);
-				
-				String idPiecePath= ID_PIECE_PATH + piece.getId();
-				OMSVGPathElement piecePath = new OMSVGPathElement();
-				piecePath.setId(idPiecePath);
-				OMSVGPathSegList segs = piecePath.getPathSegList();
-				segs.appendItem(piecePath.createSVGPathSegMovetoAbs(0f, 0f));
-				if (piece.north != null) {
-					connectorShape.makeVConnector(connectorWidth, connectorHeight, pieceWidth, 1, (piece.north.src == piece) ? 1 : -1, piecePath, segs);
-				}
-				segs.appendItem(piecePath.createSVGPathSegLinetoHorizontalAbs(pieceWidth));
-				if (piece.east != null) {
-					connectorShape.makeHConnector(connectorWidth, connectorHeight, pieceHeight, 1, (piece.east.src == piece) ? 1 : -1, piecePath, segs);
-				}
-				segs.appendItem(piecePath.createSVGPathSegLinetoVerticalAbs(pieceHeight));
-				if (piece.south != null) {
-					connectorShape.makeVConnector(connectorWidth, connectorHeight, pieceWidth, -1, (piece.south.src == piece) ? 1 : -1, piecePath, segs);
-				}
-				segs.appendItem(piecePath.createSVGPathSegLinetoHorizontalAbs(0));
-				if (piece.west != null) {
-					connectorShape.makeHConnector(connectorWidth, connectorHeight, pieceHeight, -1, (piece.west.src == piece) ? 1 : -1, piecePath, segs);
-				}
-				segs.appendItem(piecePath.createSVGPathSegClosePath());
+				String idPiecePath = idPrefix + ID_PIECE_PATH + piece.getId();
+				OMSVGPathElement piecePath = null;
+				if (markup) {
+					// The shadows are wrapped once the markup is parsed
+					if (buildDefs) {
+						appendPieceDefs(defsMarkup, piece, edges, viewBox, i, j);
+					}
+					tileShadowsMarkup.append("<use xlink:href=\"#").append(idPiecePath).append("\" class=\"").append(style.tileShadow()).append("\"/>");
+					assemblyShadowsMarkup.append("<use xlink:href=\"#").append(idPiecePath).append("\"/>");
+				} else {
+					// The canvas renderer needs the piece outline
+					// even if the definitions are shared
+					if (buildDefs || !svgPieces) {
+						piecePath = new OMSVGPathElement();
+						piecePath.setId(idPiecePath);
+						edges.tracePiece(i, j, new PathSegSink(piecePath));
+					}
 
-				OMSVGGElement pieceClipPath = new OMSVGGElement();
-				pieceClipPath.getStyle().setSVGProperty(SVGConstants.CSS_CLIP_PATH_PROPERTY, "url(#" + idPieceClip + ")");
-				
-				OMSVGGElement pieceTransform = new OMSVGGElement();
-				OMSVGTransform xform = rootSvg.createSVGTransform();
-				xform.setTranslate(
-						viewBox.getX() - i * pieceWidth, 
-						viewBox.getY() - j * pieceHeight);
-				pieceTransform.getTransform().getBaseVal().appendItem(xform);
-
-				OMSVGUseElement pieceContent = new OMSVGUseElement();
-				pieceContent.getX().getBaseVal().setValue(viewBox.getX());
-				pieceContent.getY().getBaseVal().setValue(viewBox.getY());
-				pieceContent.getHref().setBaseVal("#" + idPiecePath);
-				pieceContent.setClassNameBaseVal(style.pieceContent());
-
-				OMSVGUseElement imgUse = new OMSVGUseElement();
-				imgUse.getX().getBaseVal().setValue(viewBox.getX());
-				imgUse.getY().getBaseVal().setValue(viewBox.getY());
-				imgUse.getHref().setBaseVal("#" + ID_IMAGE);
-				
-				OMSVGUseElement pieceBorder = new OMSVGUseElement();
-				pieceBorder.getX().getBaseVal().setValue(viewBox.getX());
-				pieceBorder.getY().getBaseVal().setValue(viewBox.getY());
-				pieceBorder.getHref().setBaseVal("#" + idPiecePath);
-				pieceBorder.setClassNameBaseVal(style.pieceBorder());
-				
-				pieceDef.appendChild(pieceClipDef);
-				pieceClipDef.appendChild(piecePath);
-				pieceDef.appendChild(pieceContent);
-				pieceDef.appendChild(pieceClipPath);
-				pieceClipPath.appendChild(pieceTransform);
-				pieceTransform.appendChild(imgUse);
-				pieceDef.appendChild(pieceBorder);
-				defs.appendChild(pieceDef);
-				
-				// Create the hints
-				OMSVGUseElement tileShadow = new OMSVGUseElement();
-				tileShadow.getHref().setBaseVal("#" + idPiecePath);
-				tileShadow.setClassNameBaseVal(style.tileShadow());
-				piece.shadow = tileShadow;
-				tileShadows.appendChild(tileShadow);
-				OMSVGUseElement assemblyShadow = new OMSVGUseElement();
-				Target assemblyTarget = assemblyZone.getTarget(i,j);
-				assemblyShadow.getHref().setBaseVal("#" + idPiecePath);
-				assemblyShadows.appendChild(assemblyShadow);
-				assemblyTarget.setShadow(assemblyShadow);
-				assemblyShadows.appendChild(assemblyShadow);
+					if (buildDefs && svgPieces) {
+						OMSVGGElement pieceDef = new OMSVGGElement();
+						String idPiece = idPrefix + ID_PIECE + piece.getId();
+						pieceDef.setId(idPiece);
+						
+						String idPieceClip = idPrefix + ID_PIECE_CLIP + piece.getId();
+						OMSVGClipPathElement pieceClipDef = new OMSVGClipPathElement();
+						pieceClipDef.setId(idPieceClip);
+						
+						pieceClipDef.appendChild(piecePath);
+						pieceDef.appendChild(pieceClipDef);
+						createPieceDef(pieceDef, idPiecePath, idPieceClip, idPrefix + ID_IMAGE, viewBox, i, j);
+						defs.appendChild(pieceDef);
+		
+						// Create the low level of detail piece definition, used
+						// in the tile zone. It shares the clip path of the full
+						// detail definition.
+						OMSVGGElement pieceLodDef = new OMSVGGElement();
+						pieceLodDef.setId(idPrefix + ID_PIECE_LOD + piece.getId());
+						createPieceDef(pieceLodDef, idPiecePath, idPieceClip, idPrefix + ID_IMAGE_LOD, viewBox, i, j);
+						defs.appendChild(pieceLodDef);
+					} else if (buildDefs) {
+						// The canvas renderer only needs the piece outline,
+						// which is also used by the shadows
+						defs.appendChild(piecePath);
+					}
+					
+					// Create the hints
+					RetainedElement.Use tileShadow = new RetainedElement.Use(new OMSVGUseElement());
+					tileShadow.setHref("#" + idPiecePath);
+					tileShadow.setClassName(style.tileShadow());
+					piece.shadow = tileShadow;
+					tileShadows.appendChild(tileShadow.getElement());
+					RetainedElement.Use assemblyShadow = new RetainedElement.Use(new OMSVGUseElement());
+					Target assemblyTarget = assemblyZone.getTarget(i,j);
+					assemblyShadow.setHref("#" + idPiecePath);
+					assemblyShadows.appendChild(assemblyShadow.getElement());
+					assemblyTarget.setShadow(assemblyShadow);
+				}
 
 				// Create the piece
-				// <use x="130" y="260" xlink:href="#pieceX-Y"/>
-				OMSVGUseElement geometry = new OMSVGUseElement();
-				geometry.setClassNameBaseVal(style.piece());
-				geometry.getHref().setBaseVal("#" + idPiece);
-				rootSvg.appendChild(geometry);
-				piece.geometry = geometry;
+				renderer.addPiece(piece.index, piece.getId(), piecePath, i, j);
+				piece.renderer = renderer;
+				piece.tweens = tweens;
+				piece.setFullDetail(false);
+			}
+		}
+		if (markup) {
+			parseMarkup(defs, defsMarkup, tileShadows, tileShadowsMarkup, assemblyShadows, assemblyShadowsMarkup);
+		}
+		sharedDefs.setBuilt();
+		// The quality tier can be fixed (quality=0 to 3)
+		String qualityParam = Window.Location.getParameter("quality");
+		if (qualityParam != null && !"auto".equals(qualityParam)) {
+			try {
+				governor.setTier(Integer.parseInt(qualityParam));
+			} catch(NumberFormatException e) {
+				GWT.log("Cannot parse quality=" + qualityParam, e);
 			}
 		}
 		doLayout();
 	}
-	
+
+	/**
+	 * Parses the markup of the piece definitions and shadows,
+	 * and inserts the resulting nodes in the tree. Only the
+	 * shadows, which change during the game, are wrapped.
+	 */
+	private void parseMarkup(OMSVGGElement defs, StringBuilder defsMarkup, OMSVGGElement tileShadows, StringBuilder tileShadowsMarkup, OMSVGGElement assemblyShadows, StringBuilder assemblyShadowsMarkup) {
+		StringBuilder markup = new StringBuilder();
+		markup.append("<svg xmlns=\"").append(SVGConstants.SVG_NAMESPACE_URI)
+			.append("\" xmlns:xlink=\"").append(SVGConstants.XLINK_NAMESPACE_URI).append("\">");
+		markup.append("<defs>").append(defsMarkup).append("</defs>");
+		markup.append("<g>").append(tileShadowsMarkup).append("</g>");
+		markup.append("<g>").append(assemblyShadowsMarkup).append("</g>");
+		markup.append("</svg>");
+		Element root = OMSVGParser.parse(markup.toString()).getElement();
+		Element pieceDefs = root.getFirstChildElement();
+		Element tileShadowGroup = pieceDefs.getNextSiblingElement();
+		Element assemblyShadowGroup = tileShadowGroup.getNextSiblingElement();
+		if (pieceDefs.getFirstChild() != null) {
+			defs.getElement().appendChild(pieceDefs);
+		}
+		tileShadows.getElement().getParentElement().replaceChild(tileShadowGroup, tileShadows.getElement());
+		assemblyShadows.getElement().getParentElement().replaceChild(assemblyShadowGroup, assemblyShadows.getElement());
+
+		// The shadows are in the same order as the pieces
+		Element tileShadow = tileShadowGroup.getFirstChildElement();
+		Element assemblyShadow = assemblyShadowGroup.getFirstChildElement();
+		for (int i = 0; i < colCount; i++) {
+			for (int j = 0; j < rowCount; j++) {
+				Piece piece = tileZone.getPiece(i, j);
+				String href = "#" + idPrefix + ID_PIECE_PATH + piece.getId();
+				piece.shadow = new RetainedElement.Use(OMNode.<OMSVGUseElement>convert(tileShadow));
+				piece.shadow.setRetained(style.tileShadow(), href);
+				RetainedElement.Use shadow = new RetainedElement.Use(OMNode.<OMSVGUseElement>convert(assemblyShadow));
+				shadow.setRetained(null, href);
+				assemblyZone.getTarget(i, j).setShadow(shadow);
+				tileShadow = tileShadow.getNextSiblingElement();
+				assemblyShadow = assemblyShadow.getNextSiblingElement();
+			}
+		}
+	}
+
+	/**
+	 * Writes the markup of the full detail and simplified
+	 * definitions of the specified piece, with the same structure
+	 * as the definitions built by {@link #createPieceDef}
+	 */
+	private void appendPieceDefs(StringBuilder markup, Piece piece, EdgeGeometry edges, OMSVGRect viewBox, int i, int j) {
+		String idPiecePath = idPrefix + ID_PIECE_PATH + piece.getId();
+		String idPieceClip = idPrefix + ID_PIECE_CLIP + piece.getId();
+		markup.append("<g id=\"").append(idPrefix).append(ID_PIECE).append(piece.getId()).append("\">");
+		markup.append("<clipPath id=\"").append(idPieceClip).append("\">");
+		markup.append("<path id=\"").append(idPiecePath).append("\" d=\"");
+		edges.tracePiece(i, j, new PathStringSink(markup));
+		markup.append("\"/></clipPath>");
+		appendPieceContent(markup, idPiecePath, idPieceClip, idPrefix + ID_IMAGE, viewBox, i, j);
+		markup.append("</g>");
+		markup.append("<g id=\"").append(idPrefix).append(ID_PIECE_LOD).append(piece.getId()).append("\">");
+		appendPieceContent(markup, idPiecePath, idPieceClip, idPrefix + ID_IMAGE_LOD, viewBox, i, j);
+		markup.append("</g>");
+	}
+
+	private void appendPieceContent(StringBuilder markup, String idPiecePath, String idPieceClip, String idImage, OMSVGRect viewBox, int i, int j) {
+		float x = viewBox.getX();
+		float y = viewBox.getY();
+		markup.append("<use x=\"").append(x).append("\" y=\"").append(y)
+			.append("\" xlink:href=\"#").append(idPiecePath)
+			.append("\" class=\"").append(style.pieceContent()).append("\"/>");
+		markup.append("<g style=\"clip-path:url(#").append(idPieceClip).append(")\">");
+		if (viewportPieces) {
+			float marginX = connectorWidth + 1;
+			float marginY = connectorHeight + 1;
+			float width = pieceWidth + 2 * marginX;
+			float height = pieceHeight + 2 * marginY;
+			markup.append("<svg x=\"").append(-marginX).append("\" y=\"").append(-marginY)
+				.append("\" width=\"").append(width).append("\" height=\"").append(height)
+				.append("\" viewBox=\"").append(x + i * pieceWidth - marginX).append(' ').append(y + j * pieceHeight - marginY)
+				.append(' ').append(width).append(' ').append(height).append("\">");
+		} else {
+			markup.append("<g transform=\"translate(").append(x - i * pieceWidth).append(',').append(y - j * pieceHeight).append(")\">");
+		}
+		markup.append("<use x=\"").append(x).append("\" y=\"").append(y)
+			.append("\" xlink:href=\"#").append(idImage).append("\"/>");
+		markup.append(viewportPieces ? "</svg>" : "</g>");
+		markup.append("</g>");
+		markup.append("<use x=\"").append(x).append("\" y=\"").append(y)
+			.append("\" xlink:href=\"#").append(idPiecePath)
+			.append("\" class=\"").append(style.pieceBorder()).append("\"/>");
+	}
+
+	/**
+	 * Fills a piece definition with the following content
+	 * <pre>
+	 *  &lt;use x="0" y="0" xlink:href="#piecepX-Y"/&gt;
+	 *  &lt;g style="clip-path:url(#piececX-Y)"&gt;
+	 *   &lt;g transform="translate(-X,-Y)"&gt;
+	 *    &lt;use x="0" y="0" xlink:href="#image"/&gt;
+	 *   &lt;/g&gt;
+	 *  &lt;/g&gt;
+	 *  &lt;use x="0" y="0" xlink:href="#piecepX-Y"/&gt;
+	 * </pre>
+	 * In viewport mode, the translated group is replaced by
+	 * <pre>
+	 *   &lt;svg x="-MX" y="-MY" width="W" height="H" viewBox="X-MX Y-MY W H"&gt;
+	 * </pre>
+	 * where W x H is the piece size plus the connector margins
+	 * MX and MY. The image outside this small viewport is culled
+	 * before the connector clip path applies.
+	 */
+	private void createPieceDef(OMSVGGElement pieceDef, String idPiecePath, String idPieceClip, String idImage, OMSVGRect viewBox, int i, int j) {
+		OMSVGGElement pieceClipPath = new OMSVGGElement();
+		pieceClipPath.getStyle().setSVGProperty(SVGConstants.CSS_CLIP_PATH_PROPERTY, "url(#" + idPieceClip + ")");
+
+		OMElement pieceTransform;
+		if (viewportPieces) {
+			float marginX = connectorWidth + 1;
+			float marginY = connectorHeight + 1;
+			float width = pieceWidth + 2 * marginX;
+			float height = pieceHeight + 2 * marginY;
+			OMSVGSVGElement pieceViewport = new OMSVGSVGElement();
+			pieceViewport.getX().getBaseVal().setValue(-marginX);
+			pieceViewport.getY().getBaseVal().setValue(-marginY);
+			pieceViewport.getWidth().getBaseVal().setValue(width);
+			pieceViewport.getHeight().getBaseVal().setValue(height);
+			pieceViewport.setViewBox(
+					viewBox.getX() + i * pieceWidth - marginX,
+					viewBox.getY() + j * pieceHeight - marginY,
+					width,
+					height);
+			pieceTransform = pieceViewport;
+		} else {
+			OMSVGGElement pieceGroup = new OMSVGGElement();
+			OMSVGTransform xform = rootSvg.createSVGTransform();
+			xform.setTranslate(
+					viewBox.getX() - i * pieceWidth,
+					viewBox.getY() - j * pieceHeight);
+			pieceGroup.getTransform().getBaseVal().appendItem(xform);
+			pieceTransform = pieceGroup;
+		}
+
+		OMSVGUseElement pieceContent = new OMSVGUseElement();
+		pieceContent.getX().getBaseVal().setValue(viewBox.getX());
+		pieceContent.getY().getBaseVal().setValue(viewBox.getY());
+		pieceContent.getHref().setBaseVal("#" + idPiecePath);
+		pieceContent.setClassNameBaseVal(style.pieceContent());
+
+		OMSVGUseElement imgUse = new OMSVGUseElement();
+		imgUse.getX().getBaseVal().setValue(viewBox.getX());
+		imgUse.getY().getBaseVal().setValue(viewBox.getY());
+		imgUse.getHref().setBaseVal("#" + idImage);
+
+		OMSVGUseElement pieceBorder = new OMSVGUseElement();
+		pieceBorder.getX().getBaseVal().setValue(viewBox.getX());
+		pieceBorder.getY().getBaseVal().setValue(viewBox.getY());
+		pieceBorder.getHref().setBaseVal("#" + idPiecePath);
+		pieceBorder.setClassNameBaseVal(style.pieceBorder());
+
+		pieceDef.appendChild(pieceContent);
+		pieceDef.appendChild(pieceClipPath);
+		pieceClipPath.appendChild(pieceTransform);
+		pieceTransform.appendChild(imgUse);
+		pieceDef.appendChild(pieceBorder);
+	}
+
 	public void doLayout() {
 		int windowWidth = Window.getClientWidth();
 		int windowHeight = Window.getClientHeight();
@@ -720,31 +1230,19 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 		tileZoneY = landscape ? 0f : assemblyZoneHeight + MARGIN_PCT * srcHeight;
 		puzzleX = assemblyZoneX + borderWidth;
 		puzzleY = assemblyZoneY + borderHeight;
-		float totalWidth = landscape ? tileZoneX + tileZoneWidth : tileZoneWidth;
-		float totalHeight = landscape ? tileZoneHeight : tileZoneY + tileZoneHeight;
-		rootSvg.setViewBox(0, 0, totalWidth, totalHeight);
+		boardWidth = landscape ? tileZoneX + tileZoneWidth : tileZoneWidth;
+		boardHeight = landscape ? tileZoneHeight : tileZoneY + tileZoneHeight;
 		rootSvg.getWidth().getBaseVal().newValueSpecifiedUnits(Unit.PCT, 100);
 		rootSvg.getHeight().getBaseVal().newValueSpecifiedUnits(Unit.PCT, 100);
 		
-		assemblyBorder.getX().getBaseVal().setValue(assemblyZoneX);
-		assemblyBorder.getY().getBaseVal().setValue(assemblyZoneY);
-		assemblyBorder.getWidth().getBaseVal().setValue(assemblyZoneWidth);
-		assemblyBorder.getHeight().getBaseVal().setValue(assemblyZoneHeight);
-		assemblyBorder.getRx().getBaseVal().setValue(borderCornerWidth);
-		assemblyBorder.getRy().getBaseVal().setValue(borderCornerHeight);
-		
-
-		assemblyContent1.getX().getBaseVal().setValue(puzzleX);
-		assemblyContent1.getY().getBaseVal().setValue(puzzleY);
-		assemblyContent1.getWidth().getBaseVal().setValue(srcWidth);
-		assemblyContent1.getHeight().getBaseVal().setValue(srcHeight);
-
-		assemblyContent2.getX().getBaseVal().setValue(puzzleX);
-		assemblyContent2.getY().getBaseVal().setValue(puzzleY);
-		assemblyContent2.getWidth().getBaseVal().setValue(srcWidth);
-		assemblyContent2.getHeight().getBaseVal().setValue(srcHeight);
+		assemblyBorder.setBounds(assemblyZoneX, assemblyZoneY, assemblyZoneWidth, assemblyZoneHeight);
+		assemblyBorder.setRadius(borderCornerWidth, borderCornerHeight);
+		assemblyContent1.setBounds(puzzleX, puzzleY, srcWidth, srcHeight);
+		assemblyContent2.setBounds(puzzleX, puzzleY, srcWidth, srcHeight);
 		tileZone.doLayout(tileZoneX + connectorWidth, tileZoneY + connectorHeight, tileWidth, tileHeight);
 		assemblyZone.doLayout(puzzleX, puzzleY, pieceWidth, pieceHeight);
+		coalesce();
+		updateView();
 	}
 	
 	public boolean isLandscape() {
@@ -754,33 +1252,222 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 	public OMSVGSVGElement getSvgElement() {
 		return rootSvg;
 	}
-	
-	public void shuffle() {
-		List<Piece> pieceList = new ArrayList<Piece>(this.pieceList);
-		// Shuffle the pieces
-		int pieceCount = colCount * rowCount;
-		for (int i = 0; i < colCount; i++) {
-			for (int j = 0; j < rowCount; j++) {
-				assemblyZone.setPiece(null, i, j);
-				tileZone.setPiece(pieceList.remove(Random.nextInt(pieceCount--)), i, j);
-			}
+
+	/**
+	 * Returns the element to insert in the page over the
+	 * SVG element, or null if there is none
+	 */
+	public Element getOverlayElement() {
+		return renderer.getOverlay();
+	}
+
+	/**
+	 * Releases the resources of the puzzle when it is
+	 * removed from the page
+	 */
+	public void dispose() {
+		governor.stop();
+		tweens.dispose();
+		renderer.dispose();
+		if (sharedDefs != null) {
+			SharedDefs.get().release(sharedDefs);
+			sharedDefs = null;
 		}
 	}
+
+	/**
+	 * Returns the current rendering quality tier (one of the
+	 * QualityGovernor.TIER_XXX constants, from 0 for the full
+	 * quality to 3 for the cheapest rendering)
+	 */
+	public int getQualityTier() {
+		return governor.getTier();
+	}
+
+	/**
+	 * Sets the rendering quality tier, which stops its adaptation
+	 * to the measured frame times until {@link #setAutomaticQuality()}
+	 * is invoked
+	 */
+	public void setQualityTier(int tier) {
+		governor.setMaxTier(getMaxQualityTier());
+		governor.setTier(tier);
+	}
+
+	/**
+	 * Lets the governor adapt the rendering quality
+	 * to the measured frame times
+	 */
+	public void setAutomaticQuality() {
+		governor.setAutomatic();
+	}
+
+	/**
+	 * Returns the cheapest quality tier the puzzle can use. The
+	 * connector shape cannot change while other puzzles use the
+	 * piece definitions.
+	 */
+	private int getMaxQualityTier() {
+		return sharedDefs.isShared() ? Math.min(maxQualityTier, QualityGovernor.TIER_SIMPLE_SHADOWS) : maxQualityTier;
+	}
+
+	private void applyQualityTier(int tier) {
+		if (tier >= QualityGovernor.TIER_NO_BORDERS) {
+			rootSvg.addClassNameBaseVal(style.noBorders());
+		} else {
+			rootSvg.removeClassNameBaseVal(style.noBorders());
+		}
+		if (tier >= QualityGovernor.TIER_SIMPLE_SHADOWS) {
+			rootSvg.addClassNameBaseVal(style.simpleShadows());
+		} else {
+			rootSvg.removeClassNameBaseVal(style.simpleShadows());
+		}
+		EdgeGeometry.Shape shape = tier >= QualityGovernor.TIER_SQUARE_CONNECTORS ? EdgeGeometry.Shape.SQUARE : connectorShape;
+		if (shape != displayedShape) {
+			setConnectorShape(shape);
+		}
+	}
+
+	/**
+	 * Traces the outlines of the pieces again with the specified
+	 * connector shape. The clip paths, borders and shadows refer to
+	 * the outlines, so the game state is kept.
+	 */
+	private void setConnectorShape(EdgeGeometry.Shape shape) {
+		// The definitions no longer match their key
+		SharedDefs.get().detach(sharedDefs);
+		displayedShape = shape;
+		edges.build(shape);
+		StringBuilder pathData = new StringBuilder();
+		for (Piece piece : pieceList) {
+			Element path = Document.get().getElementById(idPrefix + ID_PIECE_PATH + piece.getId());
+			if (path != null) {
+				pathData.setLength(0);
+				edges.tracePiece(piece.x, piece.y, new PathStringSink(pathData));
+				path.setAttribute(SVGConstants.SVG_D_ATTRIBUTE, pathData.toString());
+			}
+		}
+	}
+
+	/**
+	 * Draws all the pieces with the full detail or the
+	 * simplified image (used by the paint benchmark)
+	 */
+	void setFullDetail(boolean fullDetail) {
+		for (Piece piece : pieceList) {
+			piece.setFullDetail(fullDetail);
+		}
+	}
+
+	/**
+	 * Displays all the pieces at the specified offset from
+	 * their location (used by the paint benchmark)
+	 */
+	void setOffset(float dx, float dy) {
+		for (Piece piece : pieceList) {
+			OMSVGPoint p = getPosition(piece);
+			piece.setPosition(p.getX() + dx, p.getY() + dy);
+		}
+	}
+	
+	/**
+	 * Returns the seed of the board, read from the seed parameter
+	 * of the URL query if there is one, random otherwise
+	 */
+	static int getDefaultSeed() {
+		String seedParam = Window.Location.getParameter("seed");
+		if (seedParam != null) {
+			try {
+				return Integer.parseInt(seedParam);
+			} catch(NumberFormatException e) {
+				GWT.log("Cannot parse seed=" + seedParam, e);
+			}
+		}
+		return Random.nextInt();
+	}
+
+	/**
+	 * Returns the simplifier which has built the low level of
+	 * detail image, or null if the definitions were built by
+	 * another puzzle (used by the paint benchmark)
+	 */
+	ImageSimplifier getImageSimplifier() {
+		return simplifier;
+	}
+
+	/**
+	 * Returns the seed of the board, which can be used
+	 * to build the same board again
+	 */
+	public int getSeed() {
+		return seed;
+	}
+
+	public void shuffle() {
+		// Shuffle the piece indexes in place (Fisher-Yates)
+		int pieceCount = colCount * rowCount;
+		int[] order = new int[pieceCount];
+		for (int i = 0; i < pieceCount; i++) {
+			order[i] = i;
+		}
+		for (int i = pieceCount - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+		int k = 0;
+		for (int i = 0; i < colCount; i++) {
+			for (int j = 0; j < rowCount; j++) {
+				assemblyZone.setPiece(null, i, j);
+				tileZone.getTarget(i, j).setPiece(pieceList.get(order[k++]), SHUFFLE_DURATION);
+			}
+		}
+		clusters.reset();
+		looseIndex.clear();
+		coalesce();
+		cull();
+	}
+
+	/**
+	 * Updates the image regions which replace the blocks of
+	 * correctly placed pieces. Pieces owned by a remote player,
+	 * moved by the local player or still animated are excluded.
+	 */
+	private void coalesce() {
+		if (coalescer == null) {
+			return;
+		}
+		for (int u = 0; u < colCount; u++) {
+			for (int v = 0; v < rowCount; v++) {
+				Piece piece = assemblyZone.getPiece(u, v);
+				boolean settled = piece != null
+					&& piece.x == u
+					&& piece.y == v
+					&& !piece.locked
+					&& !tweens.isMoving(piece.index)
+					&& !(dragging && clusters.isConnected(piece.index, dragPiece.index));
+				settledCells[u + v * colCount] = settled ? piece.index : -1;
+			}
+		}
+		coalescer.update(settledCells, assemblyZone.x, assemblyZone.y);
+	}
 	
 	@Override
 	public void onMouseDown(MouseDownEvent event) {
 		if (!dragging) {
-			srcTarget = getTarget(event);
-			if (srcTarget != null) {
-				Piece piece = srcTarget.getPiece();
-				if (piece != null) {
-					dragging = true;
-					d = getCoordinates(event).substract(srcTarget.getPosition());
-					// Move the DOM node to the end of the tree so that it is drawn after
-					// all other nodes
-					rootSvg.removeChild(piece.geometry);
-					rootSvg.appendChild(piece.geometry);
-				}
+			// pickUp returns true over any target, even an
+			// empty one or one with a locked piece
+			boolean handled = pickUp(getCoordinates(event));
+			if (!dragging && zoom > 1) {
+				// Pan the view when the board is zoomed in and
+				// no piece has been picked up
+				panning = true;
+				panClientX = event.getClientX();
+				panClientY = event.getClientY();
+				event.preventDefault();
+				event.stopPropagation();
+			} else if (handled) {
 				event.preventDefault();
 				event.stopPropagation();
 			}
@@ -788,22 +1475,18 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 			onMouseUp_(event);
 		}
 	}
-	
+
 	@Override
 	public void onMouseMove(MouseMoveEvent event) {
 		if (dragging) {
-			if (destTarget != null) {
-				destTarget.setSelected(false, destTarget.shadow != null ? destTarget.shadow : srcTarget.piece.shadow);
-			}
-			Target target = getTarget(event);
-//			GWT.log("target = " + target);
-			if (target != null && (target.piece == null || target == srcTarget)) {
-				destTarget = target;
-				destTarget.setSelected(true, destTarget.shadow != null ? destTarget.shadow : srcTarget.piece.shadow);
-			} else {
-				destTarget = null;
-			}
-			srcTarget.setPosition(getCoordinates(event).substract(d));
+			dragTo(getCoordinates(event));
+			event.preventDefault();
+			event.stopPropagation();
+		} else if (panning) {
+			float scale = rootSvg.getScreenCTM().getA();
+			pan((panClientX - event.getClientX()) / scale, (panClientY - event.getClientY()) / scale);
+			panClientX = event.getClientX();
+			panClientY = event.getClientY();
 			event.preventDefault();
 			event.stopPropagation();
 		}
@@ -811,32 +1494,783 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 
 	@Override
 	public void onMouseUp(MouseUpEvent event) {
+		panning = false;
 		onMouseUp_(event);
 	}
 
+	@Override
+	public void onMouseWheel(MouseWheelEvent event) {
+		if (event.getDeltaY() != 0) {
+			OMSVGPoint p = getCoordinates(event);
+			zoomAt(event.getDeltaY() < 0 ? ZOOM_STEP : 1 / ZOOM_STEP, p.getX(), p.getY());
+			event.preventDefault();
+			event.stopPropagation();
+		}
+	}
+
+	public float getZoom() {
+		return zoom;
+	}
+
+	/**
+	 * Multiplies the zoom factor by the specified factor, keeping
+	 * the specified point (in board coordinates) at the same place
+	 * on the screen. The view is updated at the next frame.
+	 */
+	public void zoomAt(float factor, float x, float y) {
+		float newZoom = Math.max(1, Math.min(MAX_ZOOM, zoom * factor));
+		viewX = x + (viewX - x) * zoom / newZoom;
+		viewY = y + (viewY - y) * zoom / newZoom;
+		zoom = newZoom;
+		requestViewUpdate();
+	}
+
+	/**
+	 * Moves the view by the specified offset (in board coordinates).
+	 * The view is updated at the next frame.
+	 */
+	public void pan(float dx, float dy) {
+		viewX += dx;
+		viewY += dy;
+		requestViewUpdate();
+	}
+
+	/**
+	 * Displays the whole board again
+	 */
+	public void resetView() {
+		zoom = 1;
+		requestViewUpdate();
+	}
+
+	private void requestViewUpdate() {
+		if (!viewUpdateRequested) {
+			viewUpdateRequested = true;
+			AnimationScheduler.get().requestAnimationFrame(viewUpdate);
+		}
+	}
+
+	/**
+	 * Sets the view box to the zoomed part of the board, keeping
+	 * the view inside the board, and culls the nodes outside
+	 */
+	private void updateView() {
+		zoom = Math.max(1, Math.min(MAX_ZOOM, zoom));
+		float w = boardWidth / zoom;
+		float h = boardHeight / zoom;
+		viewX = Math.max(0.5f * w, Math.min(boardWidth - 0.5f * w, viewX));
+		viewY = Math.max(0.5f * h, Math.min(boardHeight - 0.5f * h, viewY));
+		rootSvg.setViewBox(viewX - 0.5f * w, viewY - 0.5f * h, w, h);
+		if (zoom > 1) {
+			// The view box is scaled to fit the element, which may
+			// display more of the board along one axis
+			Element svg = rootSvg.getElement();
+			float clientWidth = getClientWidth(svg);
+			float clientHeight = getClientHeight(svg);
+			if (clientWidth > 0 && clientHeight > 0) {
+				float scale = Math.min(clientWidth / w, clientHeight / h);
+				w = clientWidth / scale;
+				h = clientHeight / scale;
+			}
+		}
+		// Bounds of the upper left corner of the visible pieces
+		cullX0 = viewX - 0.5f * w - pieceWidth - connectorWidth;
+		cullX1 = viewX + 0.5f * w + connectorWidth;
+		cullY0 = viewY - 0.5f * h - pieceHeight - connectorHeight;
+		cullY1 = viewY + 0.5f * h + connectorHeight;
+		cull();
+		renderer.invalidate();
+	}
+
+	/**
+	 * Sets display:none on the pieces and shadows which lie outside
+	 * the displayed part of the board, so that the browser only
+	 * paints what is on screen. Nothing is culled when the whole
+	 * board is displayed, nor are the pieces moved by a player.
+	 */
+	private void cull() {
+		boolean all = zoom <= 1;
+		float x0 = cullX0;
+		float x1 = cullX1;
+		float y0 = cullY0;
+		float y1 = cullY1;
+		for (Piece piece : pieceList) {
+			float x, y;
+			if (piece.target != null) {
+				TargetMatrix matrix = piece.target.matrix;
+				x = matrix.x + piece.target.u * matrix.w;
+				y = matrix.y + piece.target.v * matrix.h;
+			} else {
+				x = looseIndex.getX(piece.index);
+				y = looseIndex.getY(piece.index);
+			}
+			boolean moving = piece.locked || isDragged(piece) || tweens.isMoving(piece.index);
+			renderer.setCulled(piece.index, !(all || moving || (x >= x0 && x <= x1 && y >= y0 && y <= y1)));
+			if (piece.shadow != null) {
+				x = piece.shadow.get(RetainedElement.X);
+				y = piece.shadow.get(RetainedElement.Y);
+				piece.shadow.setDisplayed(all || moving || (x >= x0 && x <= x1 && y >= y0 && y <= y1));
+			}
+		}
+		for (int i = 0; i < colCount; i++) {
+			for (int j = 0; j < rowCount; j++) {
+				RetainedElement.Use shadow = assemblyZone.getTarget(i, j).shadow;
+				if (shadow != null) {
+					float x = assemblyZone.x + i * assemblyZone.w;
+					float y = assemblyZone.y + j * assemblyZone.h;
+					shadow.setDisplayed(all || (x >= x0 && x <= x1 && y >= y0 && y <= y1));
+				}
+			}
+		}
+	}
+
+	private static native float getClientWidth(Element element) /*-{
+		return element.getBoundingClientRect().width;
+	}-*/;
+
+	private static native float getClientHeight(Element element) /*-{
+		return element.getBoundingClientRect().height;
+	}-*/;
+
 	private void onMouseUp_(MouseEvent<? extends EventHandler> event) {
-		if (dragging) {
-			if (destTarget == null) {
-				destTarget = srcTarget;
+		if (dragging && drop(getCoordinates(event))) {
+			Window.alert(PuzzleConstants.INSTANCE.congratulations());
+		}
+		event.preventDefault();
+		event.stopPropagation();
+	}
+
+	/**
+	 * Picks up the piece at the specified point (in board
+	 * coordinates). This is the mouse down logic, also used
+	 * by the auto-solver.
+	 * @return true if the point is over a target or a piece
+	 */
+	boolean pickUp(OMSVGPoint point) {
+		srcTarget = getTarget(point);
+		Piece piece = freePlacement ? getLoosePiece(point) : null;
+		if (piece == null && srcTarget != null) {
+			piece = srcTarget.getPiece();
+		}
+		if (piece != null && !piece.locked) {
+			dragging = true;
+			dragPiece = piece;
+			governor.setMaxTier(getMaxQualityTier());
+			governor.start();
+			// Show the pieces picked up from an image region
+			coalesce();
+			cull();
+			piece.setFullDetail(true);
+			dragOrigin = getPosition(piece);
+			d = point.substract(dragOrigin);
+			if (clusters.getSize(piece.index) > 1) {
+				startClusterDrag(piece);
 			} else {
-				if (destTarget != null) {
-					destTarget.setSelected(false, destTarget.shadow != null ? destTarget.shadow : srcTarget.piece.shadow);
-					destTarget.setPiece(srcTarget.getPiece());
-					if (srcTarget != destTarget) {
-						srcTarget.setPiece(null);
-					}
-					if (isGameOver()) {
-						Window.alert(PuzzleConstants.INSTANCE.congratulations());
+				renderer.raise(piece.index);
+			}
+			if (moveListener != null) {
+				moveListener.onPickUp(getIndexes(dragCluster != null ? dragCluster : new Piece[] { piece }));
+			}
+		}
+		return srcTarget != null || piece != null;
+	}
+
+	/**
+	 * Drags the pieces picked up to the specified point
+	 * (in board coordinates)
+	 */
+	void dragTo(OMSVGPoint point) {
+		Target target = getTarget(point);
+//			GWT.log("target = " + target);
+		if (target != null && !(dragCluster != null ? canDropCluster(target) : (target.piece == null || target.piece == dragPiece))) {
+			target = null;
+		}
+		// Only update the shadows when the target changes
+		if (target != destTarget) {
+			if (destTarget != null) {
+				destTarget.setSelected(false, destTarget.shadow != null ? destTarget.shadow : dragPiece.shadow);
+			}
+			destTarget = target;
+			if (destTarget != null) {
+				destTarget.setSelected(true, destTarget.shadow != null ? destTarget.shadow : dragPiece.shadow);
+			}
+		}
+		governor.onMove();
+		OMSVGPoint p = point.substract(d).substract(dragOrigin);
+		if (dragCluster != null) {
+			renderer.setGroupOffset(p.getX(), p.getY());
+		} else {
+			dragPiece.setPosition(dragOrigin.getX() + p.getX(), dragOrigin.getY() + p.getY());
+		}
+		if (moveListener != null) {
+			moveListener.onDrag(dragPiece.index, p.getX(), p.getY());
+		}
+	}
+
+	/**
+	 * Drops the pieces picked up at the specified point (in board
+	 * coordinates). Outside a valid target and without free placement,
+	 * the pieces stay picked up and the next drop returns them to
+	 * their source target.
+	 * @return true if the drop completes the puzzle
+	 */
+	boolean drop(OMSVGPoint point) {
+		if (destTarget == null && !freePlacement) {
+			destTarget = srcTarget;
+			return false;
+		}
+		Piece[] pieces = dragCluster != null ? dragCluster : new Piece[] { dragPiece };
+		if (destTarget != null) {
+			destTarget.setSelected(false, destTarget.shadow != null ? destTarget.shadow : dragPiece.shadow);
+			if (dragCluster != null) {
+				OMSVGPoint p = point.substract(d).substract(dragOrigin);
+				dropCluster(destTarget, p.getX(), p.getY());
+			} else {
+				dropPiece(destTarget);
+			}
+		} else {
+			OMSVGPoint p = point.substract(d);
+			dropLoose(p.getX(), p.getY());
+		}
+		if (moveListener != null) {
+			moveListener.onDrop(getIndexes(pieces));
+		}
+		destTarget = null;
+		dragPiece = null;
+		dragging = false;
+		governor.stop();
+		coalesce();
+		cull();
+		return isGameOver();
+	}
+
+	private static int[] getIndexes(Piece[] pieces) {
+		int[] indexes = new int[pieces.length];
+		for (int i = 0; i < pieces.length; i++) {
+			indexes[i] = pieces[i].index;
+		}
+		return indexes;
+	}
+
+	void setMoveListener(MoveListener moveListener) {
+		this.moveListener = moveListener;
+	}
+
+	int getPieceCount() {
+		return pieceList.size();
+	}
+
+	int getColCount() {
+		return colCount;
+	}
+
+	int getRowCount() {
+		return rowCount;
+	}
+
+	Piece getPiece(int index) {
+		return pieceList.get(index);
+	}
+
+	boolean isDragging() {
+		return dragging;
+	}
+
+	int getClusterSize(int index) {
+		return clusters.getSize(index);
+	}
+
+	/**
+	 * Returns the index of the piece in the specified target
+	 * (zone is ZONE_TILE or ZONE_ASSEMBLY), or -1 if it is empty
+	 */
+	int getPieceAt(int zone, int u, int v) {
+		Piece piece = zones[zone].getPiece(u, v);
+		return piece != null ? piece.index : -1;
+	}
+
+	/**
+	 * Returns the center of the specified target, in board
+	 * coordinates (zone is ZONE_TILE or ZONE_ASSEMBLY)
+	 */
+	OMSVGPoint getTargetCenter(int zone, int u, int v) {
+		TargetMatrix matrix = zones[zone];
+		return rootSvg.createSVGPoint(matrix.x + (u + 0.5f) * matrix.w, matrix.y + (v + 0.5f) * matrix.h);
+	}
+
+	/**
+	 * Returns the center of the specified piece, in board
+	 * coordinates
+	 */
+	OMSVGPoint getPieceCenter(int index) {
+		OMSVGPoint p = getPosition(pieceList.get(index));
+		return rootSvg.createSVGPoint(p.getX() + 0.5f * pieceWidth, p.getY() + 0.5f * pieceHeight);
+	}
+
+	/**
+	 * Checks the consistency of the board
+	 * @return a description of the first inconsistency
+	 * found, or null if the board is consistent
+	 */
+	String checkInvariants() {
+		int[] owners = new int[pieceList.size()];
+		for (TargetMatrix zone : zones) {
+			for (int u = 0; u < colCount; u++) {
+				for (int v = 0; v < rowCount; v++) {
+					Target target = zone.getTarget(u, v);
+					Piece piece = target.getPiece();
+					if (piece != null) {
+						if (piece.target != target) {
+							return "Target " + target + " holds piece " + piece.getId() + " located elsewhere";
+						}
+						owners[piece.index]++;
 					}
-				} else {
-					srcTarget.setPosition(srcTarget.getPosition());
 				}
+			}
+		}
+		for (Piece piece : pieceList) {
+			if (piece.target == null) {
+				if (!looseIndex.contains(piece.index) && !isDragged(piece)) {
+					return "Piece " + piece.getId() + " is nowhere";
+				}
+				owners[piece.index]++;
+			} else if (looseIndex.contains(piece.index)) {
+				return "Piece " + piece.getId() + " is both loose and in " + piece.target;
+			}
+			if (owners[piece.index] > 1) {
+				return "Piece " + piece.getId() + " is in " + owners[piece.index] + " locations";
+			}
+			// Walk the cluster of the piece
+			int size = clusters.getSize(piece.index);
+			int count = 0;
+			int member = piece.index;
+			do {
+				if (!clusters.isConnected(member, piece.index)) {
+					return "Cluster of piece " + piece.getId() + " contains unrelated piece " + member;
+				}
+				member = clusters.next(member);
+				count++;
+			} while (member != piece.index && count <= size);
+			if (count != size) {
+				return "Cluster of piece " + piece.getId() + " has " + count + " members instead of " + size;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the location of the specified piece
+	 * @param state
+	 * An array to receive the zone of the piece (one of the
+	 * ZONE_XXX constants) and its coordinates in that zone
+	 * (target coordinates or loose position)
+	 */
+	void getPieceState(int index, float[] state) {
+		Piece piece = pieceList.get(index);
+		if (piece.target != null) {
+			state[0] = piece.target.matrix.zone;
+			state[1] = piece.target.u;
+			state[2] = piece.target.v;
+		} else {
+			state[0] = ZONE_LOOSE;
+			state[1] = looseIndex.getX(index);
+			state[2] = looseIndex.getY(index);
+		}
+	}
+
+	/**
+	 * Moves the specified piece on behalf of a remote player.
+	 * If the destination target is occupied, its piece is moved
+	 * to the former location of the specified piece.
+	 */
+	void setPieceState(int index, int zone, float a, float b) {
+		Piece piece = pieceList.get(index);
+		if (isDragged(piece)) {
+			cancelDrag(new int[] { index });
+		}
+		Target src = piece.target;
+		OMSVGPoint origin = getPosition(piece);
+		if (zone == ZONE_LOOSE) {
+			if (src != null) {
+				src.setPiece(null);
+			}
+			looseIndex.put(index, a, b);
+			piece.moveTo(a, b, SNAP_DURATION);
+			piece.setFullDetail(true);
+		} else {
+			int u = (int)a;
+			int v = (int)b;
+			if (u < 0 || u >= colCount || v < 0 || v >= rowCount) {
+				return;
+			}
+			Target target = zones[zone].getTarget(u, v);
+			Piece occupant = target.getPiece();
+			looseIndex.remove(index);
+			target.setPiece(piece);
+			if (occupant != piece) {
+				if (src != null) {
+					src.setPiece(occupant);
+				} else if (occupant != null) {
+					looseIndex.put(occupant.index, origin.getX(), origin.getY());
+					occupant.moveTo(origin.getX(), origin.getY(), SNAP_DURATION);
+					occupant.setFullDetail(true);
+				}
+			}
+			connectNeighbors(piece);
+		}
+		renderer.raise(index);
+		coalesce();
+		cull();
+	}
+
+	/**
+	 * Marks the specified pieces as owned by a remote player (or
+	 * releases them). Released pieces return to their location,
+	 * cancelling any remote drag preview.
+	 */
+	void setLocked(int[] pieces, boolean locked) {
+		for (int index : pieces) {
+			Piece piece = pieceList.get(index);
+			piece.locked = locked;
+			if (!locked && !isDragged(piece)) {
+				OMSVGPoint p = getPosition(piece);
+				piece.moveTo(p.getX(), p.getY(), SNAP_DURATION);
+			}
+		}
+		coalesce();
+		cull();
+	}
+
+	/**
+	 * Displays the cluster of the specified piece at the specified
+	 * offset from its location, to preview the drag of a remote player
+	 */
+	void setRemoteOffset(int index, float dx, float dy) {
+		int member = index;
+		do {
+			Piece piece = pieceList.get(member);
+			if (!isDragged(piece)) {
+				OMSVGPoint p = getPosition(piece);
+				piece.setPosition(p.getX() + dx, p.getY() + dy);
+			}
+			member = clusters.next(member);
+		} while (member != index);
+	}
+
+	/**
+	 * Cancels the local drag and drop operation if it
+	 * involves any of the specified pieces
+	 */
+	void cancelDrag(int[] pieces) {
+		if (!dragging) {
+			return;
+		}
+		boolean cancel = false;
+		for (int index : pieces) {
+			cancel |= isDragged(pieceList.get(index));
+		}
+		if (cancel) {
+			if (destTarget != null) {
+				destTarget.setSelected(false, destTarget.shadow != null ? destTarget.shadow : dragPiece.shadow);
 				destTarget = null;
-				dragging = false;
+			}
+			if (dragCluster != null) {
+				endClusterDrag();
+				dragCluster = null;
+			} else {
+				dragPiece.moveTo(dragOrigin.getX(), dragOrigin.getY(), SNAP_DURATION);
+				dragPiece.setFullDetail(dragPiece.target == null || dragPiece.target.matrix != tileZone);
+			}
+			dragPiece = null;
+			dragging = false;
+			governor.stop();
+			coalesce();
+			cull();
+		}
+	}
+
+	/**
+	 * Returns true if the specified piece is being dragged
+	 * by the local player
+	 */
+	private boolean isDragged(Piece piece) {
+		if (dragging) {
+			if (dragCluster != null) {
+				return clusters.isConnected(piece.index, dragPiece.index);
+			}
+			return piece == dragPiece;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the current position of the upper left corner
+	 * of the specified piece
+	 */
+	private OMSVGPoint getPosition(Piece piece) {
+		if (piece.target != null) {
+			return piece.target.getPosition();
+		}
+		return rootSvg.createSVGPoint(looseIndex.getX(piece.index), looseIndex.getY(piece.index));
+	}
+
+	/**
+	 * Returns the topmost loose piece at the specified point,
+	 * or null if there is none
+	 */
+	private Piece getLoosePiece(OMSVGPoint p) {
+		Piece piece = null;
+		int count = looseIndex.query(p.getX() - 0.5f * pieceWidth, p.getY() - 0.5f * pieceHeight, 0.5f * Math.max(pieceWidth, pieceHeight), queryResult);
+		for (int i = 0; i < count; i++) {
+			Piece candidate = pieceList.get(queryResult[i]);
+			float x = looseIndex.getX(candidate.index);
+			float y = looseIndex.getY(candidate.index);
+			if (p.getX() >= x && p.getX() <= x + pieceWidth
+			 && p.getY() >= y && p.getY() <= y + pieceHeight
+			 && (piece == null || candidate.stamp > piece.stamp)) {
+				piece = candidate;
+			}
+		}
+		return piece;
+	}
+
+	/**
+	 * Starts moving all the members of the cluster which
+	 * contains the specified piece as a whole
+	 */
+	private void startClusterDrag(Piece piece) {
+		dragCluster = new Piece[clusters.getSize(piece.index)];
+		int index = piece.index;
+		int count = 0;
+		do {
+			dragCluster[count++] = pieceList.get(index);
+			index = clusters.next(index);
+		} while (index != piece.index);
+		renderer.startGroup(getIndexes(dragCluster));
+	}
+
+	/**
+	 * Stops moving the members of the cluster being
+	 * dragged as a whole
+	 */
+	private void endClusterDrag() {
+		renderer.endGroup();
+	}
+
+	/**
+	 * Returns true if the cluster being dragged can be dropped
+	 * so that the dragged piece lands on the specified target.
+	 * A cluster can only be dropped in the assembly zone, on targets
+	 * which are either empty or occupied by the cluster itself.
+	 */
+	private boolean canDropCluster(Target target) {
+		if (target.matrix != assemblyZone) {
+			return false;
+		}
+		int root = clusters.find(dragPiece.index);
+		for (Piece member : dragCluster) {
+			int u = target.u + member.x - dragPiece.x;
+			int v = target.v + member.y - dragPiece.y;
+			if (u < 0 || u >= colCount || v < 0 || v >= rowCount) {
+				return false;
+			}
+			Piece piece = assemblyZone.getPiece(u, v);
+			if (piece != null && clusters.find(piece.index) != root) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the piece being dragged to the specified target
+	 */
+	private void dropPiece(Target target) {
+		Target src = dragPiece.target;
+		target.setPiece(dragPiece);
+		if (src != null && src != target) {
+			src.setPiece(null);
+		}
+		looseIndex.remove(dragPiece.index);
+		connectNeighbors(dragPiece);
+	}
+
+	/**
+	 * Moves the cluster being dragged so that the dragged
+	 * piece lands on the specified target
+	 * @param dx the offset of the cluster from its origin
+	 * @param dy the offset of the cluster from its origin
+	 */
+	private void dropCluster(Target target, float dx, float dy) {
+		Target[] targets = new Target[dragCluster.length];
+		float[] xs = new float[dragCluster.length];
+		float[] ys = new float[dragCluster.length];
+		for (int i = 0; i < dragCluster.length; i++) {
+			Piece member = dragCluster[i];
+			targets[i] = assemblyZone.getTarget(target.u + member.x - dragPiece.x, target.v + member.y - dragPiece.y);
+			OMSVGPoint p = getPosition(member);
+			xs[i] = p.getX() + dx;
+			ys[i] = p.getY() + dy;
+			if (member.target != null) {
+				member.target.setPiece(null);
+			}
+			looseIndex.remove(member.index);
+		}
+		endClusterDrag();
+		for (int i = 0; i < dragCluster.length; i++) {
+			// Snap the members from where they have been dropped
+			dragCluster[i].setPosition(xs[i], ys[i]);
+			targets[i].setPiece(dragCluster[i]);
+		}
+		for (Piece member : dragCluster) {
+			connectNeighbors(member);
+		}
+		dragCluster = null;
+	}
+
+	/**
+	 * Drops the piece or cluster being dragged outside any target
+	 * (free placement mode only). The dropped pieces snap to their
+	 * assembly position or to a loose neighbor if one is close enough.
+	 */
+	private void dropLoose(float x, float y) {
+		Piece[] members = dragCluster != null ? dragCluster : new Piece[] { dragPiece };
+		float dx = x - dragOrigin.getX();
+		float dy = y - dragOrigin.getY();
+		dropCount++;
+		for (Piece member : members) {
+			OMSVGPoint p = getPosition(member);
+			if (member.target != null) {
+				member.target.setPiece(null);
+			}
+			member.stamp = dropCount;
+			looseIndex.put(member.index, p.getX() + dx, p.getY() + dy);
+		}
+		if (dragCluster != null) {
+			endClusterDrag();
+			dragCluster = null;
+			// Snap the members from where they have been dropped
+			for (Piece member : members) {
+				member.setPosition(looseIndex.getX(member.index), looseIndex.getY(member.index));
+			}
+		}
+		if (!snapToAssembly(members)) {
+			snapToNeighbors(members);
+		}
+		for (Piece member : members) {
+			if (member.target == null) {
+				member.moveTo(looseIndex.getX(member.index), looseIndex.getY(member.index), SNAP_DURATION);
+			}
+		}
+	}
+
+	/**
+	 * Moves the specified loose pieces to the assembly zone if they
+	 * are close enough to their correct position there
+	 * @return true if the pieces have been moved
+	 */
+	private boolean snapToAssembly(Piece[] members) {
+		Piece piece = members[0];
+		OMSVGPoint p = assemblyZone.getTarget(piece.x, piece.y).getPosition();
+		if (Math.abs(looseIndex.getX(piece.index) - p.getX()) > SNAP_PCT * pieceWidth
+		 || Math.abs(looseIndex.getY(piece.index) - p.getY()) > SNAP_PCT * pieceHeight) {
+			return false;
+		}
+		for (Piece member : members) {
+			if (assemblyZone.getPiece(member.x, member.y) != null) {
+				return false;
+			}
+		}
+		for (Piece member : members) {
+			looseIndex.remove(member.index);
+			assemblyZone.setPiece(member, member.x, member.y);
+		}
+		for (Piece member : members) {
+			connectNeighbors(member);
+		}
+		return true;
+	}
+
+	/**
+	 * Aligns the specified loose pieces on the first loose neighbor
+	 * found close enough to its correct relative position, and merges
+	 * the pieces with the neighbors they connect to
+	 */
+	private void snapToNeighbors(Piece[] members) {
+		int root = clusters.find(members[0].index);
+		float radius = (1 + SNAP_PCT) * Math.max(pieceWidth, pieceHeight);
+		for (Piece member : members) {
+			float x = looseIndex.getX(member.index);
+			float y = looseIndex.getY(member.index);
+			int count = looseIndex.query(x, y, radius, queryResult);
+			for (int i = 0; i < count; i++) {
+				Piece neighbor = pieceList.get(queryResult[i]);
+				if (clusters.find(neighbor.index) != root && isAligned(member, neighbor, SNAP_PCT)) {
+					float dx = looseIndex.getX(neighbor.index) - (neighbor.x - member.x) * pieceWidth - x;
+					float dy = looseIndex.getY(neighbor.index) - (neighbor.y - member.y) * pieceHeight - y;
+					for (Piece m : members) {
+						looseIndex.put(m.index, looseIndex.getX(m.index) + dx, looseIndex.getY(m.index) + dy);
+					}
+					for (Piece m : members) {
+						connectLooseNeighbors(m);
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merges the cluster of the specified loose piece with the
+	 * clusters of the loose neighbors aligned with it
+	 */
+	private void connectLooseNeighbors(Piece piece) {
+		int count = looseIndex.query(looseIndex.getX(piece.index), looseIndex.getY(piece.index), (1 + ALIGN_PCT) * Math.max(pieceWidth, pieceHeight), queryResult);
+		for (int i = 0; i < count; i++) {
+			Piece neighbor = pieceList.get(queryResult[i]);
+			if (isAligned(piece, neighbor, ALIGN_PCT)) {
+				clusters.union(piece.index, neighbor.index);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the specified loose pieces are neighbors in the
+	 * assembled puzzle and lie at their correct relative position, within
+	 * the specified tolerance (as a percentage of the piece size)
+	 */
+	private boolean isAligned(Piece piece, Piece neighbor, float tolerance) {
+		int du = neighbor.x - piece.x;
+		int dv = neighbor.y - piece.y;
+		if (Math.abs(du) + Math.abs(dv) != 1) {
+			return false;
+		}
+		return Math.abs(looseIndex.getX(neighbor.index) - looseIndex.getX(piece.index) - du * pieceWidth) <= tolerance * pieceWidth
+			&& Math.abs(looseIndex.getY(neighbor.index) - looseIndex.getY(piece.index) - dv * pieceHeight) <= tolerance * pieceHeight;
+	}
+
+	/**
+	 * Merges the cluster of the specified piece with the clusters
+	 * of its neighbors, if they are correctly connected to it
+	 * in the assembly zone
+	 */
+	private void connectNeighbors(Piece piece) {
+		Target target = piece.target;
+		if (target != null && target.matrix == assemblyZone) {
+			connect(piece, piece.north, target.u, target.v - 1);
+			connect(piece, piece.south, target.u, target.v + 1);
+			connect(piece, piece.east, target.u + 1, target.v);
+			connect(piece, piece.west, target.u - 1, target.v);
+		}
+	}
+
+	private void connect(Piece piece, Connector connector, int u, int v) {
+		if (connector != null && u >= 0 && u < colCount && v >= 0 && v < rowCount) {
+			Piece neighbor = assemblyZone.getPiece(u, v);
+			if (neighbor != null && neighbor == connector.getOpposite(piece)) {
+				clusters.union(piece.index, neighbor.index);
 			}
 		}
-		event.preventDefault();
-		event.stopPropagation();
 	}
 
 	public boolean isGameOver() {
@@ -858,10 +2292,11 @@ public class Puzzle implements MouseDownHandler, MouseMoveHandler, MouseUpHandle
 	}
 	
 	public Target getTarget(MouseEvent<? extends EventHandler> e) {
-		Target target = tileZone.getTarget(e);
-		if (target == null) {
-			target = assemblyZone.getTarget(e);
-		}
-		return target;
+		return getTarget(getCoordinates(e));
+	}
+
+	private Target getTarget(OMSVGPoint p) {
+		int zone = zoneIndex.find(p.getX(), p.getY(), zoneCell);
+		return zone != ZoneIndex.NONE ? zones[zone].getTarget(zoneCell[0], zoneCell[1]) : null;
 	}
 }
@@ -25,6 +25,10 @@ public interface PuzzleBundle extends ClientBundle {
 	static PuzzleBundle INSTANCE = GWT.create(PuzzleBundle.class);
 	@Source("puzzle.css")
 	public PuzzleCss getCss();
-	@Source("levels.txt")
-	public TextResource levels();
+	/**
+	 * The level catalog, generated at build time from
+	 * levels.txt by LevelCatalogBuilder
+	 */
+	@Source("levels.catalog")
+	public TextResource catalog();
 }
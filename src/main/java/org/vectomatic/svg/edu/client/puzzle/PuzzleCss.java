@@ -46,5 +46,11 @@ public interface PuzzleCss extends CssResource {
 	public String tileShadowSelected();
 	@ClassName("root-svg")
 	String rootSvg();
+	@ClassName("piece-canvas")
+	String pieceCanvas();
+	@ClassName("no-borders")
+	String noBorders();
+	@ClassName("simple-shadows")
+	String simpleShadows();
 
 }
\ No newline at end of file
@@ -30,6 +30,10 @@ import org.vectomatic.svg.edu.client.commons.Utils;
 
 import com.google.gwt.core.client.EntryPoint;
 import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.RunAsyncCallback;
+import com.google.gwt.core.client.prefetch.Prefetcher;
+import com.google.gwt.core.client.prefetch.RunAsyncCode;
+import com.google.gwt.dom.client.Element;
 import com.google.gwt.dom.client.StyleInjector;
 import com.google.gwt.event.dom.client.ClickEvent;
 import com.google.gwt.event.logical.shared.ResizeEvent;
@@ -38,7 +42,6 @@ import com.google.gwt.event.logical.shared.ValueChangeEvent;
 import com.google.gwt.uibinder.client.UiBinder;
 import com.google.gwt.uibinder.client.UiField;
 import com.google.gwt.uibinder.client.UiHandler;
-import com.google.gwt.user.client.Element;
 import com.google.gwt.user.client.Window;
 import com.google.gwt.user.client.ui.FlowPanel;
 import com.google.gwt.user.client.ui.HTML;
@@ -50,6 +53,17 @@ import com.google.gwt.user.client.ui.Widget;
  */
 public class PuzzleMain implements EntryPoint {
 	private static final String DIR = "puzzle";
+	/**
+	 * Render budgets of the devices (the maximum cost of a board,
+	 * see {@link LevelCatalog}). The grid selected by the difficulty
+	 * picker is reduced until the board fits the budget.
+	 */
+	private static final int HIGH_RENDER_BUDGET = 96000;
+	private static final int LOW_RENDER_BUDGET = 24000;
+	/**
+	 * Maximum size of the persistent level store, in characters
+	 */
+	private static final int LEVEL_STORE_SIZE = 4 * 1024 * 1024;
 	interface PuzzleMainBinder extends UiBinder<FlowPanel, PuzzleMain> {
 	}
 	private static PuzzleMainBinder mainBinder = GWT.create(PuzzleMainBinder.class);
@@ -69,8 +83,15 @@ public class PuzzleMain implements EntryPoint {
 	@UiField
 	FlowPanel navigationPanel;
 	Widget menuWidget;
-	private String[] levels;
+	/**
+	 * The game levels and their complexity
+	 */
+	private LevelCatalog catalog;
 	private int level;
+	/**
+	 * The render budget of this device
+	 */
+	private int renderBudget;
 	/**
 	 * To load game levels
 	 */
@@ -80,7 +101,26 @@ public class PuzzleMain implements EntryPoint {
 	 */
 	private OMSVGSVGElement srcSvg;
 	OMSVGSVGElement puzzleSvg;
+	/**
+	 * The element displayed over the puzzle SVG (if any)
+	 */
+	Element puzzleOverlay;
 	private Puzzle puzzle;
+	/**
+	 * The synchronization with the other players in
+	 * cooperative mode (null in single player mode)
+	 */
+	private CoopSync sync;
+	/**
+	 * The paint benchmark in progress (benchmark=paint
+	 * in the URL query)
+	 */
+	private PaintBenchmark benchmark;
+	/**
+	 * The construction benchmark in progress
+	 * (benchmark=construction in the URL query)
+	 */
+	private ConstructionBenchmark constructionBenchmark;
 	int[][] dimensions = {{3, 3}, {4, 4}, {5, 5}, {7, 5}, {8, 6}};
 	
 	/**
@@ -109,8 +149,9 @@ public class PuzzleMain implements EntryPoint {
 		StyleInjector.inject(style.getText(), true);
 		
 		// Load the game levels
-		levels = resources.levels().getText().split("\\s");
-		loader = GWT.create(AsyncXmlLoader.class);
+		catalog = new LevelCatalog(resources.catalog().getText());
+		renderBudget = isLowEndDevice() ? LOW_RENDER_BUDGET : HIGH_RENDER_BUDGET;
+		loader = createLoader();
 		
 		// Initialize the UI with UiBinder
 		FlowPanel panel = mainBinder.createAndBindUi(this);
@@ -124,7 +165,7 @@ public class PuzzleMain implements EntryPoint {
 		if (levelParam != null) {
 			try {
 				int value = Integer.parseInt(levelParam);
-				if (value >= 0 && value < levels.length) {
+				if (value >= 0 && value < catalog.getLevelCount()) {
 					level = value;
 				}
 			} catch(NumberFormatException e) {
@@ -132,6 +173,15 @@ public class PuzzleMain implements EntryPoint {
 			}
 		}
 		RootPanel.get(CommonConstants.ID_UIROOT).add(panel);
+		// Run the soak test instead of the game if requested
+		// in the URL query
+		String soakParam = Window.Location.getParameter("soak");
+		if (soakParam != null) {
+			startSoak(soakParam);
+			return;
+		}
+		// Fetch the game engine while the first level loads
+		Prefetcher.prefetch(RunAsyncCode.runAsyncCode(Puzzle.class));
 		readPuzzleDef();
 		Window.addResizeHandler(new ResizeHandler() {
 			
@@ -140,7 +190,7 @@ public class PuzzleMain implements EntryPoint {
 				int windowWidth = Window.getClientWidth();
 				int windowHeight = Window.getClientHeight();
 				boolean landscape = windowWidth >= windowHeight;
-				if (landscape != puzzle.isLandscape()) {
+				if (puzzle != null && landscape != puzzle.isLandscape()) {
 					puzzle.doLayout();
 				}
 			}
@@ -151,14 +201,14 @@ public class PuzzleMain implements EntryPoint {
 	public void prevButton(ClickEvent event) {
 		level--;
 		if (level < 0) {
-			level = levels.length - 1;
+			level = catalog.getLevelCount() - 1;
 		}
 		readPuzzleDef();
 	}
 	@UiHandler("nextButton")
 	public void nextButton(ClickEvent event) {
 		level++;
-		if (level >= levels.length) {
+		if (level >= catalog.getLevelCount()) {
 			level = 0;
 		}
 		readPuzzleDef();
@@ -169,10 +219,81 @@ public class PuzzleMain implements EntryPoint {
 		generate();
 	}
 	
+	/**
+	 * Creates a new puzzle from the current level. The game engine
+	 * is loaded in a separate code fragment, so that the shell can be
+	 * displayed and the level fetched without waiting for it.
+	 */
 	private void generate() {
-		int[] dimension = dimensions[difficultyPicker.getDifficulty()];
-		puzzle = new Puzzle(srcSvg, dimension[0], dimension[1]);
+		GWT.runAsync(Puzzle.class, new RunAsyncCallback() {
+			@Override
+			public void onFailure(Throwable reason) {
+				GWT.log("Cannot load the game engine", reason);
+				svgContainer.setHTML("Cannot load the game");
+			}
+
+			@Override
+			public void onSuccess() {
+				createPuzzle();
+			}
+		});
+	}
+
+	private void createPuzzle() {
+		int[] dimension = getDimension(difficultyPicker.getDifficulty());
+		if (benchmark != null) {
+			benchmark.stop();
+			benchmark = null;
+		}
+		if (constructionBenchmark != null) {
+			constructionBenchmark.stop();
+			constructionBenchmark = null;
+		}
+		if ("paint".equals(Window.Location.getParameter("benchmark"))) {
+			// Compare the piece structures instead of playing
+			svgContainer.setHTML("");
+			puzzleSvg = null;
+			puzzleOverlay = null;
+			benchmark = new PaintBenchmark(srcSvg, dimension[0], dimension[1], svgContainer.getElement());
+			benchmark.start();
+			return;
+		}
+		if ("construction".equals(Window.Location.getParameter("benchmark"))) {
+			// Compare the construction modes instead of playing
+			svgContainer.setHTML("");
+			puzzleSvg = null;
+			puzzleOverlay = null;
+			constructionBenchmark = new ConstructionBenchmark(srcSvg, dimension[0], dimension[1], svgContainer.getElement());
+			constructionBenchmark.start();
+			return;
+		}
+		if (puzzle != null) {
+			puzzle.dispose();
+		}
+		if (sync != null) {
+			sync.stop();
+			sync = null;
+		}
+		// Join a cooperative session if one is specified in the URL query.
+		// Each level and difficulty has its own session. The players of
+		// a session derive the seed from its name, so that they all
+		// build the same pieces.
+		String coopParam = Window.Location.getParameter("coop");
+		String session = null;
+		int seed;
+		if (coopParam != null && coopParam.length() > 0) {
+			session = coopParam + "-" + level + "-" + dimension[0] + "x" + dimension[1];
+		}
+		if (session != null && Window.Location.getParameter("seed") == null) {
+			seed = session.hashCode();
+		} else {
+			seed = Puzzle.getDefaultSeed();
+		}
+		puzzle = new Puzzle(srcSvg, catalog.getName(level), dimension[0], dimension[1], seed);
 		puzzle.shuffle();
+		if (session != null) {
+			startCoop(puzzle, session);
+		}
 		OMSVGSVGElement rootSvg = puzzle.getSvgElement();
 		rootSvg.addClassNameBaseVal(style.rootSvg());
 
@@ -184,14 +305,128 @@ public class PuzzleMain implements EntryPoint {
 			div.appendChild(rootSvg.getElement());					
 		}
 		puzzleSvg = rootSvg;
+		
+		// Add the piece overlay over the SVG, if any
+		if (puzzleOverlay != null) {
+			div.removeChild(puzzleOverlay);
+		}
+		puzzleOverlay = puzzle.getOverlayElement();
+		if (puzzleOverlay != null) {
+			div.appendChild(puzzleOverlay);
+		}
 	}
 	
-	private String getLevelUrl() {
-		return GWT.getModuleBaseURL() + DIR + "/" + levels[level];
+	/**
+	 * Returns the grid for the specified difficulty, reduced
+	 * if needed so that the current level fits the render
+	 * budget of the device
+	 */
+	private int[] getDimension(int difficulty) {
+		int maxPieces = catalog.getMaxPieces(level, renderBudget);
+		int index = difficulty;
+		while (index > 0 && dimensions[index][0] * dimensions[index][1] > maxPieces) {
+			index--;
+		}
+		if (index != difficulty) {
+			GWT.log("Level " + catalog.getName(level) + " (cost " + catalog.getCost(level) + ") capped to " + dimensions[index][0] + "x" + dimensions[index][1]);
+		}
+		return dimensions[index];
+	}
+
+	/**
+	 * Returns true if the device is a phone or a low end
+	 * device (small screen or few cores)
+	 */
+	private static native boolean isLowEndDevice() /*-{
+		var screen = $wnd.screen;
+		if (screen && Math.min(screen.width, screen.height) < 600) {
+			return true;
+		}
+		var cores = $wnd.navigator.hardwareConcurrency;
+		return cores != null && cores <= 2;
+	}-*/;
+
+	/**
+	 * Joins a cooperative session. The cooperative mode is rarely
+	 * used and is loaded in its own code fragment.
+	 */
+	private void startCoop(final Puzzle coopPuzzle, final String session) {
+		GWT.runAsync(CoopSync.class, new RunAsyncCallback() {
+			@Override
+			public void onFailure(Throwable reason) {
+				GWT.log("Cannot load the cooperative mode", reason);
+			}
+
+			@Override
+			public void onSuccess() {
+				// Ignore the session if the player has moved
+				// to another puzzle in the meantime
+				if (puzzle == coopPuzzle && sync == null) {
+					sync = new CoopSync(coopPuzzle, GWT.getHostPageBaseURL() + "coop", session);
+					sync.start();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Plays all the levels with the auto-solver
+	 * @param strategy the solver strategy (random or greedy)
+	 */
+	private void startSoak(final String strategy) {
+		GWT.runAsync(SoakDriver.class, new RunAsyncCallback() {
+			@Override
+			public void onFailure(Throwable reason) {
+				GWT.log("Cannot load the soak test", reason);
+			}
+
+			@Override
+			public void onSuccess() {
+				AutoSolver.Strategy solverStrategy = AutoSolver.Strategy.GREEDY;
+				try {
+					solverStrategy = AutoSolver.Strategy.valueOf(AutoSolver.Strategy.class, strategy.toUpperCase());
+				} catch(Throwable e) {
+					GWT.log("Cannot parse soak=" + strategy, e);
+				}
+				int games = 3;
+				String gamesParam = Window.Location.getParameter("games");
+				if (gamesParam != null) {
+					try {
+						games = Integer.parseInt(gamesParam);
+					} catch(NumberFormatException e) {
+						GWT.log("Cannot parse games=" + gamesParam, e);
+					}
+				}
+				new SoakDriver(catalog, loader, GWT.getModuleBaseURL() + DIR + "/", dimensions, svgContainer.getElement(), solverStrategy, games).start();
+			}
+		});
+	}
+
+	private String getLevelUrl(int level) {
+		return GWT.getModuleBaseURL() + DIR + "/" + catalog.getName(level);
+	}
+
+	/**
+	 * Creates the level loader. Levels are kept in a persistent
+	 * store if the browser supports it, unless levelcache=off
+	 * is specified in the URL query.
+	 */
+	private AsyncXmlLoader createLoader() {
+		if (!LevelStore.isSupported() || "off".equals(Window.Location.getParameter("levelcache"))) {
+			return GWT.create(AsyncXmlLoader.class);
+		}
+		CachingXmlLoader cachingLoader = new CachingXmlLoader(new LevelStore(LEVEL_STORE_SIZE));
+		for (int i = 0; i < catalog.getLevelCount(); i++) {
+			String hash = catalog.getHash(i);
+			if (hash != null) {
+				cachingLoader.setVersion(getLevelUrl(i), hash);
+			}
+		}
+		return cachingLoader;
 	}
 
 	public void readPuzzleDef() {
-		String url = getLevelUrl();
+		String url = getLevelUrl(level);
 		loader.loadResource(url, new AsyncXmlLoaderCallback() {
 			@Override
 			public void onError(String resourceName, Throwable error) {
@@ -0,0 +1,232 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import java.util.Arrays;
+
+import com.google.gwt.animation.client.AnimationScheduler;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationCallback;
+import com.google.gwt.core.client.Duration;
+
+/**
+ * Adapts the rendering quality of the puzzle to the device.
+ * During drags, the governor samples the time between two
+ * animation frames which follow a move of the pointer. When the
+ * median frame time of a window of samples exceeds the budget,
+ * it steps down one quality tier; when several consecutive
+ * windows leave enough headroom, it steps back up. The number
+ * of windows needed to step up doubles each time a step up is
+ * followed by a step down, so that the quality does not
+ * oscillate between two tiers.
+ */
+class QualityGovernor implements AnimationCallback {
+	/**
+	 * Receiver of the tier changes
+	 */
+	interface Listener {
+		void onTierChange(int tier);
+	}
+
+	/**
+	 * The quality tiers, from the best to the cheapest. Each
+	 * tier includes the simplifications of the previous ones.
+	 */
+	static final int TIER_FULL = 0;
+	/**
+	 * The piece borders are not stroked
+	 */
+	static final int TIER_NO_BORDERS = 1;
+	/**
+	 * The shadows are drawn without dashes
+	 */
+	static final int TIER_SIMPLE_SHADOWS = 2;
+	/**
+	 * The pieces have square connectors
+	 */
+	static final int TIER_SQUARE_CONNECTORS = 3;
+	/**
+	 * Frame time budget, in milliseconds (30 fps)
+	 */
+	private static final double BUDGET = 1000.0 / 30;
+	/**
+	 * Fraction of the budget under which the frames
+	 * leave enough headroom to step up
+	 */
+	private static final double HEADROOM = 0.6;
+	/**
+	 * Number of samples of a window
+	 */
+	private static final int WINDOW = 30;
+	/**
+	 * Number of windows with headroom needed to step up,
+	 * and its upper bound
+	 */
+	private static final int UP_WINDOWS = 4;
+	private static final int MAX_UP_WINDOWS = 64;
+	/**
+	 * Frame times above this value (tab switch, dialog box)
+	 * are ignored
+	 */
+	private static final double MAX_SAMPLE = 250;
+
+	private Listener listener;
+	private int tier;
+	private int maxTier;
+	/**
+	 * False if the tier has been set explicitly
+	 */
+	private boolean automatic = true;
+	private double[] samples = new double[WINDOW];
+	private int sampleCount;
+	private int upWindows = UP_WINDOWS;
+	private int headroomCount;
+	/**
+	 * True if the last tier change was a step up
+	 */
+	private boolean steppedUp;
+	private double lastFrame;
+	private boolean moved;
+	private boolean running;
+	private boolean frameRequested;
+
+	/**
+	 * Constructor
+	 * @param maxTier the cheapest tier supported by the renderer
+	 */
+	QualityGovernor(int maxTier, Listener listener) {
+		this.maxTier = maxTier;
+		this.listener = listener;
+	}
+
+	public int getTier() {
+		return tier;
+	}
+
+	/**
+	 * Changes the cheapest tier supported by the renderer. A
+	 * cheaper current tier is stepped up to it.
+	 */
+	public void setMaxTier(int maxTier) {
+		this.maxTier = maxTier;
+		if (tier > maxTier) {
+			changeTier(maxTier);
+		}
+	}
+
+	/**
+	 * Sets the tier explicitly, which stops the adaptation
+	 */
+	public void setTier(int tier) {
+		automatic = false;
+		changeTier(Math.max(TIER_FULL, Math.min(maxTier, tier)));
+	}
+
+	/**
+	 * Resumes the adaptation after the tier has been set explicitly
+	 */
+	public void setAutomatic() {
+		automatic = true;
+	}
+
+	public boolean isAutomatic() {
+		return automatic;
+	}
+
+	/**
+	 * Starts sampling the frame times (at the beginning of a drag)
+	 */
+	public void start() {
+		if (!automatic || running) {
+			return;
+		}
+		running = true;
+		moved = false;
+		lastFrame = 0;
+		if (!frameRequested) {
+			frameRequested = true;
+			AnimationScheduler.get().requestAnimationFrame(this);
+		}
+	}
+
+	/**
+	 * Notifies the governor that the pointer has moved, so
+	 * that the next frame is sampled
+	 */
+	public void onMove() {
+		moved = true;
+	}
+
+	/**
+	 * Stops sampling the frame times (at the end of a drag). The
+	 * samples of an incomplete window are kept for the next drag.
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	@Override
+	public void execute(double timestamp) {
+		frameRequested = false;
+		if (!running) {
+			return;
+		}
+		double now = Duration.currentTimeMillis();
+		if (moved && lastFrame > 0 && now - lastFrame < MAX_SAMPLE) {
+			addSample(now - lastFrame);
+		}
+		moved = false;
+		lastFrame = now;
+		frameRequested = true;
+		AnimationScheduler.get().requestAnimationFrame(this);
+	}
+
+	private void addSample(double frameTime) {
+		samples[sampleCount++] = frameTime;
+		if (sampleCount < WINDOW) {
+			return;
+		}
+		sampleCount = 0;
+		Arrays.sort(samples);
+		double median = samples[WINDOW / 2];
+		if (median > BUDGET) {
+			headroomCount = 0;
+			if (tier < maxTier) {
+				if (steppedUp) {
+					upWindows = Math.min(MAX_UP_WINDOWS, 2 * upWindows);
+				}
+				steppedUp = false;
+				changeTier(tier + 1);
+			}
+		} else if (median < HEADROOM * BUDGET) {
+			if (tier > TIER_FULL && ++headroomCount >= upWindows) {
+				headroomCount = 0;
+				steppedUp = true;
+				changeTier(tier - 1);
+			}
+		} else {
+			headroomCount = 0;
+		}
+	}
+
+	private void changeTier(int tier) {
+		if (this.tier != tier) {
+			this.tier = tier;
+			listener.onTierChange(tier);
+		}
+	}
+}
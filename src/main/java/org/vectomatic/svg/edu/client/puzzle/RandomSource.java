@@ -0,0 +1,42 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+/**
+ * Source of the random choices made when a puzzle is
+ * generated, shuffled or played by the {@link AutoSolver}.
+ * {@link SeededRandom} is the reproducible implementation.
+ */
+public interface RandomSource {
+	/**
+	 * Returns a random value over the whole int range
+	 */
+	int nextInt();
+
+	/**
+	 * Returns a random value in [0, bound[
+	 */
+	int nextInt(int bound);
+
+	/**
+	 * Returns a random value in [0, 1[
+	 */
+	float nextFloat();
+
+	boolean nextBoolean();
+}
@@ -0,0 +1,219 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import org.vectomatic.dom.svg.OMSVGRectElement;
+import org.vectomatic.dom.svg.OMSVGUseElement;
+import org.vectomatic.dom.svg.utils.SVGConstants;
+
+/**
+ * Retained copy of the attributes last written to an SVG
+ * element. Writes which would not change the value of an
+ * attribute are skipped, so that drag and drop operations
+ * and relayouts only touch the DOM where something has
+ * actually changed. Written and skipped writes are counted
+ * globally.
+ */
+abstract class RetainedElement {
+	/**
+	 * Attribute indexes
+	 */
+	static final int X = 0;
+	static final int Y = 1;
+	static final int WIDTH = 2;
+	static final int HEIGHT = 3;
+	static final int RX = 4;
+	static final int RY = 5;
+	private static int writeCount;
+	private static int skipCount;
+	/**
+	 * The last values written (NaN if never written)
+	 */
+	private float[] values;
+	private String className;
+	private String href;
+	private boolean displayed = true;
+
+	RetainedElement(int attributeCount) {
+		values = new float[attributeCount];
+		for (int i = 0; i < attributeCount; i++) {
+			values[i] = Float.NaN;
+		}
+	}
+
+	/**
+	 * Records the new value of an attribute
+	 * @return true if the value must be written to the DOM
+	 */
+	protected boolean update(int attribute, float value) {
+		if (values[attribute] == value) {
+			skipCount++;
+			return false;
+		}
+		values[attribute] = value;
+		writeCount++;
+		return true;
+	}
+
+	protected boolean updateClassName(String className) {
+		if (className.equals(this.className)) {
+			skipCount++;
+			return false;
+		}
+		this.className = className;
+		writeCount++;
+		return true;
+	}
+
+	protected boolean updateHref(String href) {
+		if (href.equals(this.href)) {
+			skipCount++;
+			return false;
+		}
+		this.href = href;
+		writeCount++;
+		return true;
+	}
+
+	protected boolean updateDisplayed(boolean displayed) {
+		if (displayed == this.displayed) {
+			skipCount++;
+			return false;
+		}
+		this.displayed = displayed;
+		writeCount++;
+		return true;
+	}
+
+	/**
+	 * Returns the last value written to an attribute
+	 * (NaN if never written)
+	 */
+	float get(int attribute) {
+		return values[attribute];
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	/**
+	 * Records the class name and reference of an element
+	 * created from markup, whose attributes are already written
+	 */
+	void setRetained(String className, String href) {
+		this.className = className;
+		this.href = href;
+	}
+
+	/**
+	 * Returns the number of attribute writes performed so far
+	 */
+	static int getWriteCount() {
+		return writeCount;
+	}
+
+	/**
+	 * Returns the number of redundant attribute writes skipped so far
+	 */
+	static int getSkipCount() {
+		return skipCount;
+	}
+
+	/**
+	 * Retained &lt;use&gt; element
+	 */
+	static class Use extends RetainedElement {
+		private OMSVGUseElement element;
+		Use(OMSVGUseElement element) {
+			super(2);
+			this.element = element;
+		}
+		public OMSVGUseElement getElement() {
+			return element;
+		}
+		void setPosition(float x, float y) {
+			if (update(X, x)) {
+				element.getX().getBaseVal().setValue(x);
+			}
+			if (update(Y, y)) {
+				element.getY().getBaseVal().setValue(y);
+			}
+		}
+		void setClassName(String className) {
+			if (updateClassName(className)) {
+				element.setClassNameBaseVal(className);
+			}
+		}
+		void setHref(String href) {
+			if (updateHref(href)) {
+				element.getHref().setBaseVal(href);
+			}
+		}
+		void setDisplayed(boolean displayed) {
+			if (updateDisplayed(displayed)) {
+				if (displayed) {
+					element.getStyle().clearSVGProperty(SVGConstants.CSS_DISPLAY_PROPERTY);
+				} else {
+					element.getStyle().setSVGProperty(SVGConstants.CSS_DISPLAY_PROPERTY, SVGConstants.CSS_NONE_VALUE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Retained &lt;rect&gt; element
+	 */
+	static class Rect extends RetainedElement {
+		private OMSVGRectElement element;
+		Rect(OMSVGRectElement element) {
+			super(6);
+			this.element = element;
+		}
+		public OMSVGRectElement getElement() {
+			return element;
+		}
+		void setBounds(float x, float y, float width, float height) {
+			if (update(X, x)) {
+				element.getX().getBaseVal().setValue(x);
+			}
+			if (update(Y, y)) {
+				element.getY().getBaseVal().setValue(y);
+			}
+			if (update(WIDTH, width)) {
+				element.getWidth().getBaseVal().setValue(width);
+			}
+			if (update(HEIGHT, height)) {
+				element.getHeight().getBaseVal().setValue(height);
+			}
+		}
+		void setRadius(float rx, float ry) {
+			if (update(RX, rx)) {
+				element.getRx().getBaseVal().setValue(rx);
+			}
+			if (update(RY, ry)) {
+				element.getRy().getBaseVal().setValue(ry);
+			}
+		}
+		void setClassName(String className) {
+			if (updateClassName(className)) {
+				element.setClassNameBaseVal(className);
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+/**
+ * Seedable pseudo-random generator (xorshift), used for all
+ * the random choices made when a puzzle is generated, so that
+ * a board can be reproduced from its seed. The sequence only
+ * depends on the seed, not on the browser (the print sheet
+ * exporter reproduces the boards of the game with it).
+ * <p>The seed is scrambled before the first step, so that
+ * consecutive seeds give unrelated sequences.</p>
+ */
+public class SeededRandom implements RandomSource {
+	/**
+	 * Golden ratio increment added to the seed, so that
+	 * seed 0 does not give the forbidden state 0
+	 */
+	private static final int GOLDEN_GAMMA = 0x9e3779b9;
+	/**
+	 * State of the generator (never 0)
+	 */
+	private int state;
+
+	public SeededRandom(int seed) {
+		state = mix(seed + GOLDEN_GAMMA);
+		if (state == 0) {
+			// The only seed whose scrambled value is 0
+			state = GOLDEN_GAMMA;
+		}
+	}
+
+	/**
+	 * Scrambles a value (finalizer of the murmur3 hash). This is
+	 * a bijection, so distinct seeds give distinct states.
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h = multiply(h, 0x85ebca6b);
+		h ^= h >>> 13;
+		h = multiply(h, 0xc2b2ae35);
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * Returns the low 32 bits of a product. The operands are split
+	 * in 16 bit halves, since compiled JavaScript computes int
+	 * products as doubles, which lose the low bits above 2^53.
+	 */
+	private static int multiply(int a, int b) {
+		int al = a & 0xffff;
+		int ah = a >>> 16;
+		int bl = b & 0xffff;
+		int bh = b >>> 16;
+		return al * bl + ((ah * bl + al * bh) << 16);
+	}
+
+	@Override
+	public int nextInt() {
+		state ^= state << 13;
+		state ^= state >>> 17;
+		state ^= state << 5;
+		return state;
+	}
+
+	/**
+	 * Returns a random value in [0, bound[. The bias
+	 * is negligible for the bounds used by the puzzle.
+	 */
+	@Override
+	public int nextInt(int bound) {
+		return (nextInt() >>> 1) % bound;
+	}
+
+	@Override
+	public float nextFloat() {
+		return (nextInt() >>> 8) / (float)(1 << 24);
+	}
+
+	@Override
+	public boolean nextBoolean() {
+		return nextInt() < 0;
+	}
+}
@@ -0,0 +1,264 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.vectomatic.dom.svg.OMElement;
+import org.vectomatic.dom.svg.OMNode;
+import org.vectomatic.dom.svg.OMSVGAnimatedString;
+import org.vectomatic.dom.svg.OMSVGDefsElement;
+import org.vectomatic.dom.svg.OMSVGGElement;
+import org.vectomatic.dom.svg.OMSVGSVGElement;
+import org.vectomatic.dom.svg.itf.ISVGURIReference;
+import org.vectomatic.dom.svg.utils.SVGConstants;
+
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Style.Overflow;
+import com.google.gwt.dom.client.Style.Position;
+import com.google.gwt.dom.client.Style.Unit;
+
+/**
+ * Page level registry of the piece definitions (image copies,
+ * outlines, clip paths and piece groups). The definitions live
+ * in a hidden SVG element of the page, and the puzzles refer
+ * to them from their own SVG element, so that several puzzles
+ * which display the same level with the same pieces share a
+ * single copy. Each entry has its own id prefix, so that the
+ * ids of different entries never collide. Entries are reference
+ * counted and removed from the page when the last puzzle which
+ * uses them is disposed.
+ */
+class SharedDefs {
+	/**
+	 * A set of definitions
+	 */
+	static class Entry {
+		private String key;
+		private String prefix;
+		private OMSVGGElement group;
+		private int refCount;
+		private boolean built;
+		/**
+		 * Returns the prefix of the ids of the definitions
+		 */
+		public String getPrefix() {
+			return prefix;
+		}
+		/**
+		 * Returns the group which receives the definitions
+		 */
+		public OMSVGGElement getGroup() {
+			return group;
+		}
+		/**
+		 * Returns true if the definitions have been built
+		 * by a previous puzzle
+		 */
+		public boolean isBuilt() {
+			return built;
+		}
+		public void setBuilt() {
+			built = true;
+		}
+		/**
+		 * Returns true if several puzzles use the definitions
+		 */
+		public boolean isShared() {
+			return refCount > 1;
+		}
+	}
+
+	/**
+	 * The attributes which can refer to an element with url(#id)
+	 */
+	private static final String[] URL_ATTRIBUTES = {
+		SVGConstants.SVG_STYLE_ATTRIBUTE,
+		SVGConstants.CSS_FILL_PROPERTY,
+		SVGConstants.CSS_STROKE_PROPERTY,
+		SVGConstants.CSS_CLIP_PATH_PROPERTY,
+		SVGConstants.CSS_MASK_PROPERTY,
+		SVGConstants.CSS_FILTER_PROPERTY,
+		SVGConstants.CSS_MARKER_START_PROPERTY,
+		SVGConstants.CSS_MARKER_MID_PROPERTY,
+		SVGConstants.CSS_MARKER_END_PROPERTY
+	};
+
+	private static SharedDefs instance;
+	/**
+	 * The hidden SVG element which holds the definitions
+	 */
+	private OMSVGSVGElement svg;
+	private OMSVGDefsElement defs;
+	private Map<String, Entry> entries = new HashMap<String, Entry>();
+	/**
+	 * Counter used to generate the id prefixes
+	 */
+	private int prefixCount;
+
+	static SharedDefs get() {
+		if (instance == null) {
+			instance = new SharedDefs();
+		}
+		return instance;
+	}
+
+	private SharedDefs() {
+		svg = new OMSVGSVGElement();
+		svg.getWidth().getBaseVal().newValueSpecifiedUnits(Unit.PX, 0);
+		svg.getHeight().getBaseVal().newValueSpecifiedUnits(Unit.PX, 0);
+		// display:none would prevent some browsers from
+		// rendering the referenced definitions
+		svg.getStyle().setPosition(Position.ABSOLUTE);
+		svg.getStyle().setOverflow(Overflow.HIDDEN);
+		defs = new OMSVGDefsElement();
+		svg.appendChild(defs);
+		Document.get().getBody().appendChild(svg.getElement());
+	}
+
+	/**
+	 * Adds a reference to the definitions with the specified key,
+	 * and creates an empty entry if there is none
+	 * @param key the key of the definitions, or null for
+	 * definitions which are never shared
+	 */
+	public Entry acquire(String key) {
+		Entry entry = key != null ? entries.get(key) : null;
+		if (entry == null) {
+			entry = new Entry();
+			entry.prefix = "p" + (prefixCount++) + "-";
+			entry.key = key != null ? key : entry.prefix;
+			entry.group = new OMSVGGElement();
+			defs.appendChild(entry.group);
+			entries.put(entry.key, entry);
+		}
+		entry.refCount++;
+		return entry;
+	}
+
+	/**
+	 * Removes a reference to the specified definitions, and
+	 * removes them from the page if they are no longer used
+	 */
+	public void release(Entry entry) {
+		if (--entry.refCount == 0) {
+			defs.removeChild(entry.group);
+			entries.remove(entry.key);
+		}
+	}
+
+	/**
+	 * Stops sharing the specified definitions with the puzzles
+	 * created later, when they no longer match their key
+	 */
+	public void detach(Entry entry) {
+		if (!entry.key.equals(entry.prefix)) {
+			entries.remove(entry.key);
+			entry.key = entry.prefix;
+			entries.put(entry.key, entry);
+		}
+	}
+
+	/**
+	 * Returns the number of sets of definitions in the page
+	 */
+	public int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * Prefixes the ids of the elements of a copy of an image, and
+	 * the references to these ids inside the copy, so that several
+	 * copies of the image can coexist in the page
+	 * @param copy the root of the copy
+	 * @param prefix the prefix of the ids
+	 */
+	static void prefixIds(OMElement copy, String prefix) {
+		List<OMElement> elements = new ArrayList<OMElement>();
+		collect(copy, elements);
+		Set<String> ids = new HashSet<String>();
+		for (OMElement element : elements) {
+			String id = element.getId();
+			if (id.length() > 0) {
+				ids.add(id);
+				element.setId(prefix + id);
+			}
+		}
+		if (ids.isEmpty()) {
+			return;
+		}
+		for (OMElement element : elements) {
+			for (String attribute : URL_ATTRIBUTES) {
+				String value = element.getAttribute(attribute);
+				if (value.indexOf("url(") != -1) {
+					element.setAttribute(attribute, prefixUrls(value, ids, prefix));
+				}
+			}
+			if (element instanceof ISVGURIReference) {
+				OMSVGAnimatedString href = ((ISVGURIReference)element).getHref();
+				String value = href.getBaseVal();
+				if (value != null && value.startsWith("#") && ids.contains(value.substring(1))) {
+					href.setBaseVal("#" + prefix + value.substring(1));
+				}
+			}
+		}
+	}
+
+	private static void collect(OMNode node, List<OMElement> elements) {
+		for (OMNode child : node.getChildNodes()) {
+			if (child instanceof OMElement) {
+				elements.add((OMElement)child);
+				collect(child, elements);
+			}
+		}
+	}
+
+	/**
+	 * Prefixes the ids referenced by the url(#id) of the
+	 * specified attribute value
+	 */
+	private static String prefixUrls(String value, Set<String> ids, String prefix) {
+		StringBuilder builder = new StringBuilder();
+		int start = 0;
+		int index;
+		while ((index = value.indexOf("url(", start)) != -1) {
+			int end = value.indexOf(')', index);
+			if (end == -1) {
+				break;
+			}
+			String url = value.substring(index + 4, end).trim();
+			if (url.length() > 1 && (url.charAt(0) == '"' || url.charAt(0) == '\'')) {
+				url = url.substring(1, url.length() - 1);
+			}
+			builder.append(value, start, index);
+			if (url.startsWith("#") && ids.contains(url.substring(1))) {
+				builder.append("url(#").append(prefix).append(url.substring(1)).append(')');
+			} else {
+				builder.append(value, index, end + 1);
+			}
+			start = end + 1;
+		}
+		builder.append(value, start, value.length());
+		return builder.toString();
+	}
+}
@@ -0,0 +1,288 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import org.vectomatic.dom.svg.OMNode;
+import org.vectomatic.dom.svg.OMSVGSVGElement;
+import org.vectomatic.dom.svg.utils.AsyncXmlLoader;
+import org.vectomatic.dom.svg.utils.AsyncXmlLoaderCallback;
+
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.RepeatingCommand;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.PreElement;
+import com.google.gwt.i18n.client.NumberFormat;
+
+/**
+ * Soak test driver (soak=random or soak=greedy in the URL query).
+ * The driver plays games with the {@link AutoSolver} on every
+ * level and grid size in a row, and checks the consistency of the
+ * board after each move, and that the piece definitions of a game
+ * are released with it. For each level and grid size, it reports
+ * the number of moves per second; at the end of each level, it
+ * reports the heap growth since the first game (in browsers which
+ * expose performance.memory). At the end, it reports the hits,
+ * misses and evictions of the level store, if the levels are
+ * loaded through it. The report is displayed in the page
+ * and written to the console, so that it can be collected from a
+ * headless browser (see src/main/soak/soak.sh). The last line
+ * starts with "SOAK DONE".
+ */
+class SoakDriver implements RepeatingCommand {
+	/**
+	 * Duration of a slice of moves (in ms), after which the
+	 * driver yields to the browser
+	 */
+	private static final int SLICE = 50;
+	/**
+	 * Maximum number of moves per game, per piece
+	 */
+	private static final int MOVES_PER_PIECE = 100;
+	private LevelCatalog catalog;
+	private AsyncXmlLoader loader;
+	/**
+	 * The URL of the directory which contains the levels
+	 */
+	private String levelUrl;
+	private int[][] dimensions;
+	private Element container;
+	private AutoSolver.Strategy strategy;
+	/**
+	 * The number of games per level and grid size
+	 */
+	private int gameCount;
+	private PreElement report;
+	private NumberFormat format = NumberFormat.getFormat("0.0");
+
+	private int level;
+	private int dimension;
+	private int game;
+	private OMSVGSVGElement srcSvg;
+	private Puzzle puzzle;
+	private AutoSolver solver;
+	private int moveLimit;
+	/**
+	 * The generator of the game seeds. The seed of the driver
+	 * comes from the seed parameter of the URL query if there is
+	 * one, so that a run can be replayed.
+	 */
+	private SeededRandom seeds;
+	/**
+	 * The seed of the game in progress
+	 */
+	private int seed;
+	/**
+	 * The number of sets of piece definitions in the page
+	 * before the game in progress
+	 */
+	private int entryCount;
+
+	/**
+	 * Statistics for the current level and grid size
+	 */
+	private int moves;
+	private int solved;
+	private double time;
+	/**
+	 * Statistics for the whole run
+	 */
+	private int totalGames;
+	private int totalMoves;
+	private double totalTime;
+	private int violations;
+	private double initialHeap = -1;
+
+	SoakDriver(LevelCatalog catalog, AsyncXmlLoader loader, String levelUrl, int[][] dimensions, Element container, AutoSolver.Strategy strategy, int gameCount) {
+		this.catalog = catalog;
+		this.loader = loader;
+		this.levelUrl = levelUrl;
+		this.dimensions = dimensions;
+		this.container = container;
+		this.strategy = strategy;
+		this.gameCount = gameCount;
+	}
+
+	public void start() {
+		report = Document.get().createPreElement();
+		container.appendChild(report);
+		int driverSeed = Puzzle.getDefaultSeed();
+		seeds = new SeededRandom(driverSeed);
+		log("Soak test: " + strategy + " strategy, " + gameCount + " games per level and grid size, seed " + driverSeed);
+		level = 0;
+		loadLevel();
+	}
+
+	private void loadLevel() {
+		loader.loadResource(levelUrl + catalog.getName(level), new AsyncXmlLoaderCallback() {
+			@Override
+			public void onError(String resourceName, Throwable error) {
+				log("Cannot load " + resourceName);
+				violations++;
+				nextLevel();
+			}
+
+			@Override
+			public void onSuccess(String resourceName, com.google.gwt.dom.client.Element root) {
+				srcSvg = OMNode.convert(root);
+				dimension = 0;
+				startCombination();
+				Scheduler.get().scheduleIncremental(SoakDriver.this);
+			}
+		});
+	}
+
+	/**
+	 * Moves to the next level, or ends the test after the last one
+	 */
+	private void nextLevel() {
+		double heap = getUsedHeap();
+		if (heap >= 0) {
+			log("Heap: " + format.format(heap / (1 << 20)) + " MB, " + format.format((heap - initialHeap) / (1 << 20)) + " MB since the first game");
+		}
+		if (++level < catalog.getLevelCount()) {
+			loadLevel();
+		} else {
+			if (loader instanceof CachingXmlLoader) {
+				LevelStore store = ((CachingXmlLoader)loader).getStore();
+				log("Level store: " + store.getHitCount() + " hits, " + store.getMissCount() + " misses, " + store.getEvictionCount() + " evictions");
+			}
+			log("SOAK DONE: " + totalGames + " games, " + totalMoves + " moves, "
+				+ format.format(1000 * totalMoves / Math.max(1, totalTime)) + " moves/s, "
+				+ violations + " violations");
+		}
+	}
+
+	private void startCombination() {
+		game = 0;
+		moves = 0;
+		solved = 0;
+		time = 0;
+		startGame();
+	}
+
+	private void startGame() {
+		int[] grid = dimensions[dimension];
+		seed = seeds.nextInt();
+		entryCount = SharedDefs.get().getEntryCount();
+		puzzle = new Puzzle(srcSvg, grid[0], grid[1], seed);
+		puzzle.getSvgElement().addClassNameBaseVal(Puzzle.style.rootSvg());
+		puzzle.shuffle();
+		container.insertBefore(puzzle.getSvgElement().getElement(), report);
+		solver = new AutoSolver(puzzle, strategy, new SeededRandom(seed));
+		moveLimit = MOVES_PER_PIECE * puzzle.getPieceCount();
+	}
+
+	private void endGame(boolean success) {
+		if (success) {
+			solved++;
+		}
+		moves += solver.getMoveCount();
+		container.removeChild(puzzle.getSvgElement().getElement());
+		puzzle.dispose();
+		puzzle = null;
+		solver = null;
+		if (SharedDefs.get().getEntryCount() != entryCount) {
+			// The piece definitions have not been released
+			violations++;
+			log("Violation in " + catalog.getName(level) + " (seed " + seed + "): " + SharedDefs.get().getEntryCount() + " piece definitions after dispose, " + entryCount + " expected");
+		}
+		totalGames++;
+		if (initialHeap < 0) {
+			initialHeap = getUsedHeap();
+		}
+	}
+
+	@Override
+	public boolean execute() {
+		double start = Duration.currentTimeMillis();
+		double now = start;
+		while (now - start < SLICE) {
+			boolean gameOver = solver.step();
+			String violation = puzzle.checkInvariants();
+			if (violation != null) {
+				violations++;
+				log("Violation in " + catalog.getName(level) + " (seed " + seed + ") after " + solver.getMoveCount() + " moves: " + violation);
+				// The board cannot be trusted any more
+				endGame(false);
+			} else if (gameOver || solver.getMoveCount() >= moveLimit) {
+				endGame(gameOver);
+			}
+			now = Duration.currentTimeMillis();
+			if (puzzle == null) {
+				time += now - start;
+				start = now;
+				if (!nextGame()) {
+					return false;
+				}
+			}
+		}
+		time += now - start;
+		return true;
+	}
+
+	/**
+	 * Starts the next game
+	 * @return false if the level is over
+	 */
+	private boolean nextGame() {
+		if (++game < gameCount) {
+			startGame();
+			return true;
+		}
+		int[] grid = dimensions[dimension];
+		log(catalog.getName(level) + " " + grid[0] + "x" + grid[1] + ": "
+			+ gameCount + " games, " + solved + " solved, " + moves + " moves, "
+			+ format.format(1000 * moves / Math.max(1, time)) + " moves/s");
+		totalMoves += moves;
+		totalTime += time;
+		if (++dimension < dimensions.length) {
+			startCombination();
+			return true;
+		}
+		nextLevel();
+		return false;
+	}
+
+	private void log(String message) {
+		GWT.log(message);
+		consoleLog(message);
+		report.setInnerText(report.getInnerText() + message + "\n");
+	}
+
+	private static native void consoleLog(String message) /*-{
+		if ($wnd.console) {
+			$wnd.console.log(message);
+		}
+	}-*/;
+
+	/**
+	 * Returns the size of the JavaScript heap in bytes, or -1
+	 * if the browser does not expose it. A garbage collection
+	 * is run first if the browser allows it (--js-flags=--expose-gc)
+	 */
+	private static native double getUsedHeap() /*-{
+		if ($wnd.gc) {
+			$wnd.gc();
+		}
+		var performance = $wnd.performance;
+		return performance && performance.memory ? performance.memory.usedJSHeapSize : -1;
+	}-*/;
+}
@@ -0,0 +1,184 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+/**
+ * Uniform spatial hash of piece anchor points. The plane
+ * is divided in square cells, and each cell is hashed to
+ * a bucket of a fixed size table. Buckets are stored as
+ * doubly linked lists in primitive arrays, so that moving
+ * a piece is a constant time update and a neighborhood query
+ * only visits the few cells which overlap the query region.
+ */
+class SpatialHash {
+	/**
+	 * Marker for empty list links
+	 */
+	private static final int NONE = -1;
+	/**
+	 * The size of a cell
+	 */
+	private float cellSize;
+	/**
+	 * Mask to convert a cell hash to a bucket index
+	 */
+	private int mask;
+	/**
+	 * The first element of each bucket
+	 */
+	private int[] head;
+	/**
+	 * The bucket links of each element
+	 */
+	private int[] next, prev;
+	/**
+	 * The bucket of each element (NONE if the element
+	 * is not in the hash)
+	 */
+	private int[] bucket;
+	/**
+	 * The anchor point of each element
+	 */
+	private float[] xs, ys;
+	/**
+	 * Query stamp of each element, to report elements
+	 * only once when several cells share a bucket
+	 */
+	private int[] marks;
+	private int stamp;
+
+	SpatialHash(int count, float cellSize) {
+		this.cellSize = cellSize;
+		int bucketCount = 16;
+		while (bucketCount < 2 * count) {
+			bucketCount <<= 1;
+		}
+		mask = bucketCount - 1;
+		head = new int[bucketCount];
+		next = new int[count];
+		prev = new int[count];
+		bucket = new int[count];
+		xs = new float[count];
+		ys = new float[count];
+		marks = new int[count];
+		clear();
+	}
+
+	/**
+	 * Removes all the elements from the hash
+	 */
+	public void clear() {
+		for (int i = 0; i < head.length; i++) {
+			head[i] = NONE;
+		}
+		for (int i = 0; i < bucket.length; i++) {
+			bucket[i] = NONE;
+		}
+	}
+
+	public boolean contains(int i) {
+		return bucket[i] != NONE;
+	}
+
+	public float getX(int i) {
+		return xs[i];
+	}
+
+	public float getY(int i) {
+		return ys[i];
+	}
+
+	/**
+	 * Inserts the specified element in the hash, or
+	 * moves it if it is already present
+	 */
+	public void put(int i, float x, float y) {
+		int b = getBucket(getCell(x), getCell(y));
+		xs[i] = x;
+		ys[i] = y;
+		if (bucket[i] != b) {
+			remove(i);
+			bucket[i] = b;
+			prev[i] = NONE;
+			next[i] = head[b];
+			if (head[b] != NONE) {
+				prev[head[b]] = i;
+			}
+			head[b] = i;
+		}
+	}
+
+	/**
+	 * Removes the specified element from the hash
+	 */
+	public void remove(int i) {
+		int b = bucket[i];
+		if (b != NONE) {
+			if (prev[i] != NONE) {
+				next[prev[i]] = next[i];
+			} else {
+				head[b] = next[i];
+			}
+			if (next[i] != NONE) {
+				prev[next[i]] = prev[i];
+			}
+			bucket[i] = NONE;
+		}
+	}
+
+	/**
+	 * Finds the elements whose anchor lies in the square of half-size
+	 * radius centered on the specified point.
+	 * @param result
+	 * An array to receive the elements found. The query stops
+	 * when the array is full
+	 * @return the number of elements found
+	 */
+	public int query(float x, float y, float radius, int[] result) {
+		stamp++;
+		int count = 0;
+		int cx1 = getCell(x - radius);
+		int cx2 = getCell(x + radius);
+		int cy1 = getCell(y - radius);
+		int cy2 = getCell(y + radius);
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				for (int i = head[getBucket(cx, cy)]; i != NONE; i = next[i]) {
+					if (marks[i] != stamp
+					 && Math.abs(xs[i] - x) <= radius
+					 && Math.abs(ys[i] - y) <= radius) {
+						marks[i] = stamp;
+						if (count == result.length) {
+							return count;
+						}
+						result[count++] = i;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	private int getCell(float v) {
+		return (int)Math.floor(v / cellSize);
+	}
+
+	private int getBucket(int cx, int cy) {
+		return ((cx * 73856093) ^ (cy * 19349663)) & mask;
+	}
+}
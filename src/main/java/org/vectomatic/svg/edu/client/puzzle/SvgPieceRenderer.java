@@ -0,0 +1,163 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import org.vectomatic.dom.svg.OMSVGGElement;
+import org.vectomatic.dom.svg.OMSVGPathElement;
+import org.vectomatic.dom.svg.OMSVGSVGElement;
+import org.vectomatic.dom.svg.OMSVGTransform;
+import org.vectomatic.dom.svg.OMSVGUseElement;
+
+import com.google.gwt.dom.client.Element;
+
+/**
+ * Renderer which draws each piece with a &lt;use&gt; element
+ * referring to the piece definition in the root SVG element
+ * <pre>
+ * &lt;use x="130" y="260" xlink:href="#pieceX-Y"/&gt;
+ * </pre>
+ */
+class SvgPieceRenderer implements PieceRenderer {
+	/**
+	 * The root element of the SVG DOM hierarchy
+	 */
+	private OMSVGSVGElement rootSvg;
+	/**
+	 * The piece geometries
+	 */
+	private RetainedElement.Use[] geometries;
+	/**
+	 * The id of the piece definitions
+	 */
+	private String[] ids;
+	/**
+	 * The group used to move a whole cluster during drag
+	 * and drop operations, so that a drag step costs a single
+	 * transform update regardless of the cluster size
+	 */
+	private OMSVGGElement dragGroup;
+	/**
+	 * The translation applied to the drag group
+	 */
+	private OMSVGTransform dragTransform;
+	/**
+	 * The pieces in the drag group
+	 */
+	private int[] group;
+	/**
+	 * The prefix of the ids of the piece definitions
+	 */
+	private String idPrefix;
+
+	SvgPieceRenderer(OMSVGSVGElement rootSvg, int count, String idPrefix) {
+		this.rootSvg = rootSvg;
+		this.idPrefix = idPrefix;
+		geometries = new RetainedElement.Use[count];
+		ids = new String[count];
+		dragGroup = new OMSVGGElement();
+		dragTransform = rootSvg.createSVGTransform();
+		dragTransform.setTranslate(0, 0);
+		dragGroup.getTransform().getBaseVal().appendItem(dragTransform);
+	}
+
+	@Override
+	public void addPiece(int index, String id, OMSVGPathElement outline, int col, int row) {
+		RetainedElement.Use geometry = new RetainedElement.Use(new OMSVGUseElement());
+		geometry.setClassName(Puzzle.style.piece());
+		geometry.setHref("#" + idPrefix + Puzzle.ID_PIECE + id);
+		rootSvg.appendChild(geometry.getElement());
+		geometries[index] = geometry;
+		ids[index] = id;
+	}
+
+	@Override
+	public void setPosition(int index, float x, float y) {
+		geometries[index].setPosition(x, y);
+	}
+
+	@Override
+	public void setFullDetail(int index, boolean fullDetail) {
+		geometries[index].setHref("#" + idPrefix + (fullDetail ? Puzzle.ID_PIECE : Puzzle.ID_PIECE_LOD) + ids[index]);
+	}
+
+	@Override
+	public void raise(int index) {
+		// Move the DOM node to the end of the tree so that it is drawn after
+		// all other nodes (hidden pieces stay out of the tree)
+		OMSVGUseElement geometry = geometries[index].getElement();
+		if (geometry.getParentNode() != null) {
+			rootSvg.appendChild(geometry);
+		}
+	}
+
+	@Override
+	public void setVisible(int index, boolean visible) {
+		// Hidden pieces are removed from the tree altogether
+		OMSVGUseElement geometry = geometries[index].getElement();
+		if (visible) {
+			rootSvg.appendChild(geometry);
+		} else if (geometry.getParentNode() != null) {
+			geometry.getParentNode().removeChild(geometry);
+		}
+	}
+
+	@Override
+	public void setCulled(int index, boolean culled) {
+		geometries[index].setDisplayed(!culled);
+	}
+
+	@Override
+	public void invalidate() {
+		// The browser repaints the tree when the view box changes
+	}
+
+	@Override
+	public void startGroup(int[] pieces) {
+		group = pieces;
+		for (int index : pieces) {
+			dragGroup.appendChild(geometries[index].getElement());
+		}
+		dragTransform.setTranslate(0, 0);
+		// Move the drag group to the end of the tree so that it is drawn after
+		// all other nodes
+		rootSvg.appendChild(dragGroup);
+	}
+
+	@Override
+	public void setGroupOffset(float dx, float dy) {
+		dragTransform.setTranslate(dx, dy);
+	}
+
+	@Override
+	public void endGroup() {
+		dragTransform.setTranslate(0, 0);
+		for (int index : group) {
+			rootSvg.appendChild(geometries[index].getElement());
+		}
+		group = null;
+	}
+
+	@Override
+	public Element getOverlay() {
+		return null;
+	}
+
+	@Override
+	public void dispose() {
+	}
+}
@@ -0,0 +1,245 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Byte buffer to encode and decode the messages exchanged
+ * in cooperative mode. This class is shared by the client and
+ * the server.
+ * <p>A message consists of a header (protocol version, client id,
+ * sequence number) followed by a list of records. Each record starts
+ * with its type and is keyed by piece index. Integers are written as
+ * variable length quantities (7 bits per byte). Signed integers are
+ * zigzag encoded first, so that small values of either sign stay short.
+ * Drag positions are written as deltas from the previous position
+ * of the same piece in the same message.</p>
+ */
+public class SyncBuffer {
+	public static final int VERSION = 1;
+	/**
+	 * Record sent once by a client to join a session: piece count
+	 */
+	public static final int JOIN = 1;
+	/**
+	 * Record to describe the initial board of a client: piece, zone, a, b.
+	 * Only the first client to join a session sets the board.
+	 */
+	public static final int STATE = 2;
+	/**
+	 * Record to move a piece: piece, zone, a, b
+	 */
+	public static final int MOVE = 3;
+	/**
+	 * Record to lock pieces: count, pieces
+	 */
+	public static final int LOCK = 4;
+	/**
+	 * Record to notify a client that its lock request
+	 * has been denied: count, pieces
+	 */
+	public static final int LOCK_DENIED = 5;
+	/**
+	 * Record to unlock pieces: count, pieces
+	 */
+	public static final int UNLOCK = 6;
+	/**
+	 * Record to drag a locked piece: piece, dx, dy
+	 */
+	public static final int DRAG = 7;
+	/**
+	 * Zone of a piece which lies outside any target: a and b are
+	 * then quantized coordinates instead of target coordinates. The
+	 * tile zone and the assembly zone are 0 and 1 (same values as
+	 * the Puzzle.ZONE_XXX constants).
+	 */
+	public static final int ZONE_LOOSE = 2;
+	/**
+	 * Number of subdivisions of a user unit in
+	 * quantized coordinates
+	 */
+	public static final int QUANTUM = 8;
+
+	private byte[] data;
+	private int position;
+	private int limit;
+	/**
+	 * The last drag position written or read for each piece
+	 */
+	private Map<Integer, int[]> dragBase;
+
+	/**
+	 * Creates an empty buffer for writing
+	 */
+	public SyncBuffer() {
+		data = new byte[64];
+	}
+
+	/**
+	 * Creates a buffer to read the specified message
+	 */
+	public SyncBuffer(byte[] data) {
+		this.data = data;
+		limit = data.length;
+	}
+
+	public void writeVarInt(int value) {
+		while ((value & ~0x7f) != 0) {
+			writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		writeByte(value);
+	}
+
+	public void writeSignedVarInt(int value) {
+		writeVarInt((value << 1) ^ (value >> 31));
+	}
+
+	/**
+	 * Writes a list of pieces
+	 */
+	public void writePieces(int[] pieces) {
+		writeVarInt(pieces.length);
+		for (int piece : pieces) {
+			writeVarInt(piece);
+		}
+	}
+
+	/**
+	 * Writes a drag position, as a delta from the previous
+	 * drag position of the same piece in this buffer
+	 */
+	public void writeDrag(int piece, int x, int y) {
+		int[] base = getDragBase(piece);
+		writeVarInt(piece);
+		writeSignedVarInt(x - base[0]);
+		writeSignedVarInt(y - base[1]);
+		base[0] = x;
+		base[1] = y;
+	}
+
+	/**
+	 * Appends the content of the specified buffer
+	 */
+	public void write(SyncBuffer buffer) {
+		ensureCapacity(buffer.limit);
+		System.arraycopy(buffer.data, 0, data, limit, buffer.limit);
+		limit += buffer.limit;
+	}
+
+	private void writeByte(int value) {
+		ensureCapacity(1);
+		data[limit++] = (byte)value;
+	}
+
+	private void ensureCapacity(int count) {
+		if (limit + count > data.length) {
+			byte[] newData = new byte[Math.max(2 * data.length, limit + count)];
+			System.arraycopy(data, 0, newData, 0, limit);
+			data = newData;
+		}
+	}
+
+	public int readVarInt() {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (position >= limit) {
+				throw new IllegalArgumentException("Truncated message");
+			}
+			int b = data[position++];
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed integer");
+	}
+
+	public int readSignedVarInt() {
+		int value = readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * Reads a list of pieces
+	 */
+	public int[] readPieces() {
+		int count = readVarInt();
+		if (count < 0 || count > limit - position) {
+			throw new IllegalArgumentException("Truncated message");
+		}
+		int[] pieces = new int[count];
+		for (int i = 0; i < count; i++) {
+			pieces[i] = readVarInt();
+		}
+		return pieces;
+	}
+
+	/**
+	 * Reads a drag position
+	 * @param drag
+	 * An array to receive the piece and its drag position
+	 */
+	public void readDrag(int[] drag) {
+		drag[0] = readVarInt();
+		int[] base = getDragBase(drag[0]);
+		base[0] += readSignedVarInt();
+		base[1] += readSignedVarInt();
+		drag[1] = base[0];
+		drag[2] = base[1];
+	}
+
+	private int[] getDragBase(int piece) {
+		if (dragBase == null) {
+			dragBase = new HashMap<Integer, int[]>();
+		}
+		int[] base = dragBase.get(piece);
+		if (base == null) {
+			base = new int[2];
+			dragBase.put(piece, base);
+		}
+		return base;
+	}
+
+	public boolean hasRemaining() {
+		return position < limit;
+	}
+
+	/**
+	 * Returns the number of bytes written in this buffer
+	 */
+	public int size() {
+		return limit;
+	}
+
+	/**
+	 * Returns the byte at the specified index, as an
+	 * unsigned value
+	 */
+	public int get(int index) {
+		return data[index] & 0xff;
+	}
+
+	public byte[] toByteArray() {
+		byte[] bytes = new byte[limit];
+		System.arraycopy(data, 0, bytes, 0, limit);
+		return bytes;
+	}
+}
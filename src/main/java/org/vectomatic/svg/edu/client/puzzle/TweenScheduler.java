@@ -0,0 +1,234 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import com.google.gwt.animation.client.AnimationScheduler;
+import com.google.gwt.animation.client.AnimationScheduler.AnimationCallback;
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.user.client.Command;
+
+/**
+ * Scheduler of the piece animations (snap to a target, return
+ * to the tray, shuffle). All the active tweens are advanced by a
+ * single animation frame callback, which writes the positions of
+ * the moving pieces to the renderer in one pass. Each piece has a
+ * preallocated tween slot and the active tweens are kept in a
+ * dense list of piece indexes, so that a frame allocates nothing
+ * regardless of the number of moving pieces.
+ */
+class TweenScheduler implements AnimationCallback {
+	/**
+	 * Marker for pieces which are not moving
+	 */
+	private static final int NONE = -1;
+	/**
+	 * The renderer which displays the pieces
+	 */
+	private PieceRenderer renderer;
+	/**
+	 * The displayed position of each piece
+	 */
+	private float[] xs, ys;
+	/**
+	 * True if a piece has been displayed at least once
+	 * (the first position of a piece is never animated)
+	 */
+	private boolean[] placed;
+	/**
+	 * The tween slot of each piece: start and end positions,
+	 * start time and duration
+	 */
+	private float[] fromX, fromY, toX, toY;
+	private double[] startTime;
+	private double[] duration;
+	/**
+	 * The indexes of the moving pieces
+	 */
+	private int[] active;
+	private int activeCount;
+	/**
+	 * The position of each piece in the active list
+	 * (NONE if the piece is not moving)
+	 */
+	private int[] activeIndex;
+	/**
+	 * The command to execute when the last tween completes
+	 */
+	private Command completion;
+	private boolean enabled = true;
+	private boolean frameRequested;
+	private boolean disposed;
+
+	TweenScheduler(PieceRenderer renderer, int count) {
+		this.renderer = renderer;
+		xs = new float[count];
+		ys = new float[count];
+		placed = new boolean[count];
+		fromX = new float[count];
+		fromY = new float[count];
+		toX = new float[count];
+		toY = new float[count];
+		startTime = new double[count];
+		duration = new double[count];
+		active = new int[count];
+		activeIndex = new int[count];
+		for (int i = 0; i < count; i++) {
+			activeIndex[i] = NONE;
+		}
+	}
+
+	/**
+	 * Enables or disables the animations. When disabled, the
+	 * pieces are moved immediately.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		if (!enabled) {
+			finish();
+		}
+	}
+
+	/**
+	 * Sets the command to execute when all the tweens have completed
+	 */
+	public void setCompletion(Command completion) {
+		this.completion = completion;
+	}
+
+	/**
+	 * Moves a piece immediately, cancelling its tween if it has one
+	 */
+	public void setPosition(int index, float x, float y) {
+		if (activeIndex[index] != NONE) {
+			remove(index);
+		}
+		write(index, x, y);
+	}
+
+	/**
+	 * Moves a piece to the specified position over the specified
+	 * duration (in milliseconds). A moving piece starts its new tween
+	 * from its current displayed position.
+	 */
+	public void moveTo(int index, float x, float y, double millis) {
+		if (!enabled || !placed[index] || disposed) {
+			setPosition(index, x, y);
+			return;
+		}
+		if (xs[index] == x && ys[index] == y) {
+			if (activeIndex[index] != NONE) {
+				remove(index);
+			}
+			return;
+		}
+		fromX[index] = xs[index];
+		fromY[index] = ys[index];
+		toX[index] = x;
+		toY[index] = y;
+		startTime[index] = Duration.currentTimeMillis();
+		duration[index] = millis;
+		if (activeIndex[index] == NONE) {
+			activeIndex[index] = activeCount;
+			active[activeCount++] = index;
+		}
+		if (!frameRequested) {
+			frameRequested = true;
+			AnimationScheduler.get().requestAnimationFrame(this);
+		}
+	}
+
+	/**
+	 * Returns true if the specified piece is moving
+	 */
+	public boolean isMoving(int index) {
+		return activeIndex[index] != NONE;
+	}
+
+	/**
+	 * Returns the number of moving pieces
+	 */
+	public int getActiveCount() {
+		return activeCount;
+	}
+
+	/**
+	 * Moves all the moving pieces to the end of their tween
+	 */
+	public void finish() {
+		while (activeCount > 0) {
+			int index = active[activeCount - 1];
+			remove(index);
+			write(index, toX[index], toY[index]);
+		}
+	}
+
+	/**
+	 * Stops the animations when the puzzle is removed from the page
+	 */
+	public void dispose() {
+		disposed = true;
+		completion = null;
+		finish();
+	}
+
+	@Override
+	public void execute(double timestamp) {
+		frameRequested = false;
+		if (disposed || activeCount == 0) {
+			return;
+		}
+		double now = Duration.currentTimeMillis();
+		for (int i = activeCount - 1; i >= 0; i--) {
+			int index = active[i];
+			double t = duration[index] > 0 ? (now - startTime[index]) / duration[index] : 1;
+			if (t >= 1) {
+				remove(index);
+				write(index, toX[index], toY[index]);
+			} else {
+				// Cubic ease out
+				float s = (float)(1 - (1 - t) * (1 - t) * (1 - t));
+				write(index, fromX[index] + s * (toX[index] - fromX[index]), fromY[index] + s * (toY[index] - fromY[index]));
+			}
+		}
+		if (activeCount > 0) {
+			frameRequested = true;
+			AnimationScheduler.get().requestAnimationFrame(this);
+		} else if (completion != null) {
+			completion.execute();
+		}
+	}
+
+	private void write(int index, float x, float y) {
+		xs[index] = x;
+		ys[index] = y;
+		placed[index] = true;
+		renderer.setPosition(index, x, y);
+	}
+
+	/**
+	 * Removes a piece from the active list (the last
+	 * active piece takes its place)
+	 */
+	private void remove(int index) {
+		int i = activeIndex[index];
+		int last = active[--activeCount];
+		active[i] = last;
+		activeIndex[last] = i;
+		activeIndex[index] = NONE;
+	}
+}
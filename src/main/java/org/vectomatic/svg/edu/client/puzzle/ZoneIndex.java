@@ -0,0 +1,187 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+/**
+ * Index of the rectangular grid zones of the board (tile zone,
+ * assembly zone, ...), used to find the zone and the cell under
+ * a point. Each zone is a grid of cells of the same size. The
+ * bounding box of all the zones is divided in a fixed number
+ * of buckets, and each bucket lists the zones which overlap it,
+ * so that a lookup only tests the few zones near the point.
+ * The buckets are rebuilt lazily, when the geometry of a zone
+ * has changed. All the state is stored in primitive arrays.
+ */
+class ZoneIndex {
+	/**
+	 * Marker for points outside any zone
+	 */
+	static final int NONE = -1;
+	/**
+	 * Number of buckets along each axis
+	 */
+	private static final int GRID = 16;
+	private int zoneCount;
+	/**
+	 * The grid size of each zone
+	 */
+	private int[] cols, rows;
+	/**
+	 * The upper left corner and the cell size of each zone
+	 */
+	private float[] xs, ys, cellWidths, cellHeights;
+	/**
+	 * True if the buckets must be rebuilt
+	 */
+	private boolean dirty;
+	/**
+	 * The bounding box of all the zones and the size of a bucket
+	 */
+	private float minX, minY, bucketWidth, bucketHeight;
+	/**
+	 * The zones which overlap bucket b are stored in
+	 * bucketZones[bucketStart[b]] to bucketZones[bucketStart[b + 1] - 1],
+	 * in the order the zones were added
+	 */
+	private int[] bucketStart;
+	private int[] bucketZones;
+
+	ZoneIndex(int capacity) {
+		cols = new int[capacity];
+		rows = new int[capacity];
+		xs = new float[capacity];
+		ys = new float[capacity];
+		cellWidths = new float[capacity];
+		cellHeights = new float[capacity];
+		bucketStart = new int[GRID * GRID + 1];
+		bucketZones = new int[0];
+	}
+
+	/**
+	 * Adds a zone. The zone has no extent until
+	 * its bounds are set.
+	 * @return the index of the zone
+	 */
+	public int addZone(int colCount, int rowCount) {
+		if (zoneCount == cols.length) {
+			throw new IllegalStateException("Too many zones: " + zoneCount);
+		}
+		cols[zoneCount] = colCount;
+		rows[zoneCount] = rowCount;
+		dirty = true;
+		return zoneCount++;
+	}
+
+	/**
+	 * Sets the upper left corner and the cell size of a zone
+	 */
+	public void setBounds(int zone, float x, float y, float cellWidth, float cellHeight) {
+		if (xs[zone] != x || ys[zone] != y || cellWidths[zone] != cellWidth || cellHeights[zone] != cellHeight) {
+			xs[zone] = x;
+			ys[zone] = y;
+			cellWidths[zone] = cellWidth;
+			cellHeights[zone] = cellHeight;
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Finds the zone and the cell which contain the specified
+	 * point. If zones overlap, the first zone added wins.
+	 * @param cell an array to receive the column and
+	 * the row of the cell
+	 * @return the index of the zone, or NONE if the point
+	 * is outside all the zones
+	 */
+	public int find(float x, float y, int[] cell) {
+		if (dirty) {
+			rebuild();
+		}
+		int bx = (int)Math.floor((x - minX) / bucketWidth);
+		int by = (int)Math.floor((y - minY) / bucketHeight);
+		if (bx < 0 || bx >= GRID || by < 0 || by >= GRID) {
+			return NONE;
+		}
+		int bucket = bx + by * GRID;
+		for (int i = bucketStart[bucket]; i < bucketStart[bucket + 1]; i++) {
+			int zone = bucketZones[i];
+			int u = (int)Math.floor((x - xs[zone]) / cellWidths[zone]);
+			int v = (int)Math.floor((y - ys[zone]) / cellHeights[zone]);
+			if (u >= 0 && u < cols[zone] && v >= 0 && v < rows[zone]) {
+				cell[0] = u;
+				cell[1] = v;
+				return zone;
+			}
+		}
+		return NONE;
+	}
+
+	private void rebuild() {
+		dirty = false;
+		minX = minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE;
+		float maxY = -Float.MAX_VALUE;
+		for (int zone = 0; zone < zoneCount; zone++) {
+			minX = Math.min(minX, xs[zone]);
+			minY = Math.min(minY, ys[zone]);
+			maxX = Math.max(maxX, xs[zone] + cols[zone] * cellWidths[zone]);
+			maxY = Math.max(maxY, ys[zone] + rows[zone] * cellHeights[zone]);
+		}
+		// Make the buckets slightly larger so that
+		// the far edge of the bounding box is included
+		bucketWidth = Math.max(Float.MIN_VALUE, 1.0001f * (maxX - minX) / GRID);
+		bucketHeight = Math.max(Float.MIN_VALUE, 1.0001f * (maxY - minY) / GRID);
+
+		// Count the zones of each bucket, then fill the buckets
+		int[] counts = new int[GRID * GRID];
+		int total = 0;
+		for (int pass = 0; pass < 2; pass++) {
+			for (int zone = 0; zone < zoneCount; zone++) {
+				int bx0 = getBucket(xs[zone], minX, bucketWidth);
+				int by0 = getBucket(ys[zone], minY, bucketHeight);
+				int bx1 = getBucket(xs[zone] + cols[zone] * cellWidths[zone], minX, bucketWidth);
+				int by1 = getBucket(ys[zone] + rows[zone] * cellHeights[zone], minY, bucketHeight);
+				for (int bx = bx0; bx <= bx1; bx++) {
+					for (int by = by0; by <= by1; by++) {
+						int bucket = bx + by * GRID;
+						if (pass == 0) {
+							counts[bucket]++;
+							total++;
+						} else {
+							bucketZones[bucketStart[bucket] + counts[bucket]++] = zone;
+						}
+					}
+				}
+			}
+			if (pass == 0) {
+				if (bucketZones.length < total) {
+					bucketZones = new int[total];
+				}
+				bucketStart[0] = 0;
+				for (int bucket = 0; bucket < counts.length; bucket++) {
+					bucketStart[bucket + 1] = bucketStart[bucket] + counts[bucket];
+					counts[bucket] = 0;
+				}
+			}
+		}
+	}
+
+	private static int getBucket(float x, float min, float size) {
+		return Math.max(0, Math.min(GRID - 1, (int)Math.floor((x - min) / size)));
+	}
+}
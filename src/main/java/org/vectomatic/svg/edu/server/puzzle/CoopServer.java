@@ -0,0 +1,506 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.server.puzzle;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.vectomatic.svg.edu.client.puzzle.SyncBuffer;
+
+/**
+ * Server side of the cooperative mode. The server relays
+ * the moves of the clients which play in the same session,
+ * and arbitrates the ownership of the pieces: requests are
+ * processed one at a time in arrival order, and a lock request
+ * is granted only if none of its pieces is owned by another client.
+ * The loser of a conflicting drag is notified and reverts its drag;
+ * its moves of the contested pieces are rejected, and the reply
+ * restores the location of these pieces. A move to an occupied
+ * target swaps the occupant to the former location of the moved
+ * piece, and this swap is sent to all the clients, including the
+ * one which made the move.
+ * <p>This class does not depend on any servlet API, so that it can
+ * be run in-process by tests and load tests; {@link CoopServlet}
+ * exposes it over HTTP.</p>
+ */
+public class CoopServer {
+	/**
+	 * Delay after which a silent client is disconnected
+	 * and loses its locks (in ms)
+	 */
+	public static final long CLIENT_TIMEOUT = 10000;
+	/**
+	 * Maximum number of events kept in a session log. Clients
+	 * which fall behind receive a full state instead.
+	 */
+	private static final int MAX_LOG_SIZE = 4096;
+	/**
+	 * Maximum number of pieces of a session
+	 */
+	private static final int MAX_PIECES = 10000;
+	/**
+	 * Maximum number of active sessions
+	 */
+	private static final int MAX_SESSIONS = 1000;
+	/**
+	 * Zone of the pieces which have not been placed on any target
+	 */
+	private static final int NO_ZONE = -1;
+
+	/**
+	 * Class to represent a change in a session
+	 */
+	private static class Event {
+		int seq;
+		int origin;
+		int type;
+		int piece;
+		int zone;
+		int a, b;
+		int[] pieces;
+		Event(int seq, int origin, int type) {
+			this.seq = seq;
+			this.origin = origin;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * Class to represent a record of a client message
+	 */
+	private static class Record {
+		int type;
+		int piece;
+		int zone;
+		int a, b;
+		int[] pieces;
+		Record(int type) {
+			this.type = type;
+		}
+	}
+
+	/**
+	 * Class to represent a client connected to a session
+	 */
+	private static class Client {
+		/**
+		 * The time the client was last heard of
+		 */
+		long lastSeen;
+		/**
+		 * The last sequence number acknowledged by the client
+		 */
+		int ack;
+	}
+
+	/**
+	 * Class to represent a game played by several clients
+	 */
+	private static class Session {
+		int pieceCount;
+		/**
+		 * The piece location: zone, a, b
+		 */
+		int[] zones, as, bs;
+		/**
+		 * The owner of each piece (0 if the piece is not locked)
+		 */
+		int[] owners;
+		/**
+		 * True once the board has been set by the first client
+		 */
+		boolean initialized;
+		int nextClientId = 1;
+		int seq;
+		Map<Integer, Client> clients = new HashMap<Integer, Client>();
+		List<Event> log = new ArrayList<Event>();
+
+		void setPieceCount(int count) {
+			pieceCount = count;
+			zones = new int[count];
+			as = new int[count];
+			bs = new int[count];
+			owners = new int[count];
+			for (int i = 0; i < count; i++) {
+				zones[i] = NO_ZONE;
+			}
+		}
+		boolean isValid(int piece) {
+			return piece >= 0 && piece < pieceCount;
+		}
+		boolean isFree(int piece, int clientId) {
+			return owners[piece] == 0 || owners[piece] == clientId;
+		}
+		/**
+		 * Returns the piece at the specified target,
+		 * or -1 if there is none
+		 */
+		int getPieceAt(int zone, int a, int b) {
+			if (zone != SyncBuffer.ZONE_LOOSE) {
+				for (int i = 0; i < pieceCount; i++) {
+					if (zones[i] == zone && as[i] == a && bs[i] == b) {
+						return i;
+					}
+				}
+			}
+			return -1;
+		}
+		void setLocation(int piece, int zone, int a, int b) {
+			zones[piece] = zone;
+			as[piece] = a;
+			bs[piece] = b;
+		}
+		void addMove(int origin, int piece) {
+			Event event = addEvent(origin, SyncBuffer.MOVE);
+			event.piece = piece;
+			event.zone = zones[piece];
+			event.a = as[piece];
+			event.b = bs[piece];
+		}
+		Event addEvent(int origin, int type) {
+			Event event = new Event(++seq, origin, type);
+			log.add(event);
+			return event;
+		}
+		void unlock(int clientId, int[] pieces) {
+			int count = 0;
+			for (int i = 0; i < pieces.length; i++) {
+				if (isValid(pieces[i]) && owners[pieces[i]] == clientId) {
+					owners[pieces[i]] = 0;
+					pieces[count++] = pieces[i];
+				}
+			}
+			if (count > 0) {
+				int[] released = new int[count];
+				System.arraycopy(pieces, 0, released, 0, count);
+				addEvent(clientId, SyncBuffer.UNLOCK).pieces = released;
+			}
+		}
+		void expireClients(long now) {
+			Iterator<Map.Entry<Integer, Client>> iterator = clients.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<Integer, Client> entry = iterator.next();
+				if (now - entry.getValue().lastSeen > CLIENT_TIMEOUT) {
+					iterator.remove();
+					int[] pieces = new int[pieceCount];
+					for (int i = 0; i < pieceCount; i++) {
+						pieces[i] = i;
+					}
+					unlock(entry.getKey(), pieces);
+				}
+			}
+		}
+		/**
+		 * Discards the events which all the clients have received
+		 * @return the sequence number of the oldest event still available
+		 */
+		int trimLog() {
+			int minAck = seq;
+			for (Client client : clients.values()) {
+				minAck = Math.min(minAck, client.ack);
+			}
+			int count = 0;
+			while (count < log.size() && (log.get(count).seq <= minAck || log.size() - count > MAX_LOG_SIZE)) {
+				count++;
+			}
+			log.subList(0, count).clear();
+			return log.isEmpty() ? seq + 1 : log.get(0).seq;
+		}
+	}
+
+	private Map<String, Session> sessions = new HashMap<String, Session>();
+
+	/**
+	 * Processes a client message and returns the reply
+	 * @param sessionId the session name
+	 * @param request the client message
+	 * @return the reply message
+	 * @throws IllegalArgumentException if the message is malformed
+	 * @throws IllegalStateException if the maximum number of
+	 * sessions is reached
+	 */
+	public byte[] handle(String sessionId, byte[] request) {
+		return handle(sessionId, request, System.currentTimeMillis());
+	}
+
+	/**
+	 * Processes a client message and returns the reply
+	 * @param sessionId the session name
+	 * @param request the client message
+	 * @param now the current time in ms
+	 * @return the reply message
+	 * @throws IllegalArgumentException if the message is malformed
+	 * @throws IllegalStateException if the message would create a
+	 * session when the maximum number of sessions is reached
+	 */
+	public synchronized byte[] handle(String sessionId, byte[] request, long now) {
+		for (Iterator<Session> iterator = sessions.values().iterator(); iterator.hasNext(); ) {
+			Session s = iterator.next();
+			s.expireClients(now);
+			if (s.clients.isEmpty()) {
+				iterator.remove();
+			}
+		}
+		// The whole message is validated before the session changes
+		SyncBuffer in = new SyncBuffer(request);
+		if (in.readVarInt() != SyncBuffer.VERSION) {
+			throw new IllegalArgumentException("Unsupported protocol version");
+		}
+		int clientId = in.readVarInt();
+		int ack = in.readVarInt();
+		Session session = sessions.get(sessionId);
+		List<Record> records = parse(sessionId, in, session != null ? session.pieceCount : 0);
+		if (session == null) {
+			if (sessions.size() >= MAX_SESSIONS) {
+				throw new IllegalStateException("Too many sessions");
+			}
+			session = new Session();
+			sessions.put(sessionId, session);
+		}
+		Client client = session.clients.get(clientId);
+		boolean resync = false;
+		if (client == null) {
+			clientId = session.nextClientId++;
+			client = new Client();
+			session.clients.put(clientId, client);
+			resync = true;
+		} else {
+			client.ack = Math.max(client.ack, ack);
+		}
+		client.lastSeen = now;
+
+		// Process the client records
+		boolean initializing = !session.initialized;
+		List<int[]> denied = new ArrayList<int[]>();
+		// The pieces whose move has been rejected, and the pieces
+		// swapped out of the targets of the moves
+		List<Integer> rejected = new ArrayList<Integer>();
+		List<Integer> swapped = new ArrayList<Integer>();
+		for (Record record : records) {
+			switch (record.type) {
+				case SyncBuffer.JOIN:
+					if (session.pieceCount == 0) {
+						session.setPieceCount(record.a);
+					}
+					break;
+				case SyncBuffer.STATE:
+					if (initializing) {
+						session.initialized = true;
+						session.setLocation(record.piece, record.zone, record.a, record.b);
+						session.addMove(clientId, record.piece);
+					}
+					break;
+				case SyncBuffer.MOVE: {
+					int piece = record.piece;
+					int occupant = session.getPieceAt(record.zone, record.a, record.b);
+					if (occupant == piece) {
+						occupant = -1;
+					}
+					if (!session.isFree(piece, clientId)
+					 || (occupant != -1 && (!session.isFree(occupant, clientId) || session.zones[piece] == NO_ZONE))) {
+						if (!rejected.contains(piece)) {
+							rejected.add(piece);
+						}
+						break;
+					}
+					session.initialized = true;
+					if (occupant != -1) {
+						// Swap the occupant to the former location of the piece
+						session.setLocation(occupant, session.zones[piece], session.as[piece], session.bs[piece]);
+						if (!swapped.contains(occupant)) {
+							swapped.add(occupant);
+						}
+					}
+					session.setLocation(piece, record.zone, record.a, record.b);
+					session.addMove(clientId, piece);
+					break;
+				}
+				case SyncBuffer.LOCK: {
+					boolean granted = true;
+					for (int piece : record.pieces) {
+						granted &= session.isFree(piece, clientId);
+					}
+					if (granted) {
+						for (int piece : record.pieces) {
+							session.owners[piece] = clientId;
+						}
+						session.addEvent(clientId, SyncBuffer.LOCK).pieces = record.pieces;
+					} else {
+						denied.add(record.pieces);
+					}
+					break;
+				}
+				case SyncBuffer.UNLOCK:
+					session.unlock(clientId, record.pieces);
+					break;
+				case SyncBuffer.DRAG:
+					if (session.isValid(record.piece) && session.owners[record.piece] == clientId) {
+						Event event = session.addEvent(clientId, SyncBuffer.DRAG);
+						event.piece = record.piece;
+						event.a = record.a;
+						event.b = record.b;
+					}
+					break;
+			}
+		}
+		// The swaps are decided by the server: all the clients receive
+		// the final location of the swapped pieces, after the moves
+		for (int piece : swapped) {
+			session.addMove(0, piece);
+		}
+		if (!resync && client.ack < session.trimLog() - 1) {
+			// The client missed events which are no longer available
+			resync = true;
+		}
+
+		// Write the reply
+		SyncBuffer out = new SyncBuffer();
+		out.writeVarInt(SyncBuffer.VERSION);
+		out.writeVarInt(clientId);
+		out.writeVarInt(session.seq);
+		if (resync) {
+			for (int piece = 0; piece < session.pieceCount; piece++) {
+				if (session.zones[piece] != NO_ZONE) {
+					writeMove(out, piece, session.zones[piece], session.as[piece], session.bs[piece]);
+				}
+			}
+			for (int piece = 0; piece < session.pieceCount; piece++) {
+				if (session.owners[piece] != 0 && session.owners[piece] != clientId) {
+					out.writeVarInt(SyncBuffer.LOCK);
+					out.writePieces(new int[] { piece });
+				}
+			}
+		} else {
+			for (Event event : session.log) {
+				if (event.seq > client.ack && event.origin != clientId) {
+					writeEvent(out, event);
+				}
+			}
+		}
+		for (int[] pieces : denied) {
+			out.writeVarInt(SyncBuffer.LOCK_DENIED);
+			out.writePieces(pieces);
+		}
+		// Restore the pieces which the client has moved without
+		// owning them (it has dropped them before learning that
+		// its lock was denied)
+		for (int piece : rejected) {
+			if (session.zones[piece] != NO_ZONE) {
+				writeMove(out, piece, session.zones[piece], session.as[piece], session.bs[piece]);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads and validates the records of a client message
+	 * @param pieceCount the piece count of the session (0 if unknown)
+	 * @throws IllegalArgumentException if the message is malformed
+	 */
+	private static List<Record> parse(String sessionId, SyncBuffer in, int pieceCount) {
+		List<Record> records = new ArrayList<Record>();
+		int[] drag = new int[3];
+		while (in.hasRemaining()) {
+			Record record = new Record(in.readVarInt());
+			switch (record.type) {
+				case SyncBuffer.JOIN:
+					record.a = in.readVarInt();
+					if (record.a < 1 || record.a > MAX_PIECES) {
+						throw new IllegalArgumentException("Invalid piece count: " + record.a);
+					}
+					if (pieceCount == 0) {
+						pieceCount = record.a;
+					} else if (pieceCount != record.a) {
+						throw new IllegalArgumentException("Session " + sessionId + " has " + pieceCount + " pieces");
+					}
+					break;
+				case SyncBuffer.STATE:
+				case SyncBuffer.MOVE:
+					record.piece = in.readVarInt();
+					record.zone = in.readVarInt();
+					record.a = in.readSignedVarInt();
+					record.b = in.readSignedVarInt();
+					checkPiece(record.piece, pieceCount);
+					if (record.zone < 0 || record.zone > SyncBuffer.ZONE_LOOSE) {
+						throw new IllegalArgumentException("Invalid zone: " + record.zone);
+					}
+					break;
+				case SyncBuffer.LOCK:
+					record.pieces = in.readPieces();
+					for (int piece : record.pieces) {
+						checkPiece(piece, pieceCount);
+					}
+					break;
+				case SyncBuffer.UNLOCK:
+					record.pieces = in.readPieces();
+					break;
+				case SyncBuffer.DRAG:
+					in.readDrag(drag);
+					record.piece = drag[0];
+					record.a = drag[1];
+					record.b = drag[2];
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown record type: " + record.type);
+			}
+			records.add(record);
+		}
+		return records;
+	}
+
+	private static void checkPiece(int piece, int pieceCount) {
+		if (piece < 0 || piece >= pieceCount) {
+			throw new IllegalArgumentException("Invalid piece: " + piece);
+		}
+	}
+
+	/**
+	 * Returns the number of active sessions
+	 */
+	public synchronized int getSessionCount() {
+		return sessions.size();
+	}
+
+	private static void writeMove(SyncBuffer out, int piece, int zone, int a, int b) {
+		out.writeVarInt(SyncBuffer.MOVE);
+		out.writeVarInt(piece);
+		out.writeVarInt(zone);
+		out.writeSignedVarInt(a);
+		out.writeSignedVarInt(b);
+	}
+
+	private static void writeEvent(SyncBuffer out, Event event) {
+		switch (event.type) {
+			case SyncBuffer.MOVE:
+				writeMove(out, event.piece, event.zone, event.a, event.b);
+				break;
+			case SyncBuffer.LOCK:
+			case SyncBuffer.UNLOCK:
+				out.writeVarInt(event.type);
+				out.writePieces(event.pieces);
+				break;
+			case SyncBuffer.DRAG:
+				out.writeVarInt(SyncBuffer.DRAG);
+				out.writeDrag(event.piece, event.a, event.b);
+				break;
+		}
+	}
+}
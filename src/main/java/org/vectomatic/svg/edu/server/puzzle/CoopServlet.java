@@ -0,0 +1,76 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.server.puzzle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet to expose the cooperative mode {@link CoopServer}
+ * over HTTP. Clients POST binary messages to
+ * <code>coop?session=name</code> and receive the reply
+ * in the response body.
+ */
+public class CoopServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	/**
+	 * Maximum size of a client message
+	 */
+	private static final int MAX_REQUEST_SIZE = 1 << 16;
+	private CoopServer server = new CoopServer();
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+		String session = req.getParameter("session");
+		if (session == null || session.length() == 0) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing session");
+			return;
+		}
+		ByteArrayOutputStream request = new ByteArrayOutputStream();
+		InputStream in = req.getInputStream();
+		byte[] buffer = new byte[4096];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			request.write(buffer, 0, count);
+			if (request.size() > MAX_REQUEST_SIZE) {
+				resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+				return;
+			}
+		}
+		byte[] reply;
+		try {
+			reply = server.handle(session, request.toByteArray());
+		} catch (IllegalArgumentException e) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		} catch (IllegalStateException e) {
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+			return;
+		}
+		resp.setContentType("application/octet-stream");
+		resp.setHeader("Cache-Control", "no-cache");
+		resp.setContentLength(reply.length);
+		resp.getOutputStream().write(reply);
+	}
+}
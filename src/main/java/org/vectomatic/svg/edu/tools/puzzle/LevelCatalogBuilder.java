@@ -0,0 +1,358 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.tools.puzzle;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Build time tool which measures the levels listed in
+ * <code>levels.txt</code> and writes the level catalog read
+ * by the game. The catalog has one line per level:
+ * <pre>
+ * name width height elements segments cost hash
+ * </pre>
+ * where width and height are the viewBox size, elements the
+ * number of SVG elements, segments the number of path segments,
+ * cost an estimate of the time needed to render the image once
+ * and hash a hash of the file content (used to version the
+ * levels cached by the browser).
+ * <p>Usage: <code>LevelCatalogBuilder levels.txt svgDir catalog</code></p>
+ */
+public class LevelCatalogBuilder {
+	private static final String SVG_NAMESPACE = "http://www.w3.org/2000/svg";
+	/**
+	 * Render cost of an element (style resolution, fill and stroke
+	 * setup), in path segments
+	 */
+	private static final int ELEMENT_COST = 4;
+	/**
+	 * The catalog measures
+	 */
+	private int elementCount;
+	private int segmentCount;
+	private float width;
+	private float height;
+	private DocumentBuilder builder;
+
+	public LevelCatalogBuilder() throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setValidating(false);
+		// Do not fetch the SVG DTD referenced by some levels
+		factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		builder = factory.newDocumentBuilder();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 3) {
+			System.err.println("Usage: LevelCatalogBuilder levels.txt svgDir catalog");
+			System.exit(1);
+		}
+		List<String> levels = readLevels(new File(args[0]));
+		File svgDir = new File(args[1]);
+		File catalog = new File(args[2]);
+		catalog.getParentFile().mkdirs();
+		LevelCatalogBuilder measurer = new LevelCatalogBuilder();
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(catalog), "UTF-8"));
+		try {
+			writer.println("# Generated by LevelCatalogBuilder, do not edit");
+			writer.println("# name width height elements segments cost hash");
+			for (String level : levels) {
+				File file = new File(svgDir, level);
+				measurer.measure(file);
+				writer.println(level
+						+ " " + format(measurer.width)
+						+ " " + format(measurer.height)
+						+ " " + measurer.elementCount
+						+ " " + measurer.segmentCount
+						+ " " + measurer.getCost()
+						+ " " + hash(file));
+			}
+		} finally {
+			writer.close();
+		}
+		System.out.println("Wrote " + levels.size() + " levels to " + catalog);
+	}
+
+	/**
+	 * Returns the level file names listed in the specified file
+	 */
+	public static List<String> readLevels(File file) throws IOException {
+		List<String> levels = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				for (String level : line.trim().split("\\s+")) {
+					if (level.length() > 0) {
+						levels.add(level);
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return levels;
+	}
+
+	/**
+	 * Returns the first 64 bits of the SHA-1 hash of the
+	 * specified file, in hexadecimal
+	 */
+	private static String hash(File file) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, count);
+			}
+		} finally {
+			in.close();
+		}
+		byte[] hash = digest.digest();
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 8; i++) {
+			builder.append(String.format("%02x", hash[i] & 0xff));
+		}
+		return builder.toString();
+	}
+
+	private static String format(float value) {
+		return value == (int)value ? Integer.toString((int)value) : String.format(Locale.US, "%.2f", value);
+	}
+
+	/**
+	 * Measures the specified SVG file
+	 * @return the root element of the file
+	 */
+	public Element measure(File file) throws Exception {
+		Element root = builder.parse(file).getDocumentElement();
+		if (!SVG_NAMESPACE.equals(root.getNamespaceURI()) || !"svg".equals(root.getLocalName())) {
+			throw new IllegalArgumentException(file + " is not an SVG document");
+		}
+		elementCount = 0;
+		segmentCount = 0;
+		measureViewBox(root);
+		measureElement(root);
+		return root;
+	}
+
+	/**
+	 * Returns the viewBox width of the last measured image
+	 */
+	public float getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the viewBox height of the last measured image
+	 */
+	public float getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the estimated render cost of the last measured
+	 * image, in path segments
+	 */
+	public int getCost() {
+		return segmentCount + ELEMENT_COST * elementCount;
+	}
+
+	private void measureViewBox(Element root) {
+		String viewBox = root.getAttribute("viewBox").trim();
+		if (viewBox.length() > 0) {
+			String[] values = viewBox.split("[\\s,]+");
+			width = Float.parseFloat(values[2]);
+			height = Float.parseFloat(values[3]);
+		} else {
+			width = parseLength(root.getAttribute("width"));
+			height = parseLength(root.getAttribute("height"));
+		}
+	}
+
+	private static float parseLength(String length) {
+		int end = 0;
+		while (end < length.length() && "0123456789.-+eE".indexOf(length.charAt(end)) != -1) {
+			end++;
+		}
+		return end > 0 ? Float.parseFloat(length.substring(0, end)) : 0f;
+	}
+
+	/**
+	 * Counts the rendered SVG elements of the specified subtree
+	 * and their path segments. Metadata and foreign elements
+	 * (editor namespaces) are ignored.
+	 */
+	private void measureElement(Element element) {
+		if (!SVG_NAMESPACE.equals(element.getNamespaceURI())) {
+			return;
+		}
+		String name = element.getLocalName();
+		if ("metadata".equals(name) || "title".equals(name) || "desc".equals(name)) {
+			return;
+		}
+		elementCount++;
+		if ("path".equals(name)) {
+			segmentCount += countPathSegments(element.getAttribute("d"));
+		} else if ("polygon".equals(name) || "polyline".equals(name)) {
+			segmentCount += countNumbers(element.getAttribute("points")) / 2;
+		} else if ("rect".equals(name) || "circle".equals(name) || "ellipse".equals(name)) {
+			segmentCount += 4;
+		} else if ("line".equals(name)) {
+			segmentCount++;
+		}
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				measureElement((Element)child);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of segments of the specified path data,
+	 * including the implicit repetitions of a command
+	 */
+	static int countPathSegments(String d) {
+		int count = 0;
+		int arity = 0;
+		int args = 0;
+		int i = 0;
+		int length = d.length();
+		while (i < length) {
+			char c = d.charAt(i);
+			int a = getArity(c);
+			if (a >= 0) {
+				count += flush(args, arity);
+				arity = a;
+				args = 0;
+				if (arity == 0) {
+					// closepath
+					count++;
+				}
+				i++;
+			} else if (isNumberStart(c)) {
+				i = skipNumber(d, i);
+				args++;
+			} else {
+				i++;
+			}
+		}
+		return count + flush(args, arity);
+	}
+
+	private static int flush(int args, int arity) {
+		return arity > 0 ? args / arity : 0;
+	}
+
+	/**
+	 * Returns the number of arguments of the specified path
+	 * command, or -1 if the character is not a command
+	 */
+	private static int getArity(char c) {
+		switch (Character.toLowerCase(c)) {
+			case 'z':
+				return 0;
+			case 'h':
+			case 'v':
+				return 1;
+			case 'm':
+			case 'l':
+			case 't':
+				return 2;
+			case 's':
+			case 'q':
+				return 4;
+			case 'c':
+				return 6;
+			case 'a':
+				return 7;
+			default:
+				return -1;
+		}
+	}
+
+	private static int countNumbers(String s) {
+		int count = 0;
+		int i = 0;
+		while (i < s.length()) {
+			if (isNumberStart(s.charAt(i))) {
+				i = skipNumber(s, i);
+				count++;
+			} else {
+				i++;
+			}
+		}
+		return count;
+	}
+
+	private static boolean isNumberStart(char c) {
+		return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.';
+	}
+
+	/**
+	 * Returns the index of the first character after the number
+	 * starting at the specified index
+	 */
+	private static int skipNumber(String s, int i) {
+		int length = s.length();
+		if (s.charAt(i) == '-' || s.charAt(i) == '+') {
+			i++;
+		}
+		boolean dot = false;
+		while (i < length) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				i++;
+			} else if (c == '.' && !dot) {
+				dot = true;
+				i++;
+			} else if ((c == 'e' || c == 'E') && i + 1 < length) {
+				// Exponent
+				i++;
+				if (s.charAt(i) == '-' || s.charAt(i) == '+') {
+					i++;
+				}
+				dot = true;
+			} else {
+				break;
+			}
+		}
+		return i;
+	}
+}
@@ -0,0 +1,81 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+/*
+ * Service worker which precaches the game, so that repeat
+ * launches and level changes work without network access.
+ * The list of files comes from precache.json, generated by
+ * the build along with the version hash substituted below.
+ * A new build changes this script, which makes browsers
+ * install the new version and drop the previous cache.
+ */
+var VERSION = '@VERSION@';
+var CACHE_PREFIX = 'lib-gwt-svg-edu-puzzle-';
+var CACHE = CACHE_PREFIX + VERSION;
+var HOST_PAGE = 'lib-gwt-svg-edu-puzzle.html';
+
+self.addEventListener('install', function(event) {
+	event.waitUntil(fetch('precache.json', { cache: 'no-cache' }).then(function(response) {
+		if (!response.ok) {
+			throw new Error('Cannot fetch precache.json: ' + response.status);
+		}
+		return response.json();
+	}).then(function(manifest) {
+		if (manifest.version !== VERSION) {
+			throw new Error('Precache version mismatch: ' + manifest.version + ' != ' + VERSION);
+		}
+		return caches.open(CACHE).then(function(cache) {
+			// Bypass the HTTP cache, which may still hold the
+			// files of the previous version
+			return cache.addAll(manifest.files.map(function(file) {
+				return new Request(file, { cache: 'reload' });
+			}));
+		});
+	}).then(function() {
+		return self.skipWaiting();
+	}));
+});
+
+self.addEventListener('activate', function(event) {
+	event.waitUntil(caches.keys().then(function(keys) {
+		return Promise.all(keys.filter(function(key) {
+			return key.indexOf(CACHE_PREFIX) === 0 && key !== CACHE;
+		}).map(function(key) {
+			return caches.delete(key);
+		}));
+	}).then(function() {
+		return self.clients.claim();
+	}));
+});
+
+self.addEventListener('fetch', function(event) {
+	var request = event.request;
+	if (request.method !== 'GET') {
+		// Cooperative mode requests always go to the network
+		return;
+	}
+	event.respondWith(caches.open(CACHE).then(function(cache) {
+		return cache.match(request).then(function(response) {
+			return response || fetch(request).catch(function(error) {
+				if (request.mode === 'navigate') {
+					return cache.match(HOST_PAGE);
+				}
+				throw error;
+			});
+		});
+	}));
+});
@@ -0,0 +1,50 @@
+#!/bin/sh
+# Runs the soak test of the puzzle (see SoakDriver) in headless
+# Chrome and prints its report. The game must have been built
+# with "mvn package" first.
+# Usage: soak.sh [strategy] [games] [timeout]
+#  strategy: random or greedy (default greedy)
+#  games: number of games per level and grid size (default 3)
+#  timeout: maximum duration of the test in seconds (default 3600)
+# Environment:
+#  CHROME: the Chrome or Chromium executable (default chromium)
+#  CHROME_FLAGS: additional flags (for instance --no-sandbox)
+#  PORT: the port of the local HTTP server (default 8765)
+STRATEGY=${1:-greedy}
+GAMES=${2:-3}
+TIMEOUT=${3:-3600}
+CHROME=${CHROME:-chromium}
+PORT=${PORT:-8765}
+BASEDIR=$(cd "$(dirname "$0")/../../.." && pwd)
+WEBAPP=$(ls -d "$BASEDIR"/target/lib-gwt-svg-edu-puzzle-*/ 2>/dev/null | head -n 1)
+if [ -z "$WEBAPP" ]; then
+	echo "No exploded war in $BASEDIR/target, run mvn package first" >&2
+	exit 2
+fi
+LOG=$(mktemp)
+PROFILE=$(mktemp -d)
+
+(cd "$WEBAPP" && exec python3 -m http.server "$PORT" >/dev/null 2>&1) &
+SERVER=$!
+sleep 1
+"$CHROME" --headless --disable-gpu --user-data-dir="$PROFILE" \
+	--enable-logging=stderr --v=0 \
+	--js-flags=--expose-gc --enable-precise-memory-info \
+	$CHROME_FLAGS \
+	"http://localhost:$PORT/lib-gwt-svg-edu-puzzle.html?soak=$STRATEGY&games=$GAMES" 2>"$LOG" &
+BROWSER=$!
+
+ELAPSED=0
+while ! grep -q "SOAK DONE" "$LOG" && [ "$ELAPSED" -lt "$TIMEOUT" ]; do
+	sleep 5
+	ELAPSED=$((ELAPSED + 5))
+done
+kill "$BROWSER" "$SERVER" 2>/dev/null
+
+# Keep the console messages only
+REPORT=$(sed -n 's/.*CONSOLE([0-9]*)\] "\(.*\)", source: .*/\1/p' "$LOG")
+rm -rf "$LOG" "$PROFILE"
+echo "$REPORT"
+
+# Fail on timeout or on invariant violations
+echo "$REPORT" | grep -q "SOAK DONE: .* 0 violations" || exit 1
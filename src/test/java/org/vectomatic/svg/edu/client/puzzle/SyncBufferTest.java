@@ -0,0 +1,117 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.client.puzzle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests of the encoding of the cooperative mode messages
+ */
+public class SyncBufferTest {
+	private static final int[] VALUES = { 0, 1, 63, 64, 127, 128, 16383, 16384, -1, -64, -65, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+	@Test
+	public void testVarInt() {
+		SyncBuffer out = new SyncBuffer();
+		for (int value : VALUES) {
+			out.writeVarInt(value);
+		}
+		SyncBuffer in = new SyncBuffer(out.toByteArray());
+		for (int value : VALUES) {
+			assertEquals(value, in.readVarInt());
+		}
+		assertFalse(in.hasRemaining());
+		// Small values fit in one byte
+		out = new SyncBuffer();
+		out.writeVarInt(127);
+		assertEquals(1, out.size());
+	}
+
+	@Test
+	public void testSignedVarInt() {
+		SyncBuffer out = new SyncBuffer();
+		for (int value : VALUES) {
+			out.writeSignedVarInt(value);
+		}
+		SyncBuffer in = new SyncBuffer(out.toByteArray());
+		for (int value : VALUES) {
+			assertEquals(value, in.readSignedVarInt());
+		}
+		assertFalse(in.hasRemaining());
+		// Small values of either sign fit in one byte
+		out = new SyncBuffer();
+		out.writeSignedVarInt(-64);
+		out.writeSignedVarInt(63);
+		assertEquals(2, out.size());
+	}
+
+	@Test
+	public void testDrag() {
+		int[][] drags = { { 3, 100, 200 }, { 5, -40, 7 }, { 3, 104, 198 }, { 3, -1000, 5000 }, { 5, -40, 7 } };
+		SyncBuffer out = new SyncBuffer();
+		for (int[] drag : drags) {
+			out.writeDrag(drag[0], drag[1], drag[2]);
+		}
+		SyncBuffer in = new SyncBuffer(out.toByteArray());
+		int[] drag = new int[3];
+		for (int[] expected : drags) {
+			in.readDrag(drag);
+			assertEquals(expected[0], drag[0]);
+			assertEquals(expected[1], drag[1]);
+			assertEquals(expected[2], drag[2]);
+		}
+		assertFalse(in.hasRemaining());
+	}
+
+	@Test
+	public void testPieces() {
+		int[] pieces = { 0, 7, 300 };
+		SyncBuffer out = new SyncBuffer();
+		out.writePieces(pieces);
+		SyncBuffer in = new SyncBuffer(out.toByteArray());
+		int[] read = in.readPieces();
+		assertEquals(pieces.length, read.length);
+		for (int i = 0; i < pieces.length; i++) {
+			assertEquals(pieces[i], read[i]);
+		}
+	}
+
+	@Test
+	public void testMalformed() {
+		SyncBuffer out = new SyncBuffer();
+		out.writeVarInt(-1);
+		assertMalformed(out.toByteArray());
+		out = new SyncBuffer();
+		out.writeVarInt(1000);
+		out.writeVarInt(1);
+		assertMalformed(out.toByteArray());
+		assertMalformed(new byte[] { (byte)0x80 });
+	}
+
+	private static void assertMalformed(byte[] message) {
+		try {
+			new SyncBuffer(message).readPieces();
+			fail("Malformed piece list accepted");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.server.puzzle;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vectomatic.svg.edu.client.puzzle.SyncBuffer;
+
+/**
+ * Load driver of the cooperative mode server. Each simulated
+ * client runs in its own thread and plays random drags (lock,
+ * drag positions, move, unlock) against a {@link CoopServer}
+ * run in-process, so that several clients contend for the same
+ * pieces. The driver reports the number of requests per second
+ * and the number of denied locks.
+ * <p>Usage: <code>CoopLoadDriver [sessions [clients [pieces [seconds]]]]</code></p>
+ */
+public class CoopLoadDriver {
+	/**
+	 * Number of drag positions sent per drag
+	 */
+	private static final int DRAG_STEPS = 4;
+
+	public static void main(String[] args) throws InterruptedException {
+		int sessionCount = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		int clientCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		final int pieceCount = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+		final CoopServer server = new CoopServer();
+		final AtomicLong requestCount = new AtomicLong();
+		final AtomicLong deniedCount = new AtomicLong();
+		final long end = System.currentTimeMillis() + 1000L * seconds;
+		Thread[] threads = new Thread[sessionCount * clientCount];
+		for (int i = 0; i < sessionCount; i++) {
+			// The first client of each session sets the board
+			final CoopTestClient first = new CoopTestClient(server, "load" + i);
+			first.join(pieceCount);
+			for (int piece = 0; piece < pieceCount; piece++) {
+				first.state(piece, SyncBuffer.ZONE_LOOSE, piece, 0);
+			}
+			first.send(System.currentTimeMillis());
+			for (int j = 0; j < clientCount; j++) {
+				final CoopTestClient client = j == 0 ? first : new CoopTestClient(server, "load" + i).join(pieceCount);
+				final Random random = new Random(i * clientCount + j);
+				threads[i * clientCount + j] = new Thread() {
+					@Override
+					public void run() {
+						long now;
+						while ((now = System.currentTimeMillis()) < end) {
+							int piece = random.nextInt(pieceCount);
+							boolean denied = false;
+							for (String record : client.lock(piece).send(now)) {
+								denied |= record.startsWith("LOCK_DENIED");
+							}
+							requestCount.incrementAndGet();
+							if (denied) {
+								deniedCount.incrementAndGet();
+								continue;
+							}
+							int x = random.nextInt(1000);
+							int y = random.nextInt(1000);
+							for (int k = 0; k < DRAG_STEPS; k++) {
+								client.drag(piece, x + k, y + k);
+								client.send(System.currentTimeMillis());
+								requestCount.incrementAndGet();
+							}
+							client.move(piece, SyncBuffer.ZONE_LOOSE, x, y).unlock(piece).send(System.currentTimeMillis());
+							requestCount.incrementAndGet();
+						}
+					}
+				};
+			}
+		}
+		long start = System.currentTimeMillis();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		double elapsed = (System.currentTimeMillis() - start) / 1000.0;
+		System.out.println(sessionCount + " sessions, " + clientCount + " clients per session, " + pieceCount + " pieces");
+		System.out.println(requestCount.get() + " requests in " + elapsed + " s (" + Math.round(requestCount.get() / elapsed) + " requests/s)");
+		System.out.println(deniedCount.get() + " denied locks");
+	}
+}
@@ -0,0 +1,150 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.server.puzzle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.vectomatic.svg.edu.client.puzzle.SyncBuffer;
+
+/**
+ * Tests of the arbitration of the cooperative mode server.
+ * The board of the tests is a row of pieces in the assembly
+ * zone, piece i being on target (i, 0).
+ */
+public class CoopServerTest {
+	private static final int ZONE_ASSEMBLY = 1;
+	private static final String SESSION = "test";
+	private CoopServer server;
+	private long now;
+
+	@Before
+	public void setUp() {
+		server = new CoopServer();
+		now = 1000;
+	}
+
+	/**
+	 * Creates a client which joins the session, and sets
+	 * the board if it is the first one
+	 */
+	private CoopTestClient join(int pieceCount) {
+		CoopTestClient client = new CoopTestClient(server, SESSION);
+		client.join(pieceCount);
+		for (int i = 0; i < pieceCount; i++) {
+			client.state(i, ZONE_ASSEMBLY, i, 0);
+		}
+		client.send(now);
+		return client;
+	}
+
+	@Test
+	public void testLockRace() {
+		CoopTestClient a = join(2);
+		CoopTestClient b = join(2);
+		assertEquals(Arrays.<String>asList(), a.lock(0).send(now));
+		// The first request processed wins, whatever the
+		// client which sends it
+		assertEquals(Arrays.asList("LOCK 0", "LOCK_DENIED 0"), b.lock(0).send(now));
+		assertEquals(Arrays.<String>asList(), a.send(now));
+
+		// Same race, the other client first
+		a.unlock(0).send(now);
+		b.send(now);
+		assertEquals(Arrays.<String>asList(), b.lock(0, 1).send(now));
+		assertEquals(Arrays.asList("LOCK 0 1", "LOCK_DENIED 1"), a.lock(1).send(now));
+	}
+
+	@Test
+	public void testSwap() {
+		CoopTestClient a = join(3);
+		CoopTestClient b = join(3);
+		// The server decides the swap, and sends it to
+		// the client which made the move as well
+		assertEquals(Arrays.asList("MOVE 1 1 0 0"), a.lock(0).move(0, ZONE_ASSEMBLY, 1, 0).unlock(0).send(now));
+		List<String> reply = b.send(now);
+		assertEquals(Arrays.asList("LOCK 0", "MOVE 0 1 1 0", "UNLOCK 0", "MOVE 1 1 0 0"), reply);
+
+		// A piece cannot be swapped out of its target
+		// while another client holds it
+		b.lock(1).send(now);
+		a.send(now);
+		assertEquals(Arrays.asList("MOVE 0 1 1 0"), a.lock(0).move(0, ZONE_ASSEMBLY, 0, 0).unlock(0).send(now));
+		assertBoard(3, "MOVE 0 1 1 0", "MOVE 1 1 0 0", "MOVE 2 1 2 0", "LOCK 1");
+	}
+
+	@Test
+	public void testRejectedMove() {
+		CoopTestClient a = join(2);
+		CoopTestClient b = join(2);
+		a.lock(0).send(now);
+		// b drops the piece before learning that its lock
+		// has been denied: the reply restores the piece
+		List<String> reply = b.lock(0).move(0, SyncBuffer.ZONE_LOOSE, 40, 40).unlock(0).send(now);
+		assertEquals(Arrays.asList("LOCK 0", "LOCK_DENIED 0", "MOVE 0 1 0 0"), reply);
+		assertEquals(Arrays.<String>asList(), a.send(now));
+		assertBoard(2, "MOVE 0 1 0 0", "MOVE 1 1 1 0", "LOCK 0");
+	}
+
+	@Test
+	public void testResync() {
+		CoopTestClient a = join(2);
+		CoopTestClient b = join(2);
+		// b stays silent while a plays more moves than the log keeps
+		for (int i = 1; i <= 50; i++) {
+			for (int j = 0; j < 100; j++) {
+				a.move(0, SyncBuffer.ZONE_LOOSE, i, j);
+			}
+			a.send(now);
+		}
+		assertEquals(Arrays.asList("MOVE 0 2 50 99", "MOVE 1 1 1 0"), b.send(now));
+		assertEquals(Arrays.<String>asList(), b.send(now));
+	}
+
+	@Test
+	public void testMalformedMessage() {
+		CoopTestClient a = join(2);
+		try {
+			a.move(0, SyncBuffer.ZONE_LOOSE, 5, 5).move(2, ZONE_ASSEMBLY, 0, 0).send(now);
+			fail("Invalid piece accepted");
+		} catch (IllegalArgumentException e) {
+		}
+		// The valid records of the message are not applied either
+		assertBoard(2, "MOVE 0 1 0 0", "MOVE 1 1 1 0");
+		for (int count : new int[] { 0, -1, Integer.MAX_VALUE }) {
+			try {
+				new CoopTestClient(server, "other").join(count).send(now);
+				fail("Invalid piece count accepted: " + count);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		assertEquals(1, server.getSessionCount());
+	}
+
+	/**
+	 * Checks the board seen by a new client
+	 */
+	private void assertBoard(int pieceCount, String... expected) {
+		assertEquals(Arrays.asList(expected), new CoopTestClient(server, SESSION).join(pieceCount).send(now));
+	}
+}
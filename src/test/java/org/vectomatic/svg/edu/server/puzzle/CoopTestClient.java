@@ -0,0 +1,140 @@
+/**********************************************
+ * Copyright (C) 2010 Lukas Laag
+ * This file is part of lib-gwt-svg-edu.
+ * 
+ * libgwtsvg-edu is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * libgwtsvg-edu is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with libgwtsvg-edu.  If not, see http://www.gnu.org/licenses/
+ **********************************************/
+package org.vectomatic.svg.edu.server.puzzle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.vectomatic.svg.edu.client.puzzle.SyncBuffer;
+
+/**
+ * Client of a {@link CoopServer} run in-process, used by the
+ * tests and the load driver. The client keeps its id and the
+ * last sequence number it has received, like CoopSync, and
+ * decodes the replies as readable records.
+ */
+class CoopTestClient {
+	private CoopServer server;
+	private String sessionId;
+	private int id;
+	private int ack;
+	private SyncBuffer records = new SyncBuffer();
+
+	CoopTestClient(CoopServer server, String sessionId) {
+		this.server = server;
+		this.sessionId = sessionId;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public CoopTestClient join(int pieceCount) {
+		records.writeVarInt(SyncBuffer.JOIN);
+		records.writeVarInt(pieceCount);
+		return this;
+	}
+
+	public CoopTestClient state(int piece, int zone, int a, int b) {
+		return writeMove(SyncBuffer.STATE, piece, zone, a, b);
+	}
+
+	public CoopTestClient move(int piece, int zone, int a, int b) {
+		return writeMove(SyncBuffer.MOVE, piece, zone, a, b);
+	}
+
+	public CoopTestClient lock(int... pieces) {
+		records.writeVarInt(SyncBuffer.LOCK);
+		records.writePieces(pieces);
+		return this;
+	}
+
+	public CoopTestClient unlock(int... pieces) {
+		records.writeVarInt(SyncBuffer.UNLOCK);
+		records.writePieces(pieces);
+		return this;
+	}
+
+	public CoopTestClient drag(int piece, int x, int y) {
+		records.writeVarInt(SyncBuffer.DRAG);
+		records.writeDrag(piece, x, y);
+		return this;
+	}
+
+	private CoopTestClient writeMove(int type, int piece, int zone, int a, int b) {
+		records.writeVarInt(type);
+		records.writeVarInt(piece);
+		records.writeVarInt(zone);
+		records.writeSignedVarInt(a);
+		records.writeSignedVarInt(b);
+		return this;
+	}
+
+	/**
+	 * Sends the pending records and returns the records of the
+	 * reply, as strings such as "MOVE 3 1 0 2" or "LOCK_DENIED 3"
+	 */
+	public List<String> send(long now) {
+		SyncBuffer message = new SyncBuffer();
+		message.writeVarInt(SyncBuffer.VERSION);
+		message.writeVarInt(id);
+		message.writeVarInt(ack);
+		message.write(records);
+		records = new SyncBuffer();
+		SyncBuffer in = new SyncBuffer(server.handle(sessionId, message.toByteArray(), now));
+		if (in.readVarInt() != SyncBuffer.VERSION) {
+			throw new IllegalStateException("Unsupported protocol version");
+		}
+		id = in.readVarInt();
+		ack = in.readVarInt();
+		List<String> reply = new ArrayList<String>();
+		int[] drag = new int[3];
+		while (in.hasRemaining()) {
+			int type = in.readVarInt();
+			switch (type) {
+				case SyncBuffer.MOVE:
+					reply.add("MOVE " + in.readVarInt() + " " + in.readVarInt() + " " + in.readSignedVarInt() + " " + in.readSignedVarInt());
+					break;
+				case SyncBuffer.LOCK:
+					reply.add("LOCK" + toString(in.readPieces()));
+					break;
+				case SyncBuffer.LOCK_DENIED:
+					reply.add("LOCK_DENIED" + toString(in.readPieces()));
+					break;
+				case SyncBuffer.UNLOCK:
+					reply.add("UNLOCK" + toString(in.readPieces()));
+					break;
+				case SyncBuffer.DRAG:
+					in.readDrag(drag);
+					reply.add("DRAG " + drag[0] + " " + drag[1] + " " + drag[2]);
+					break;
+				default:
+					throw new IllegalStateException("Unknown record type: " + type);
+			}
+		}
+		return reply;
+	}
+
+	private static String toString(int[] pieces) {
+		StringBuilder builder = new StringBuilder();
+		for (int piece : pieces) {
+			builder.append(' ').append(piece);
+		}
+		return builder.toString();
+	}
+}